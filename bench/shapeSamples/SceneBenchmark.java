@@ -0,0 +1,96 @@
+package shapeSamples;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.geom.Ellipse2D;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks of queries and repainting of a region of ShapeScene
+ *
+ * Small rectangles and ellipses are placed at random in an area of
+ * 4000x4000 pixels. The time should not grow with the number of shapes.
+ *
+ * @author tadaki
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SceneBenchmark {
+
+    private static final int SIZE = 4000;
+    private static final int REGION = 64;//size of queried region
+    @Param({"1000", "100000"})
+    public int shapes;
+    private ShapeScene scene;
+    private final Random random = new Random(1);
+    private Graphics2D g;
+
+    @Setup
+    public void setup() {
+        scene = new ShapeScene(SIZE, SIZE);
+        BasicStroke stroke = new BasicStroke(2f);
+        for (int i = 0; i < shapes; i++) {
+            double x = random.nextDouble() * SIZE;
+            double y = random.nextDouble() * SIZE;
+            double w = 4 + random.nextDouble() * 40;
+            double h = 4 + random.nextDouble() * 40;
+            Color c = new Color(random.nextInt());
+            if (i % 2 == 0) {
+                scene.add(ShapeScene.Item.fill(
+                        new Rectangle2D.Double(x, y, w, h), c));
+            } else {
+                scene.add(ShapeScene.Item.draw(
+                        new Ellipse2D.Double(x, y, w, h), c, stroke));
+            }
+        }
+        g = new BufferedImage(SIZE, SIZE, BufferedImage.TYPE_INT_RGB)
+                .createGraphics();
+    }
+
+    private Rectangle randomRegion() {
+        return new Rectangle(random.nextInt(SIZE - REGION),
+                random.nextInt(SIZE - REGION), REGION, REGION);
+    }
+
+    @Benchmark
+    public ShapeScene.Item hit() {
+        return scene.hit(random.nextDouble() * SIZE,
+                random.nextDouble() * SIZE);
+    }
+
+    @Benchmark
+    public List<ShapeScene.Item> query() {
+        return scene.query(randomRegion());
+    }
+
+    @Benchmark
+    public Graphics2D paintRegion() {
+        Rectangle r = randomRegion();
+        g.setClip(r);
+        g.setColor(Color.WHITE);
+        g.fill(r);
+        scene.paint(g, r);
+        return g;
+    }
+}
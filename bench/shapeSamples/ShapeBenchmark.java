@@ -0,0 +1,77 @@
+package shapeSamples;
+
+import java.awt.Dimension;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+import javax.imageio.ImageIO;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import utils.PngEncoder;
+
+/**
+ * Benchmarks of drawing samples and encoding images
+ *
+ * saveImage() encodes in background with dialogs, so the encoders it uses
+ * are measured directly: PngEncoder for PNG and ImageIO for JPG, with
+ * ImageIO PNG for comparison. Images are written to a null stream so that
+ * the disk is not measured.
+ *
+ * @author tadaki
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ShapeBenchmark {
+
+    @Param({"400", "2000"})
+    public int canvasSize;
+    private DrawPanel panel;
+    private BufferedImage image;
+
+    @Setup
+    public void setup() {
+        panel = new DrawPanel();
+        panel.setPreferredSize(new Dimension(canvasSize, canvasSize));
+        panel.drawSamples();
+        //image with the samples
+        image = new BufferedImage(canvasSize, canvasSize,
+                BufferedImage.TYPE_INT_RGB);
+        panel.setSize(canvasSize, canvasSize);
+        panel.paint(image.getGraphics());
+    }
+
+    @Benchmark
+    public DrawPanel drawSamples() {
+        panel.drawSamples();
+        return panel;
+    }
+
+    @Benchmark
+    public void savePNG() throws IOException {
+        new PngEncoder().encode(image, OutputStream.nullOutputStream());
+    }
+
+    @Benchmark
+    public void savePNGImageIO() throws IOException {
+        ImageIO.write(image, "png", OutputStream.nullOutputStream());
+    }
+
+    @Benchmark
+    public void saveJPG() throws IOException {
+        ImageIO.write(image, "jpg", OutputStream.nullOutputStream());
+    }
+}
@@ -0,0 +1,101 @@
+package simpleDrawer;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmark of drawing strokes into TiledCanvas by Java2D and by RasterBrush
+ *
+ * A random walk of points is drawn as connected segments, alternately in two
+ * colors so that every iteration writes pixels. step is the distance between
+ * points: a few pixels for slow motion of the mouse, and longer for fast
+ * motion. store is the storage of tiles: Java heap, or a memory-mapped file
+ * in the temporary directory. brush raster fills spans by the Vector API,
+ * for which the fork adds jdk.incubator.vector, and scalar by Arrays.fill.
+ *
+ * @author tadaki
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class BrushBenchmark {
+
+    private static final int SIZE = 1024;
+    private static final int POINTS = 1000;
+    @Param({"java2d", "raster", "scalar"})
+    public String brush;
+    @Param({"3", "20", "64"})
+    public float width;
+    @Param({"4", "32"})
+    public int step;
+    @Param({"heap", "mapped"})
+    public String store;
+    private TileStore tileStore;
+    private java.io.File file;
+    private TiledCanvas canvas;
+    private RasterBrush rasterBrush;
+    private BasicStroke stroke;
+    private final int[] xs = new int[POINTS];
+    private final int[] ys = new int[POINTS];
+    private final Color[] colors = {Color.RED, Color.BLUE};
+    private int count = 0;
+
+    @Setup
+    public void setup() throws java.io.IOException {
+        if (store.equals("mapped")) {
+            file = java.io.File.createTempFile("tiles", ".bin");
+            tileStore = new MappedTileStore(file);
+        } else {
+            tileStore = TileStore.HEAP;
+        }
+        canvas = new TiledCanvas(SIZE, SIZE, Color.WHITE, tileStore);
+        rasterBrush = new RasterBrush(!brush.equals("scalar"));
+        stroke = new BasicStroke(width);
+        java.util.Random random = new java.util.Random(1);
+        double angle = 0;
+        xs[0] = SIZE / 2;
+        ys[0] = SIZE / 2;
+        for (int i = 1; i < POINTS; i++) {
+            angle += 0.3 * random.nextGaussian();
+            xs[i] = Math.floorMod(
+                    xs[i - 1] + (int) Math.round(step * Math.cos(angle)), SIZE);
+            ys[i] = Math.floorMod(
+                    ys[i - 1] + (int) Math.round(step * Math.sin(angle)), SIZE);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws java.io.IOException {
+        tileStore.close();
+        if (file != null) {
+            file.delete();
+        }
+    }
+
+    @Benchmark
+    public TiledCanvas draw() {
+        Color color = colors[count++ % 2];
+        if (!brush.equals("java2d")) {
+            rasterBrush.drawSegments(canvas, xs, ys, 0, POINTS, color, width);
+        } else {
+            canvas.drawSegments(xs, ys, 0, POINTS, color, stroke);
+        }
+        return canvas;
+    }
+}
@@ -0,0 +1,78 @@
+package simpleDrawer;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import javax.imageio.ImageIO;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import utils.PngEncoder;
+
+/**
+ * Benchmarks of encoding the canvas as saveImage() does
+ *
+ * The canvas is drawn with random strokes, and a snapshot of it is encoded
+ * to a null stream: PNG by PngEncoder, JPG by ImageIO.
+ *
+ * @author tadaki
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ExportBenchmark {
+
+    @Param({"512", "2048"})
+    public int canvasSize;
+    private TiledCanvas canvas;
+
+    @Setup
+    public void setup() {
+        canvas = new TiledCanvas(canvasSize, canvasSize, Color.WHITE);
+        Random random = new Random(1);
+        int n = 200;
+        int[] xs = new int[n];
+        int[] ys = new int[n];
+        for (int i = 0; i < n; i++) {
+            xs[i] = random.nextInt(canvasSize);
+            ys[i] = random.nextInt(canvasSize);
+        }
+        canvas.drawSegments(xs, ys, 0, n, Color.BLACK, new BasicStroke(3f));
+    }
+
+    @Benchmark
+    public void savePNG() throws IOException {
+        CanvasSnapshot snapshot = canvas.snapshot();
+        try {
+            new PngEncoder().encode(snapshot.asImage(),
+                    OutputStream.nullOutputStream());
+        } finally {
+            snapshot.release();
+        }
+    }
+
+    @Benchmark
+    public void saveJPG() throws IOException {
+        CanvasSnapshot snapshot = canvas.snapshot();
+        try {
+            ImageIO.write(snapshot.asImage(), "jpg",
+                    OutputStream.nullOutputStream());
+        } finally {
+            snapshot.release();
+        }
+    }
+}
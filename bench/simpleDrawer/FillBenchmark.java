@@ -0,0 +1,74 @@
+package simpleDrawer;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Rectangle;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmark of flood fill
+ *
+ * Short random lines are drawn on the canvas as obstacles, and the region at
+ * a point is filled alternately in two colors. small is the inside of a
+ * square of 300 pixels, filled by the span stack; large is the region around
+ * the lines, covering most of the canvas, filled by bands in parallel.
+ *
+ * @author tadaki
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FillBenchmark {
+
+    @Param({"1024", "4096"})
+    public int canvasSize;
+    @Param({"small", "large"})
+    public String region;
+    private TiledCanvas canvas;
+    private final FloodFill floodFill = new FloodFill();
+    private final Color[] colors = {Color.RED, Color.BLUE};
+    private int count = 0;
+    private int x;
+    private int y;
+
+    @Setup
+    public void setup() {
+        canvas = new TiledCanvas(canvasSize, canvasSize, Color.WHITE);
+        BasicStroke stroke = new BasicStroke(2);
+        java.util.Random random = new java.util.Random(1);
+        for (int i = 0; i < canvasSize; i++) {//short lines as obstacles
+            int x0 = random.nextInt(canvasSize);
+            int y0 = random.nextInt(canvasSize);
+            int[] xs = {x0, x0 + random.nextInt(64) - 32};
+            int[] ys = {y0, y0 + random.nextInt(64) - 32};
+            canvas.drawSegments(xs, ys, 0, 2, Color.BLACK, stroke);
+        }
+        //square separating a small region, cleared by a wide segment
+        canvas.drawSegments(new int[]{10, 310}, new int[]{160, 160}, 0, 2,
+                Color.WHITE, new BasicStroke(300, BasicStroke.CAP_BUTT,
+                        BasicStroke.JOIN_MITER));
+        canvas.drawSegments(new int[]{10, 310, 310, 10, 10},
+                new int[]{10, 10, 310, 310, 10}, 0, 5, Color.BLACK, stroke);
+        x = region.equals("small") ? 160 : 0;
+        y = region.equals("small") ? 160 : canvasSize - 1;
+    }
+
+    @Benchmark
+    public Rectangle fill() {
+        return floodFill.fill(canvas, x, y, colors[count++ % 2]);
+    }
+}
@@ -0,0 +1,68 @@
+package simpleDrawer;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmark of filters
+ *
+ * A random image is filtered by one filter at full size and at the size of
+ * the preview, to compare the cost of the preview with the full result.
+ *
+ * @author tadaki
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FilterBenchmark {
+
+    @Param({"512", "2048"})
+    public int imageSize;
+    @Param({"box", "gaussian", "sharpen", "color"})
+    public String filter;
+    private int[] pixels;
+    private FilterPipeline pipeline;
+
+    @Setup
+    public void setup() {
+        java.util.Random random = new java.util.Random(1);
+        pixels = new int[imageSize * imageSize];
+        for (int i = 0; i < pixels.length; i++) {
+            pixels[i] = random.nextInt(1 << 24);
+        }
+        ImageFilter f;
+        switch (filter) {
+            case "box":
+                f = ImageFilters.boxBlur(5);
+                break;
+            case "gaussian":
+                f = ImageFilters.gaussianBlur(2);
+                break;
+            case "sharpen":
+                f = ImageFilters.sharpen(0.5);
+                break;
+            default:
+                f = ImageFilters.colorAdjust(20, 1.2, 0.8);
+        }
+        pipeline = new FilterPipeline(List.of(f));
+    }
+
+    @Benchmark
+    public int[] apply() {
+        return pipeline.apply(pixels, imageSize, imageSize);
+    }
+}
@@ -0,0 +1,69 @@
+package simpleDrawer;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmark of passing a burst of input events through InputRing and
+ * through a queue of objects
+ *
+ * A burst is the events of fast motion of the mouse arriving while the
+ * render thread draws a frame; they are appended and then taken together.
+ *
+ * @author tadaki
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class InputRingBenchmark {
+
+    @Param({"ring", "queue"})
+    public String queue;
+    @Param({"16", "256"})
+    public int burst;
+    private InputRing ring;
+    private final ConcurrentLinkedQueue<Object[]> objects
+            = new ConcurrentLinkedQueue<>();
+    private final int[] event = new int[InputRing.FIELDS];
+
+    @Setup
+    public void setup() {
+        ring = new InputRing(RenderThread.RING_CAPACITY);
+    }
+
+    @Benchmark
+    public void passBurst(Blackhole blackhole) {
+        if (queue.equals("ring")) {
+            for (int i = 0; i < burst; i++) {
+                ring.offer(2, i, i, 0, 0, i);
+            }
+            long time;
+            while ((time = ring.poll(event)) != InputRing.EMPTY) {
+                blackhole.consume(event[1] + time);
+            }
+        } else {
+            for (int i = 0; i < burst; i++) {
+                objects.offer(new Object[]{new int[]{2, i, i, 0, 0}, (long) i});
+            }
+            Object[] e;
+            while ((e = objects.poll()) != null) {
+                blackhole.consume(((int[]) e[0])[1] + (Long) e[1]);
+            }
+        }
+    }
+}
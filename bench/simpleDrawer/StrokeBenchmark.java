@@ -0,0 +1,96 @@
+package simpleDrawer;
+
+import java.awt.Dimension;
+import java.awt.event.MouseEvent;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmark of drawing a stroke on DrawPanel
+ *
+ * A zigzag stroke across the canvas is drawn by mouse events given to the
+ * panel directly. The panel passes them to the render thread, which draws
+ * the stroke and records undo history as in the application; each
+ * invocation waits until the stroke is drawn. For the eraser, the canvas is
+ * painted beforehand so that tiles exist. store is the storage of tiles:
+ * Java heap, or a memory-mapped file in the temporary directory, on which
+ * strokes are drawn through copies in Java heap.
+ *
+ * @author tadaki
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StrokeBenchmark {
+
+    @Param({"512", "2048"})
+    public int canvasSize;
+    @Param({"100", "1000"})
+    public int points;
+    @Param({"false", "true"})
+    public boolean eraser;
+    @Param({"heap", "mapped"})
+    public String store;
+    private java.io.File file;
+    private DrawPanel panel;
+    private MouseEvent[] events;
+
+    @Setup
+    public void setup() throws java.io.IOException {
+        panel = new DrawPanel();
+        panel.setPreferredSize(new Dimension(canvasSize, canvasSize));
+        panel.initialize();
+        if (store.equals("mapped")) {
+            file = java.io.File.createTempFile("tiles", ".bin");
+            panel.setStorageFile(file);
+        }
+        panel.setLineWidth(3);
+        events = new MouseEvent[points];
+        for (int i = 0; i < points; i++) {
+            int x = (int) ((long) canvasSize * i / points);
+            int y = (i % 2 == 0) ? canvasSize / 4 : 3 * canvasSize / 4;
+            int id = (i == 0) ? MouseEvent.MOUSE_PRESSED
+                    : (i == points - 1) ? MouseEvent.MOUSE_RELEASED
+                            : MouseEvent.MOUSE_DRAGGED;
+            events[i] = new MouseEvent(panel, id, 0, 0, x, y, 1, false,
+                    MouseEvent.BUTTON1);
+        }
+        if (eraser) {
+            stroke();
+            panel.setEraser(true);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws java.io.IOException {
+        panel.setStorageFile(null);
+        panel.dispose();
+        if (file != null) {
+            file.delete();
+        }
+    }
+
+    @Benchmark
+    public void stroke() {
+        panel.mousePressed(events[0]);
+        for (int i = 1; i < points - 1; i++) {
+            panel.mouseDragged(events[i]);
+        }
+        panel.mouseReleased(events[points - 1]);
+        panel.finishInput();
+    }
+}
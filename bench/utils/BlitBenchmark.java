@@ -0,0 +1,96 @@
+package utils;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks of copying a backing image to the display
+ *
+ * Benchmarks run headless, so the display is emulated by an image of a
+ * pixel format of screens, whose graphics are scaled by the device scale as
+ * on a HiDPI display. intRGB copies a TYPE_INT_RGB image of the user size,
+ * as the panels did; compatible copies an image created by
+ * CompatibleImage for the destination at the device size, as they do now.
+ *
+ * @author tadaki
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BlitBenchmark {
+
+    private static final int SIZE = 512;//size of image in user space
+    @Param({"INT_RGB", "INT_ARGB_PRE", "INT_BGR", "3BYTE_BGR"})
+    public String display;
+    @Param({"1", "2"})
+    public int deviceScale;
+    private BufferedImage intRGB;
+    private BufferedImage compatible;
+    private Graphics2D g;
+
+    @Setup
+    public void setup() {
+        int type;
+        switch (display) {
+            case "INT_ARGB_PRE":
+                type = BufferedImage.TYPE_INT_ARGB_PRE;
+                break;
+            case "INT_BGR":
+                type = BufferedImage.TYPE_INT_BGR;
+                break;
+            case "3BYTE_BGR":
+                type = BufferedImage.TYPE_3BYTE_BGR;
+                break;
+            default:
+                type = BufferedImage.TYPE_INT_RGB;
+        }
+        int device = SIZE * deviceScale;
+        BufferedImage screen = new BufferedImage(device, device, type);
+        g = screen.createGraphics();
+        g.scale(deviceScale, deviceScale);
+        intRGB = new BufferedImage(SIZE, SIZE, BufferedImage.TYPE_INT_RGB);
+        compatible = CompatibleImage.create(g.getDeviceConfiguration(),
+                device, device);
+        for (BufferedImage image : new BufferedImage[]{intRGB, compatible}) {
+            Graphics2D ig = image.createGraphics();
+            ig.setPaint(new java.awt.GradientPaint(0, 0, Color.RED,
+                    image.getWidth(), image.getHeight(), Color.BLUE));
+            ig.fillRect(0, 0, image.getWidth(), image.getHeight());
+            ig.dispose();
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        g.dispose();
+    }
+
+    @Benchmark
+    public Graphics2D intRGB() {
+        g.drawImage(intRGB, 0, 0, SIZE, SIZE, null);
+        return g;
+    }
+
+    @Benchmark
+    public Graphics2D compatible() {
+        g.drawImage(compatible, 0, 0, SIZE, SIZE, null);
+        return g;
+    }
+}
@@ -0,0 +1,127 @@
+package utils;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks of reading and writing records by FileIO
+ *
+ * Data are kept in memory, so that only parsing and formatting are
+ * measured, except ColumnLoader which reads a temporary file. Each
+ * invocation processes all rows.
+ *
+ * @author tadaki
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FileIOBenchmark {
+
+    @Param({"10000", "1000000"})
+    public int rows;
+    @Param({"4"})
+    public int columns;
+    private String csv;
+    private double[][] values;
+    private File file;
+
+    @Setup
+    public void setup() throws IOException {
+        Random random = new Random(1);
+        values = new double[rows][columns];
+        StringWriter sw = new StringWriter();
+        try (BufferedWriter out = new BufferedWriter(sw)) {
+            Object[] objects = new Object[columns];
+            for (int i = 0; i < rows; i++) {
+                for (int j = 0; j < columns; j++) {
+                    values[i][j] = random.nextGaussian();
+                    objects[j] = values[i][j];
+                }
+                FileIO.writeCSV(out, objects);
+            }
+        }
+        csv = sw.toString();
+        file = File.createTempFile("bench", ".csv");
+        try (BufferedWriter out = FileIO.openWriter(file)) {
+            out.write(csv);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Benchmark
+    public void readCSV(Blackhole bh) throws IOException {
+        BufferedReader in = new BufferedReader(new StringReader(csv));
+        String[] fields;
+        while ((fields = FileIO.readCSV(in)) != null) {
+            bh.consume(Double.parseDouble(fields[0]));
+        }
+    }
+
+    @Benchmark
+    public void recordReader(Blackhole bh) throws IOException {
+        RecordReader in = RecordReader.csv(new StringReader(csv));
+        while (in.next()) {
+            bh.consume(in.parseDouble(0));
+        }
+    }
+
+    @Benchmark
+    public ColumnLoader.Columns columnLoader() throws IOException {
+        return new ColumnLoader().load(file);
+    }
+
+    @Benchmark
+    public String readFromReader() throws IOException {
+        return FileIO.readFromReader(
+                new BufferedReader(new StringReader(csv)));
+    }
+
+    @Benchmark
+    public void writeCSV() throws IOException {
+        BufferedWriter out = new BufferedWriter(Writer.nullWriter());
+        Object[] objects = new Object[columns];
+        for (double[] row : values) {
+            for (int j = 0; j < columns; j++) {
+                objects[j] = row[j];
+            }
+            FileIO.writeCSV(out, objects);
+        }
+        out.flush();
+    }
+
+    @Benchmark
+    public void recordWriter() throws IOException {
+        RecordWriter out = RecordWriter.csv(Writer.nullWriter());
+        for (double[] row : values) {
+            out.writeRecord(row);
+        }
+        out.flush();
+    }
+}
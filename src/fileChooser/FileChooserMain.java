@@ -1,8 +1,11 @@
 package fileChooser;
 
 import java.io.File;
+import java.io.IOException;
 import javax.swing.JFileChooser;
+import javax.swing.JOptionPane;
 import javax.swing.filechooser.FileNameExtensionFilter;
+import javax.swing.text.BadLocationException;
 
 /**
  *
@@ -13,6 +16,8 @@ public class FileChooserMain extends javax.swing.JFrame {
     private File dir;
     private String filename=null;
     private final String applicationName;
+    private TextLoader loader = null;
+    private TextViewer viewer = null;//read-only viewer for huge files
 
     /**
      * Creates new form FileChooseMain
@@ -37,10 +42,12 @@ public class FileChooserMain extends javax.swing.JFrame {
         menuBar = new javax.swing.JMenuBar();
         fileMenu = new javax.swing.JMenu();
         openMenu = new javax.swing.JMenuItem();
+        viewMenu = new javax.swing.JMenuItem();
         saveText = new javax.swing.JMenuItem();
         quit = new javax.swing.JMenuItem();
         textMenu = new javax.swing.JMenu();
         clearText = new javax.swing.JMenuItem();
+        goToLine = new javax.swing.JMenuItem();
 
         setDefaultCloseOperation(javax.swing.WindowConstants.EXIT_ON_CLOSE);
 
@@ -63,6 +70,15 @@ public class FileChooserMain extends javax.swing.JFrame {
         });
         fileMenu.add(openMenu);
 
+        viewMenu.setFont(new java.awt.Font("Yu Gothic UI", 0, 24)); // NOI18N
+        viewMenu.setText("View");
+        viewMenu.addActionListener(new java.awt.event.ActionListener() {
+            public void actionPerformed(java.awt.event.ActionEvent evt) {
+                viewMenuActionPerformed(evt);
+            }
+        });
+        fileMenu.add(viewMenu);
+
         saveText.setFont(new java.awt.Font("Yu Gothic UI", 0, 24)); // NOI18N
         saveText.setText("Save");
         saveText.addActionListener(new java.awt.event.ActionListener() {
@@ -95,6 +111,15 @@ public class FileChooserMain extends javax.swing.JFrame {
         });
         textMenu.add(clearText);
 
+        goToLine.setFont(new java.awt.Font("Yu Gothic UI", 0, 24)); // NOI18N
+        goToLine.setText("Go to line");
+        goToLine.addActionListener(new java.awt.event.ActionListener() {
+            public void actionPerformed(java.awt.event.ActionEvent evt) {
+                goToLineActionPerformed(evt);
+            }
+        });
+        textMenu.add(goToLine);
+
         menuBar.add(textMenu);
 
         setJMenuBar(menuBar);
@@ -112,8 +137,15 @@ public class FileChooserMain extends javax.swing.JFrame {
         int returnVal = chooser.showOpenDialog(this);//Show dialog
         if (returnVal == JFileChooser.APPROVE_OPTION) {
             File file = chooser.getSelectedFile();//Selected file
-            //Show text in textArea
-            textArea.setText(FileUtilGUI.openFile(file));
+            if (!file.canRead()) {//Conform the file readable
+                FileUtilGUI.showError("Can not read " + file.getName());
+                return;
+            }
+            showEditor();
+            //Show text in textArea while loading in background
+            //Loading of previous file is canceled
+            loader = new TextLoader(file, textArea);
+            loader.execute();
             textArea.setVisible(true);
             filename = file.getName();
             setTitle(applicationName+" "+filename);
@@ -122,10 +154,20 @@ public class FileChooserMain extends javax.swing.JFrame {
     }//GEN-LAST:event_openMenuActionPerformed
 
     private void quitActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_quitActionPerformed
+        if (loader != null) {
+            loader.cancel(false);
+        }
+        if (viewer != null) {
+            viewer.close();
+        }
         dispose();
     }//GEN-LAST:event_quitActionPerformed
 
     private void clearTextActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_clearTextActionPerformed
+        if (loader != null) {
+            loader.cancel(false);
+        }
+        showEditor();
         textArea.setText(null);
     }//GEN-LAST:event_clearTextActionPerformed
 
@@ -145,6 +187,82 @@ public class FileChooserMain extends javax.swing.JFrame {
         }
     }//GEN-LAST:event_saveTextActionPerformed
 
+    private void viewMenuActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_viewMenuActionPerformed
+        //Create file chooser and set filter for text files
+        JFileChooser chooser = new JFileChooser();
+        chooser.setCurrentDirectory(dir);
+        chooser.setFileFilter(new FileNameExtensionFilter(
+                "Text File", "txt", "log", "csv"));
+
+        int returnVal = chooser.showOpenDialog(this);
+        if (returnVal == JFileChooser.APPROVE_OPTION) {
+            File file = chooser.getSelectedFile();
+            if (viewer == null) {
+                viewer = new TextViewer(textArea.getFont());
+            }
+            try {
+                viewer.open(file);
+            } catch (IOException ex) {
+                FileUtilGUI.showError(ex.getMessage());
+                return;
+            }
+            if (loader != null) {
+                loader.cancel(false);
+            }
+            textArea.setText(null);
+            //Replace textPane by viewer
+            getContentPane().remove(textPane);
+            getContentPane().add(viewer, java.awt.BorderLayout.CENTER);
+            saveText.setEnabled(false);
+            validate();
+            repaint();
+            filename = file.getName();
+            setTitle(applicationName + " " + filename + " (read only)");
+            dir = file.getParentFile();
+        }
+    }//GEN-LAST:event_viewMenuActionPerformed
+
+    private void goToLineActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_goToLineActionPerformed
+        String answer = JOptionPane.showInputDialog(this, "Line number");
+        if (answer == null) {
+            return;
+        }
+        long line;
+        try {
+            line = Long.parseLong(answer.trim()) - 1;
+        } catch (NumberFormatException ex) {
+            FileUtilGUI.showError("Not a line number: " + answer);
+            return;
+        }
+        if (viewer != null && viewer.isShowing()) {
+            viewer.goToLine(Math.max(0, line));
+            return;
+        }
+        try {
+            int n = (int) Math.max(0,
+                    Math.min(line, textArea.getLineCount() - 1));
+            textArea.setCaretPosition(textArea.getLineStartOffset(n));
+            textArea.requestFocusInWindow();
+        } catch (BadLocationException ex) {
+            FileUtilGUI.showError(ex.getMessage());
+        }
+    }//GEN-LAST:event_goToLineActionPerformed
+
+    /**
+     * Show textArea instead of viewer
+     */
+    private void showEditor() {
+        if (viewer == null || viewer.getParent() == null) {
+            return;
+        }
+        viewer.close();
+        getContentPane().remove(viewer);
+        getContentPane().add(textPane, java.awt.BorderLayout.CENTER);
+        saveText.setEnabled(true);
+        validate();
+        repaint();
+    }
+
     /**
      * @param args the command line arguments
      */
@@ -182,6 +300,7 @@ public class FileChooserMain extends javax.swing.JFrame {
     // Variables declaration - do not modify//GEN-BEGIN:variables
     private javax.swing.JMenuItem clearText;
     private javax.swing.JMenu fileMenu;
+    private javax.swing.JMenuItem goToLine;
     private javax.swing.JMenuBar menuBar;
     private javax.swing.JMenuItem openMenu;
     private javax.swing.JMenuItem quit;
@@ -189,5 +308,6 @@ public class FileChooserMain extends javax.swing.JFrame {
     private javax.swing.JTextArea textArea;
     private javax.swing.JMenu textMenu;
     private javax.swing.JScrollPane textPane;
+    private javax.swing.JMenuItem viewMenu;
     // End of variables declaration//GEN-END:variables
 }
@@ -4,6 +4,7 @@ import java.io.*;
 import javax.swing.JFrame;
 import javax.swing.JOptionPane;
 import utils.FileIO;
+import utils.Metrics;
 
 /**
  * Methods operating files for fileChooser
@@ -37,9 +38,13 @@ public class FileUtilGUI {
             showError(ex.getMessage());
             return null;
         }
+        long start = System.nanoTime();
+        Metrics.FileEvent event = new Metrics.FileEvent();
+        event.begin();
         try {
             //Reading from the reader
             String str = FileIO.readFromReader(in);
+            recordFileEvent(event, start, file, "open");
             return str;
         } catch (IOException ex) {
             showError(ex.getMessage());
@@ -58,6 +63,9 @@ public class FileUtilGUI {
             //If not writable, checkWritable() returns exception
             return;
         }
+        long start = System.nanoTime();
+        Metrics.FileEvent event = new Metrics.FileEvent();
+        event.begin();
         try {
             //Start writing
             BufferedWriter out;
@@ -69,11 +77,37 @@ public class FileUtilGUI {
             }
             out.write(text);
             out.close();
+            recordFileEvent(event, start, file, "save");
         } catch (IOException ex) {
             showError(ex.getMessage());
         }
     }
 
+    /**
+     * Record time of opening or saving a file
+     *
+     * @param event event begun at start
+     * @param start System.nanoTime() at start
+     * @param file the file
+     * @param operation "open" or "save"
+     */
+    static void recordFileEvent(Metrics.FileEvent event, long start,
+            File file, String operation) {
+        event.end();
+        long t = System.nanoTime() - start;
+        if (operation.equals("open")) {
+            Metrics.OPEN_FILE.record(t);
+        } else {
+            Metrics.SAVE_FILE.record(t);
+        }
+        if (event.shouldCommit()) {
+            event.file = file.getPath();
+            event.operation = operation;
+            event.bytes = file.length();
+            event.commit();
+        }
+    }
+
     /**
      * Confirm the file writable
      *
@@ -0,0 +1,250 @@
+package fileChooser;
+
+import java.awt.Component;
+import java.awt.EventQueue;
+import java.awt.image.RenderedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriter;
+import javax.imageio.event.IIOWriteProgressListener;
+import javax.imageio.stream.FileImageOutputStream;
+import javax.imageio.stream.ImageOutputStream;
+import javax.swing.ProgressMonitor;
+import utils.FileIO;
+import utils.Metrics;
+import utils.PngEncoder;
+
+/**
+ * Save images in background
+ *
+ * Images are encoded one by one on a worker thread, so that the event
+ * dispatch thread is not blocked. PNG is encoded by PngEncoder on all cores,
+ * and other formats by ImageIO. Progress is shown by ProgressMonitor,
+ * which can cancel saving. When an image is requested for a file already
+ * waiting for saving, only the newer image is saved.
+ *
+ * @author tadaki
+ */
+public class ImageSaver {
+
+    private static final ExecutorService worker
+            = Executors.newSingleThreadExecutor(r -> {
+                Thread t = new Thread(r, "ImageSaver");
+                t.setDaemon(true);
+                return t;
+            });
+    private static final Map<File, Job> pending = new HashMap<>();
+
+    /**
+     * Prevent creating instances
+     */
+    private ImageSaver() {
+    }
+
+    /**
+     * Save image in background. The image must not be changed until release
+     * is called.
+     *
+     * @param parent parent of progress dialog
+     * @param image image to be saved
+     * @param file destination
+     * @param release called on the event dispatch thread when the image is
+     * no longer used, may be null
+     * @param message message shown after saving
+     */
+    public static void save(Component parent, RenderedImage image, File file,
+            Runnable release, String message) {
+        File key = file.getAbsoluteFile();
+        synchronized (pending) {
+            Job job = pending.get(key);
+            if (job != null) {//merge with the waiting request
+                Runnable oldRelease = job.release;
+                job.image = image;
+                job.release = release;
+                job.message = message;
+                if (oldRelease != null) {
+                    EventQueue.invokeLater(oldRelease);
+                }
+                return;
+            }
+            job = new Job(parent, image, key, release, message);
+            pending.put(key, job);
+            worker.execute(job);
+        }
+    }
+
+    /**
+     * Request for saving an image
+     */
+    private static class Job implements Runnable, IIOWriteProgressListener {
+
+        private final Component parent;
+        private final File file;
+        private RenderedImage image;
+        private Runnable release;
+        private String message;
+        private ProgressMonitor monitor = null;
+        private volatile boolean canceled = false;
+
+        Job(Component parent, RenderedImage image, File file,
+                Runnable release, String message) {
+            this.parent = parent;
+            this.image = image;
+            this.file = file;
+            this.release = release;
+            this.message = message;
+        }
+
+        @Override
+        public void run() {
+            synchronized (pending) {//no more merged after starting
+                pending.remove(file);
+            }
+            EventQueue.invokeLater(() -> {
+                monitor = new ProgressMonitor(parent,
+                        "Saving " + file.getName(), null, 0, 100);
+            });
+            String error = null;
+            long start = System.nanoTime();
+            Metrics.SaveImageEvent event = new Metrics.SaveImageEvent();
+            event.begin();
+            try {
+                write();
+            } catch (IOException | RuntimeException ex) {
+                error = ex.getMessage();
+            }
+            event.end();
+            if (canceled) {
+                file.delete();
+            } else if (error == null) {
+                Metrics.SAVE_IMAGE.record(System.nanoTime() - start);
+                Metrics.SAVE_IMAGE_BYTES.record(file.length());
+            }
+            if (event.shouldCommit()) {
+                event.file = file.getPath();
+                event.format = FileIO.getExtention(file.getName());
+                event.bytes = canceled ? 0 : file.length();
+                event.canceled = canceled;
+                event.commit();
+            }
+            String result = error;
+            EventQueue.invokeLater(() -> {
+                if (monitor != null) {
+                    monitor.close();
+                }
+                if (release != null) {
+                    release.run();
+                }
+                if (result != null) {
+                    FileUtilGUI.showError(result);
+                } else if (!canceled) {
+                    FileUtilGUI.showMessage(message);
+                }
+            });
+        }
+
+        private void write() throws IOException {
+            String ext = FileIO.getExtention(file.getName());
+            if ("png".equalsIgnoreCase(ext)) {
+                writePNG();
+                return;
+            }
+            Iterator<ImageWriter> writers = (ext == null) ? null
+                    : ImageIO.getImageWritersBySuffix(ext);
+            if (writers == null || !writers.hasNext()) {
+                throw new IOException("Unsupported format: " + file.getName());
+            }
+            ImageWriter writer = writers.next();
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw");
+                    ImageOutputStream out = new FileImageOutputStream(raf)) {
+                raf.setLength(0);//discard old content
+                writer.setOutput(out);
+                writer.addIIOWriteProgressListener(this);
+                writer.write(image);
+            } finally {
+                writer.dispose();
+            }
+        }
+
+        /**
+         * Write PNG by the parallel encoder
+         */
+        private void writePNG() throws IOException {
+            PngEncoder encoder = new PngEncoder();
+            encoder.setProgressListener(fraction -> {
+                if (canceled) {
+                    encoder.cancel();
+                } else {
+                    showProgress(100 * fraction);
+                }
+            });
+            try (FileChannel channel = FileChannel.open(file.toPath(),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                encoder.encode(image, channel);
+            } catch (InterruptedIOException ex) {
+                if (!canceled) {
+                    throw ex;
+                }
+            }
+        }
+
+        @Override
+        public void imageProgress(ImageWriter source, float percentageDone) {
+            if (canceled) {
+                source.abort();
+                return;
+            }
+            showProgress(percentageDone);
+        }
+
+        private void showProgress(float percentageDone) {
+            EventQueue.invokeLater(() -> {
+                if (monitor == null) {
+                    return;
+                }
+                if (monitor.isCanceled()) {
+                    canceled = true;
+                } else {
+                    monitor.setProgress((int) percentageDone);
+                }
+            });
+        }
+
+        @Override
+        public void imageStarted(ImageWriter source, int imageIndex) {
+        }
+
+        @Override
+        public void imageComplete(ImageWriter source) {
+        }
+
+        @Override
+        public void thumbnailStarted(ImageWriter source,
+                int imageIndex, int thumbnailIndex) {
+        }
+
+        @Override
+        public void thumbnailProgress(ImageWriter source,
+                float percentageDone) {
+        }
+
+        @Override
+        public void thumbnailComplete(ImageWriter source) {
+        }
+
+        @Override
+        public void writeAborted(ImageWriter source) {
+        }
+    }
+}
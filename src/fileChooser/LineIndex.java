@@ -0,0 +1,194 @@
+package fileChooser;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Index of line start positions of MappedText
+ *
+ * The index is built on a background thread. The start position of every
+ * STEP-th line is recorded; other lines are found by scanning at most STEP-1
+ * lines from the recorded one, so that finding any line takes constant time.
+ * Recorded positions are kept in a temporary file except for the latest
+ * block, so that heap use does not depend on the size of text.
+ *
+ * @author tadaki
+ */
+class LineIndex implements Closeable {
+
+    static final int STEP = 64;//lines per recorded position
+    private static final int BLOCK = 4096;//positions kept in heap
+    private static final int CHUNK = 64 * 1024;//bytes scanned at once
+    private final MappedText text;
+    private final FileChannel channel;//positions flushed from block
+    private final long[] block = new long[BLOCK];
+    private long flushed = 0;//number of positions in channel
+    private int numInBlock = 0;
+    private final ByteBuffer entry = ByteBuffer.allocate(Long.BYTES);
+    private volatile long numLines = 0;
+    private volatile long scanned = 0;//bytes scanned
+    private volatile int maxLineLength = 0;//in bytes
+    private volatile boolean complete = false;
+    private volatile boolean closed = false;
+    private IOException error = null;
+
+    /**
+     * Start building index
+     *
+     * @param text target text
+     * @throws IOException
+     */
+    LineIndex(MappedText text) throws IOException {
+        this.text = text;
+        Path path = Files.createTempFile("lines", ".idx");
+        channel = FileChannel.open(path, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE);
+        Thread t = new Thread(this::build, "LineIndex");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    /**
+     * Scan text for '\n'
+     */
+    private void build() {
+        long size = text.size();
+        byte[] buffer = new byte[CHUNK];
+        long lines = 0;
+        long lineStart = 0;
+        int maxLength = 0;
+        try {
+            if (size > 0) {
+                add(0);
+                lines = 1;
+            }
+            for (long position = 0; position < size && !closed;) {
+                int n = (int) Math.min(CHUNK, size - position);
+                text.read(position, buffer, 0, n);
+                for (int i = 0; i < n; i++) {
+                    if (buffer[i] != '\n') {
+                        continue;
+                    }
+                    long next = position + i + 1;
+                    maxLength = (int) Math.max(maxLength,
+                            Math.min(Integer.MAX_VALUE, next - lineStart));
+                    lineStart = next;
+                    if (next == size) {//no line after the last '\n'
+                        continue;
+                    }
+                    if (lines % STEP == 0) {
+                        add(next);
+                    }
+                    lines++;
+                }
+                position += n;
+                maxLineLength = (int) Math.max(maxLength,
+                        Math.min(Integer.MAX_VALUE, position - lineStart));
+                numLines = lines;
+                scanned = position;
+            }
+        } catch (IOException ex) {
+            synchronized (this) {
+                error = ex;
+            }
+        }
+        complete = true;
+    }
+
+    /**
+     * Record position of a line
+     */
+    private synchronized void add(long position) throws IOException {
+        if (numInBlock == BLOCK) {
+            ByteBuffer b = ByteBuffer.allocate(BLOCK * Long.BYTES);
+            b.asLongBuffer().put(block);
+            long p = flushed * Long.BYTES;
+            while (b.hasRemaining()) {
+                p += channel.write(b, p);
+            }
+            flushed += BLOCK;
+            numInBlock = 0;
+        }
+        block[numInBlock++] = position;
+    }
+
+    /**
+     * Recorded position
+     *
+     * @param k index of recorded position
+     */
+    private synchronized long get(long k) throws IOException {
+        if (k >= flushed) {
+            return block[(int) (k - flushed)];
+        }
+        entry.clear();
+        long p = k * Long.BYTES;
+        while (entry.hasRemaining()) {
+            p += channel.read(entry, p);
+        }
+        return entry.getLong(0);
+    }
+
+    /**
+     * Start position of a line
+     *
+     * @param line line number from 0, less than getNumLines()
+     * @return position in text
+     * @throws IOException
+     */
+    long getLineStart(long line) throws IOException {
+        long position = get(line / STEP);
+        for (long k = line % STEP; k > 0; k--) {
+            position = text.findLineEnd(position) + 1;
+        }
+        return position;
+    }
+
+    /**
+     * Number of lines indexed so far
+     */
+    long getNumLines() {
+        return numLines;
+    }
+
+    /**
+     * Length of the longest line indexed so far in bytes
+     */
+    int getMaxLineLength() {
+        return maxLineLength;
+    }
+
+    /**
+     * Fraction of text indexed
+     */
+    double getProgress() {
+        long size = text.size();
+        return (size == 0) ? 1. : (double) scanned / size;
+    }
+
+    boolean isComplete() {
+        return complete;
+    }
+
+    /**
+     * Error occurred during building index
+     *
+     * @return error, or null
+     */
+    synchronized IOException getError() {
+        return error;
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        synchronized (this) {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package fileChooser;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Read-only memory-mapped file of any size
+ *
+ * The file is mapped in segments of 1GB on first access, as one mapping is
+ * limited to 2GB. Bytes are read directly from the mappings, so that the
+ * content of the file is not held in heap.
+ *
+ * @author tadaki
+ */
+class MappedText implements Closeable {
+
+    private static final int SEGMENT_BITS = 30;
+    private static final long SEGMENT_SIZE = 1L << SEGMENT_BITS;
+    private final FileChannel channel;
+    private final long size;
+    private final MappedByteBuffer[] segments;
+
+    MappedText(File file) throws IOException {
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        size = channel.size();
+        segments = new MappedByteBuffer[
+                (int) ((size + SEGMENT_SIZE - 1) >>> SEGMENT_BITS)];
+    }
+
+    long size() {
+        return size;
+    }
+
+    private synchronized MappedByteBuffer segment(int s) throws IOException {
+        if (segments[s] == null) {
+            long start = (long) s << SEGMENT_BITS;
+            segments[s] = channel.map(FileChannel.MapMode.READ_ONLY,
+                    start, Math.min(SEGMENT_SIZE, size - start));
+        }
+        return segments[s];
+    }
+
+    /**
+     * Copy bytes from the file
+     *
+     * @param position position in the file
+     * @param dst destination
+     * @param offset offset in destination
+     * @param length number of bytes, must not exceed the end of file
+     * @throws IOException
+     */
+    void read(long position, byte[] dst, int offset, int length)
+            throws IOException {
+        while (length > 0) {
+            int s = (int) (position >>> SEGMENT_BITS);
+            int p = (int) (position & (SEGMENT_SIZE - 1));
+            MappedByteBuffer segment = segment(s);
+            int n = Math.min(length, segment.capacity() - p);
+            segment.get(p, dst, offset, n);
+            position += n;
+            offset += n;
+            length -= n;
+        }
+    }
+
+    /**
+     * Find the end of line
+     *
+     * @param position position in the line
+     * @return position of '\n' ending the line, or size of file
+     * @throws IOException
+     */
+    long findLineEnd(long position) throws IOException {
+        while (position < size) {
+            int s = (int) (position >>> SEGMENT_BITS);
+            MappedByteBuffer segment = segment(s);
+            int limit = segment.capacity();
+            for (int p = (int) (position & (SEGMENT_SIZE - 1));
+                    p < limit; p++) {
+                if (segment.get(p) == '\n') {
+                    return ((long) s << SEGMENT_BITS) + p;
+                }
+            }
+            position = (long) (s + 1) << SEGMENT_BITS;
+        }
+        return size;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
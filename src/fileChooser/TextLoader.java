@@ -0,0 +1,149 @@
+package fileChooser;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.channels.FileChannel;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import javax.swing.JTextArea;
+import javax.swing.ProgressMonitor;
+import javax.swing.SwingWorker;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.DefaultCaret;
+import javax.swing.text.Document;
+import utils.Metrics;
+
+/**
+ * Load text file into JTextArea in background
+ *
+ * The file is read in chunks on a worker thread. Chunks are appended to the
+ * document of the text area in batches on the event dispatch thread, so that
+ * the beginning of the file is shown soon. Line separators are converted to
+ * '\n' as JTextArea does. Progress is shown by ProgressMonitor, which can
+ * cancel loading; the text loaded so far is kept.
+ *
+ * @author tadaki
+ */
+class TextLoader extends SwingWorker<Void, String> {
+
+    private static final int CHUNK_SIZE = 64 * 1024;//in chars
+    private final File file;
+    private final JTextArea textArea;
+    private final ProgressMonitor monitor;
+    private final long fileSize;
+    private final int caretPolicy;
+
+    /**
+     * Loading into the same text area is canceled.
+     *
+     * @param file file to be loaded
+     * @param textArea destination, its text is cleared
+     */
+    TextLoader(File file, JTextArea textArea) {
+        this.file = file;
+        this.textArea = textArea;
+        fileSize = Math.max(1, file.length());
+        DefaultCaret caret = (DefaultCaret) textArea.getCaret();
+        TextLoader previous
+                = (TextLoader) textArea.getClientProperty(TextLoader.class);
+        if (previous != null) {
+            previous.cancel(false);
+            caretPolicy = previous.caretPolicy;
+        } else {
+            caretPolicy = caret.getUpdatePolicy();
+        }
+        textArea.putClientProperty(TextLoader.class, this);
+        textArea.setText(null);
+        textArea.setEditable(false);
+        //keep the caret and the view at the beginning while appending
+        caret.setUpdatePolicy(DefaultCaret.NEVER_UPDATE);
+        monitor = new ProgressMonitor(textArea,
+                "Loading " + file.getName(), null, 0, 100);
+        monitor.setMillisToDecideToPopup(200);
+    }
+
+    @Override
+    protected Void doInBackground() throws IOException {
+        long start = System.nanoTime();
+        Metrics.FileEvent event = new Metrics.FileEvent();
+        event.begin();
+        try (FileInputStream stream = new FileInputStream(file);
+                Reader in = new InputStreamReader(stream)) {
+            FileChannel channel = stream.getChannel();
+            char[] buffer = new char[CHUNK_SIZE];
+            boolean lastCR = false;//chunk ended with '\r'
+            int n;
+            while (!isCancelled() && (n = in.read(buffer)) >= 0) {
+                //convert "\r\n" and "\r" to "\n"
+                int k = 0;
+                for (int i = 0; i < n; i++) {
+                    char c = buffer[i];
+                    if (c == '\n' && lastCR) {
+                        lastCR = false;
+                        continue;
+                    }
+                    lastCR = (c == '\r');
+                    buffer[k++] = lastCR ? '\n' : c;
+                }
+                if (k > 0) {
+                    publish(new String(buffer, 0, k));
+                }
+                setProgress((int) (100 * channel.position() / fileSize));
+            }
+        }
+        if (!isCancelled()) {
+            FileUtilGUI.recordFileEvent(event, start, file, "open");
+        }
+        return null;
+    }
+
+    @Override
+    protected void process(List<String> chunks) {
+        if (isCancelled()) {
+            return;
+        }
+        if (monitor.isCanceled()) {
+            cancel(false);
+            return;
+        }
+        //append all chunks arrived by one insertion
+        int length = 0;
+        for (String s : chunks) {
+            length += s.length();
+        }
+        StringBuilder sb = new StringBuilder(length);
+        for (String s : chunks) {
+            sb.append(s);
+        }
+        Document doc = textArea.getDocument();
+        try {
+            doc.insertString(doc.getLength(), sb.toString(), null);
+        } catch (BadLocationException ex) {
+            throw new IllegalStateException(ex);
+        }
+        monitor.setProgress(getProgress());
+    }
+
+    @Override
+    protected void done() {
+        monitor.close();
+        if (textArea.getClientProperty(TextLoader.class) == this) {
+            textArea.putClientProperty(TextLoader.class, null);
+            textArea.setEditable(true);
+            ((DefaultCaret) textArea.getCaret()).setUpdatePolicy(caretPolicy);
+        }
+        try {
+            get();
+        } catch (CancellationException ex) {
+            //text loaded so far is kept
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException ex) {
+            FileUtilGUI.showError(ex.getCause().getMessage());
+        }
+    }
+}
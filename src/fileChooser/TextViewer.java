@@ -0,0 +1,270 @@
+package fileChooser;
+
+import java.awt.BorderLayout;
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics;
+import java.awt.Rectangle;
+import java.awt.event.ComponentAdapter;
+import java.awt.event.ComponentEvent;
+import java.awt.event.KeyAdapter;
+import java.awt.event.KeyEvent;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import javax.swing.JComponent;
+import javax.swing.JLabel;
+import javax.swing.JPanel;
+import javax.swing.JScrollBar;
+import javax.swing.Timer;
+
+/**
+ * Read-only viewer of huge text files
+ *
+ * The file is memory-mapped and its lines are indexed in background by
+ * LineIndex. Only lines in the view are decoded when painted, so that heap
+ * use does not depend on the size of the file. The vertical scroll bar counts
+ * lines, and the horizontal one counts pixels.
+ *
+ * @author tadaki
+ */
+class TextViewer extends JPanel {
+
+    private static final int MAX_LINE_BYTES = 16 * 1024;//decoded per line
+    private static final int TAB_SIZE = 8;
+    private final Charset charset = Charset.defaultCharset();
+    private final LinesView view = new LinesView();
+    private final JScrollBar vertical = new JScrollBar(JScrollBar.VERTICAL);
+    private final JScrollBar horizontal
+            = new JScrollBar(JScrollBar.HORIZONTAL);
+    private final JLabel status = new JLabel(" ");
+    private final Timer timer = new Timer(200, e -> refresh());
+    private final byte[] bytes = new byte[MAX_LINE_BYTES];
+    private MappedText text = null;
+    private LineIndex index = null;
+
+    TextViewer(Font font) {
+        super(new BorderLayout());
+        view.setFont(font);
+        view.setBackground(Color.WHITE);
+        view.setOpaque(true);
+        view.setFocusable(true);
+        JPanel center = new JPanel(new BorderLayout());
+        center.add(view, BorderLayout.CENTER);
+        center.add(vertical, BorderLayout.EAST);
+        center.add(horizontal, BorderLayout.SOUTH);
+        add(center, BorderLayout.CENTER);
+        add(status, BorderLayout.SOUTH);
+        vertical.addAdjustmentListener(e -> view.repaint());
+        horizontal.addAdjustmentListener(e -> view.repaint());
+        view.addMouseWheelListener(e -> scrollLines(
+                e.getUnitsToScroll()));
+        view.addKeyListener(new KeyAdapter() {
+            @Override
+            public void keyPressed(KeyEvent e) {
+                int page = Math.max(1, view.getVisibleLines() - 1);
+                switch (e.getKeyCode()) {
+                    case KeyEvent.VK_UP -> scrollLines(-1);
+                    case KeyEvent.VK_DOWN -> scrollLines(1);
+                    case KeyEvent.VK_PAGE_UP -> scrollLines(-page);
+                    case KeyEvent.VK_PAGE_DOWN -> scrollLines(page);
+                    case KeyEvent.VK_HOME -> goToLine(0);
+                    case KeyEvent.VK_END -> goToLine(Long.MAX_VALUE);
+                    default -> {
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Show file
+     *
+     * @param file file to be shown
+     * @throws IOException
+     */
+    void open(File file) throws IOException {
+        close();
+        text = new MappedText(file);
+        try {
+            index = new LineIndex(text);
+        } catch (IOException ex) {
+            close();
+            throw ex;
+        }
+        vertical.setValue(0);
+        horizontal.setValue(0);
+        timer.start();
+        refresh();
+        view.requestFocusInWindow();
+    }
+
+    /**
+     * Stop showing file and release it
+     */
+    void close() {
+        timer.stop();
+        try {
+            if (index != null) {
+                index.close();
+            }
+            if (text != null) {
+                text.close();
+            }
+        } catch (IOException ex) {
+            FileUtilGUI.showError(ex.getMessage());
+        }
+        index = null;
+        text = null;
+        status.setText(" ");
+        view.repaint();
+    }
+
+    /**
+     * Number of lines indexed so far
+     */
+    long getNumLines() {
+        return (index == null) ? 0 : index.getNumLines();
+    }
+
+    /**
+     * Show the line at the top of view
+     *
+     * @param line line number from 0, clipped to lines indexed
+     */
+    void goToLine(long line) {
+        vertical.setValue((int) Math.min(line, Integer.MAX_VALUE));
+    }
+
+    private void scrollLines(int n) {
+        vertical.setValue(vertical.getValue() + n);
+    }
+
+    /**
+     * Reflect progress of indexing to scroll bars and status
+     */
+    private void refresh() {
+        if (index == null) {
+            return;
+        }
+        if (index.getError() != null && timer.isRunning()) {
+            timer.stop();
+            FileUtilGUI.showError(index.getError().getMessage());
+        } else if (index.isComplete()) {
+            timer.stop();
+        }
+        long numLines = index.getNumLines();
+        int visible = view.getVisibleLines();
+        int max = (int) Math.min(numLines + visible - 1, Integer.MAX_VALUE);
+        vertical.setValues(vertical.getValue(), visible, 0, max);
+        vertical.setBlockIncrement(Math.max(1, visible - 1));
+        FontMetrics fm = view.getFontMetrics(view.getFont());
+        int width = (int) Math.min((long) index.getMaxLineLength()
+                * fm.charWidth('m'), Integer.MAX_VALUE);
+        horizontal.setValues(horizontal.getValue(), view.getWidth(),
+                0, Math.max(width, view.getWidth()));
+        horizontal.setUnitIncrement(fm.charWidth('m'));
+        horizontal.setBlockIncrement(Math.max(1, view.getWidth()));
+        String s = numLines + " lines";
+        if (!index.isComplete()) {
+            s += String.format(" (indexing %d%%)",
+                    (int) (100 * index.getProgress()));
+        }
+        status.setText(s);
+        view.repaint();
+    }
+
+    /**
+     * Decode one line
+     *
+     * @param start start position of line
+     * @param end position of '\n' ending the line
+     * @return line with tabs expanded
+     */
+    private String decodeLine(long start, long end) throws IOException {
+        int n = (int) Math.min(end - start, MAX_LINE_BYTES);
+        text.read(start, bytes, 0, n);
+        if (n > 0 && end - start == n && bytes[n - 1] == '\r') {
+            n--;
+        }
+        String s = new String(bytes, 0, n, charset);
+        if (s.indexOf('\t') < 0) {
+            return s;
+        }
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '\t') {
+                do {
+                    sb.append(' ');
+                } while (sb.length() % TAB_SIZE != 0);
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Component painting lines in view
+     */
+    private class LinesView extends JComponent {
+
+        LinesView() {
+            addComponentListener(new ComponentAdapter() {
+                @Override
+                public void componentResized(ComponentEvent e) {
+                    refresh();
+                }
+            });
+        }
+
+        @Override
+        public Dimension getPreferredSize() {
+            FontMetrics fm = getFontMetrics(getFont());
+            return new Dimension(80 * fm.charWidth('m'), 20 * fm.getHeight());
+        }
+
+        int getVisibleLines() {
+            int h = getFontMetrics(getFont()).getHeight();
+            return Math.max(1, (getHeight() + h - 1) / h);
+        }
+
+        @Override
+        protected void paintComponent(Graphics g) {
+            Rectangle clip = g.getClipBounds();
+            if (clip == null) {
+                clip = new Rectangle(0, 0, getWidth(), getHeight());
+            }
+            g.setColor(getBackground());
+            g.fillRect(clip.x, clip.y, clip.width, clip.height);
+            if (index == null) {
+                return;
+            }
+            g.setColor(getForeground());
+            FontMetrics fm = g.getFontMetrics();
+            int h = fm.getHeight();
+            long top = vertical.getValue();
+            long first = top + clip.y / h;
+            long last = Math.min(top + (clip.y + clip.height - 1) / h,
+                    index.getNumLines() - 1);
+            if (first > last) {
+                return;
+            }
+            try {
+                long start = index.getLineStart(first);
+                for (long line = first; line <= last; line++) {
+                    long end = text.findLineEnd(start);
+                    int y = (int) (line - top) * h + fm.getAscent();
+                    g.drawString(decodeLine(start, end),
+                            -horizontal.getValue(), y);
+                    start = end + 1;
+                }
+            } catch (IOException ex) {
+                g.drawString(ex.getMessage(), 0, fm.getAscent());
+            }
+        }
+    }
+}
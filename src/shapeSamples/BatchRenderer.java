@@ -0,0 +1,265 @@
+package shapeSamples;
+
+import java.awt.AlphaComposite;
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import javax.imageio.ImageIO;
+import utils.PngEncoder;
+
+/**
+ * Renderer of many sample images without screen
+ *
+ * Images are rendered off-screen on a pool of threads. Each thread keeps one
+ * image and one Graphics2D, which are reused for all images it renders, and
+ * passes the image to the encoder: PngEncoder for PNG and ImageIO for other
+ * formats. PngEncoder uses the same pool, so that threads rendering no image
+ * encode bands of large images. Works with java.awt.headless=true.
+ *
+ * <pre>
+ * java -Djava.awt.headless=true shapeSamples.BatchRenderer
+ *     directory count [width height [threads [format]]]
+ * </pre>
+ *
+ * @author tadaki
+ */
+public class BatchRenderer {
+
+    /**
+     * Scene drawn on each image
+     */
+    public interface Scene {
+
+        /**
+         * Draw the scene
+         *
+         * @param g graphics filled with background
+         * @param index index of image
+         */
+        void draw(Graphics2D g, int index);
+    }
+
+    private final ForkJoinPool pool;
+    private final ThreadLocal<Worker> workers
+            = ThreadLocal.withInitial(() -> new Worker());
+    private int width = DrawPanel.SAMPLES_SIZE;
+    private int height = DrawPanel.SAMPLES_SIZE;
+    private Color background = Color.WHITE;
+    private Scene scene = (g, index) -> DrawPanel.drawSamples(g);
+    private String format = "png";
+
+    /**
+     * Create renderer using the common pool
+     */
+    public BatchRenderer() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Create renderer
+     *
+     * @param pool pool of threads for rendering and encoding
+     */
+    public BatchRenderer(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Set size of images. The scene is scaled to fit in the images.
+     *
+     * @param width width of images
+     * @param height height of images
+     * @return this renderer
+     */
+    public BatchRenderer setSize(int width, int height) {
+        if (width < 1 || height < 1) {
+            throw new IllegalArgumentException("size must be positive");
+        }
+        this.width = width;
+        this.height = height;
+        return this;
+    }
+
+    public BatchRenderer setBackground(Color background) {
+        this.background = background;
+        return this;
+    }
+
+    /**
+     * Set the scene. The default is DrawPanel.drawSamples().
+     *
+     * @param scene scene in the area of SAMPLES_SIZE x SAMPLES_SIZE
+     * @return this renderer
+     */
+    public BatchRenderer setScene(Scene scene) {
+        this.scene = scene;
+        return this;
+    }
+
+    /**
+     * Set format of images
+     *
+     * @param format extension such as "png" or "jpg"
+     * @return this renderer
+     */
+    public BatchRenderer setFormat(String format) {
+        this.format = format.toLowerCase();
+        return this;
+    }
+
+    /**
+     * Render images into files named sample00000.png and so on
+     *
+     * @param directory destination
+     * @param count number of images
+     * @throws IOException
+     */
+    public void render(File directory, int count) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Can not create " + directory.getName());
+        }
+        if (!"png".equals(format)
+                && !ImageIO.getImageWritersBySuffix(format).hasNext()) {
+            throw new IOException("Unsupported format: " + format);
+        }
+        int w = width;
+        int h = height;
+        Color bg = background;
+        Scene s = scene;
+        String f = format;
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            int index = i;
+            File file = new File(directory,
+                    String.format("sample%05d.%s", index, f));
+            futures.add(pool.submit(() -> {
+                workers.get().render(w, h, bg, s, index, f, file);
+                return null;
+            }));
+        }
+        try {
+            for (Future<?> future : futures) {
+                get(future);
+            }
+        } finally {
+            for (Future<?> future : futures) {//stop the rest after an error
+                future.cancel(false);
+            }
+        }
+    }
+
+    private static void get(Future<?> future) throws IOException {
+        try {
+            future.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Rendering interrupted");
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            //checked exceptions of tasks are wrapped by ForkJoinTask
+            while (cause instanceof RuntimeException
+                    && cause.getCause() != null) {
+                cause = cause.getCause();
+            }
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * Image, graphics and encoder of a thread
+     */
+    private class Worker {
+
+        private final AffineTransform identity = new AffineTransform();
+        private final BasicStroke stroke = new BasicStroke();
+        private BufferedImage image = null;
+        private Graphics2D g = null;
+        //bands of large images are encoded by idle threads of the pool
+        private final PngEncoder encoder = new PngEncoder(pool);
+
+        void render(int w, int h, Color bg, Scene scene, int index,
+                String format, File file) throws IOException {
+            if (image == null
+                    || image.getWidth() != w || image.getHeight() != h) {
+                if (g != null) {
+                    g.dispose();
+                }
+                image = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
+                g = image.createGraphics();
+            }
+            //reset state left by the last scene
+            g.setTransform(identity);
+            g.setComposite(AlphaComposite.SrcOver);
+            g.setStroke(stroke);
+            g.setClip(null);
+            g.setColor(bg);
+            g.fillRect(0, 0, w, h);
+            double scale = Math.min(w, h) / (double) DrawPanel.SAMPLES_SIZE;
+            g.scale(scale, scale);
+            scene.draw(g, index);
+            if ("png".equals(format)) {
+                try (FileChannel channel = FileChannel.open(file.toPath(),
+                        StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                        StandardOpenOption.TRUNCATE_EXISTING)) {
+                    encoder.encode(image, channel);
+                }
+            } else if (!ImageIO.write(image, format, file)) {
+                throw new IOException("Unsupported format: " + format);
+            }
+        }
+    }
+
+    /**
+     * @param args directory count [width height [threads [format]]]
+     */
+    public static void main(String args[]) {
+        if (args.length < 2) {
+            System.err.println("Usage: java shapeSamples.BatchRenderer"
+                    + " directory count [width height [threads [format]]]");
+            System.exit(1);
+        }
+        try {
+            int count = Integer.parseInt(args[1]);
+            int threads = Runtime.getRuntime().availableProcessors();
+            if (args.length > 4) {
+                threads = Integer.parseInt(args[4]);
+            }
+            BatchRenderer renderer = new BatchRenderer(
+                    new ForkJoinPool(threads));
+            if (args.length > 3) {
+                renderer.setSize(Integer.parseInt(args[2]),
+                        Integer.parseInt(args[3]));
+            }
+            if (args.length > 5) {
+                renderer.setFormat(args[5]);
+            }
+            long start = System.nanoTime();
+            renderer.render(new File(args[0]), count);
+            double seconds = (System.nanoTime() - start) * 1e-9;
+            System.out.printf("%d images in %.2f s (%.1f images/s)%n",
+                    count, seconds, count / seconds);
+            System.exit(0);
+        } catch (IOException | IllegalArgumentException ex) {
+            System.err.println(ex.getMessage());
+            System.exit(1);
+        }
+    }
+}
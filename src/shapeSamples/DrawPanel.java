@@ -6,17 +6,50 @@
  */
 package shapeSamples;
 
+import java.awt.BasicStroke;
 import java.awt.Color;
 import java.awt.Dimension;
 import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.Rectangle;
 import java.awt.geom.*;
 import java.awt.image.BufferedImage;
-import java.io.*;
-import utils.FileIO;
+import java.awt.image.DataBufferInt;
+import java.io.File;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import utils.CompatibleImage;
+import utils.ImagePool;
+import utils.Metrics;
 
 public class DrawPanel extends javax.swing.JPanel {
 
+    public static final int SAMPLES_SIZE = 400;//size of area of samples
     private BufferedImage image = null;
+    //number of saves in progress for images passed to ImageSaver, which are
+    //neither changed nor recycled until released
+    private final Map<BufferedImage, Integer> savingImages
+            = new IdentityHashMap<>();
+    private ShapeScene scene = null;//shapes shown in image
+    //image in the format and resolution of the display, recreated when the
+    //panel is shown on another screen
+    private BufferedImage display = null;
+    private GraphicsConfiguration displayConfig = null;
+    private double displayScaleX = 1;
+    private double displayScaleY = 1;
+    private Rectangle displayDamage = null;//region of display to be updated
+    //samples are drawn off the event dispatch thread
+    private final ExecutorService drawer
+            = Executors.newSingleThreadExecutor(r -> {
+                Thread thread = new Thread(r, "DrawSamples");
+                thread.setDaemon(true);
+                return thread;
+            });
+    private int generation = 0;//incremented when the image is replaced
 
     /**
      * Creates new form DrawPanel
@@ -31,51 +64,257 @@ public class DrawPanel extends javax.swing.JPanel {
         if (image == null) {
             return;
         }
-        //put image
-        g.drawImage(image, 0, 0, image.getWidth(), image.getHeight(), this);
+        long start = System.nanoTime();
+        Metrics.PaintEvent event = new Metrics.PaintEvent();
+        event.begin();
+        updateDisplay((Graphics2D) g);
+        //put image; device pixels are copied without scaling
+        g.drawImage(display, 0, 0, image.getWidth(), image.getHeight(), this);
+        event.end();
+        Metrics.PAINT.record(System.nanoTime() - start);
+        if (event.shouldCommit()) {
+            event.component = getClass().getName();
+            event.pixels = (long) display.getWidth() * display.getHeight();
+            event.commit();
+        }
     }
 
     public void clear() {
+        generation++;//samples being drawn are not shown
         initializeImage();
     }
 
     /**
-     * initialize image
+     * Bring display up to date with image for the destination of painting
+     *
+     * @param g destination
+     */
+    private void updateDisplay(Graphics2D g) {
+        GraphicsConfiguration gc = g.getDeviceConfiguration();
+        double sx = CompatibleImage.getScaleX(g);
+        double sy = CompatibleImage.getScaleY(g);
+        int w = (int) Math.ceil(image.getWidth() * sx);
+        int h = (int) Math.ceil(image.getHeight() * sy);
+        if (gc != displayConfig || sx != displayScaleX || sy != displayScaleY
+                || !CompatibleImage.isCompatible(display, gc, w, h)) {
+            display = CompatibleImage.create(gc, w, h);
+            displayConfig = gc;
+            displayScaleX = sx;
+            displayScaleY = sy;
+            displayDamage = new Rectangle(0, 0,
+                    image.getWidth(), image.getHeight());
+        }
+        if (displayDamage == null) {
+            return;
+        }
+        Rectangle r = displayDamage;
+        displayDamage = null;
+        Graphics2D dg = display.createGraphics();
+        if (sx == 1 && sy == 1) {//same pixels as image
+            dg.drawImage(image, r.x, r.y, r.x + r.width, r.y + r.height,
+                    r.x, r.y, r.x + r.width, r.y + r.height, null);
+        } else {//shapes are drawn again at the resolution of the display
+            dg.scale(sx, sy);
+            dg.setClip(r);
+            dg.setColor(this.getBackground());
+            dg.fill(r);
+            scene.paint(dg, r);
+        }
+        dg.dispose();
+    }
+
+    /**
+     * Mark region of display to be updated at the next painting
+     *
+     * @param r region changed in image
+     */
+    private void damageDisplay(Rectangle r) {
+        if (displayDamage == null) {
+            displayDamage = new Rectangle(r);
+        } else {
+            displayDamage.add(r);
+        }
+    }
+
+    /**
+     * initialize image and remove all shapes
      */
     private void initializeImage() {
         Dimension dimension = getPreferredSize();
-        //create new image
-        image = new BufferedImage(dimension.width, dimension.height,
-                BufferedImage.TYPE_INT_RGB);
-        Graphics2D g = (Graphics2D) image.getGraphics();
-        g.setColor(this.getBackground());//fill with background color
-        g.fillRect(0, 0, dimension.width, dimension.height);
+        if (image == null || savingImages.containsKey(image)
+                || image.getWidth() != dimension.width
+                || image.getHeight() != dimension.height) {
+            if (image != null && !savingImages.containsKey(image)) {
+                ImagePool.SHARED.release(image);
+            }
+            image = ImagePool.SHARED.acquire(dimension.width,
+                    dimension.height);
+        }
+        fillBackground(image, this.getBackground());
+        setScene(new ShapeScene(dimension.width, dimension.height));
+    }
+
+    /**
+     * fill image with background color
+     */
+    private static void fillBackground(BufferedImage image, Color color) {
+        int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer())
+                .getData();
+        Arrays.fill(pixels, color.getRGB() & 0xFFFFFF);
+    }
+
+    /**
+     * Replace shapes, whose image is already drawn, and show them
+     *
+     * @param newScene shapes
+     */
+    private void setScene(ShapeScene newScene) {
+        if (scene != null) {
+            scene.clear();//shapes can be added again
+        }
+        scene = newScene;
+        damageDisplay(new Rectangle(0, 0, image.getWidth(), image.getHeight()));
     }
 
     /**
-     * Create image
+     * Create image. Samples are drawn on another thread into a new image,
+     * which replaces the current image when finished, unless clear() or
+     * drawSamples() is called again before.
      */
     public void drawSamples() {
-        initializeImage();
-        Graphics2D g = (Graphics2D) image.getGraphics();
+        int current = ++generation;
+        Dimension dimension = getPreferredSize();
+        Color background = this.getBackground();
+        drawer.submit(() -> {
+            ShapeScene samples
+                    = new ShapeScene(dimension.width, dimension.height);
+            addSamples(samples);
+            BufferedImage drawn = ImagePool.SHARED.acquire(dimension.width,
+                    dimension.height);
+            fillBackground(drawn, background);
+            Graphics2D g = (Graphics2D) drawn.getGraphics();
+            samples.paint(g, null);
+            g.dispose();
+            javax.swing.SwingUtilities.invokeLater(() -> {
+                if (generation != current) {
+                    ImagePool.SHARED.release(drawn);
+                    return;
+                }
+                if (!savingImages.containsKey(image)) {
+                    ImagePool.SHARED.release(image);
+                }
+                image = drawn;
+                setScene(samples);
+                repaint();
+            });
+        });
+    }
+
+    /**
+     * Add sample shapes in the area of SAMPLES_SIZE x SAMPLES_SIZE
+     *
+     * @param scene destination
+     */
+    public static void addSamples(ShapeScene scene) {
+        BasicStroke stroke = new BasicStroke();
         //rectangle
         Rectangle2D.Double rect
                 = new Rectangle2D.Double(50., 50., 100., 100.);
-        g.setColor(Color.GREEN);
-        g.fill(rect);
+        scene.add(ShapeScene.Item.fill(rect, Color.GREEN));
         //ellipse
         Ellipse2D.Double ellipse
                 = new Ellipse2D.Double(200., 200., 100., 50.);
-        g.setColor(Color.RED);
-        g.draw(ellipse);
+        scene.add(ShapeScene.Item.draw(ellipse, Color.RED, stroke));
         //straight line
-        g.setColor(new Color(30, 20, 100));
         Line2D.Double line = new Line2D.Double(0., 0., 400., 300.);
-        g.draw(line);
+        scene.add(ShapeScene.Item.draw(line, new Color(30, 20, 100), stroke));
+    }
+
+    /**
+     * Draw sample shapes in the area of SAMPLES_SIZE x SAMPLES_SIZE
+     *
+     * @param g graphics filled with background
+     */
+    public static void drawSamples(Graphics2D g) {
+        ShapeScene samples = new ShapeScene(SAMPLES_SIZE, SAMPLES_SIZE);
+        addSamples(samples);
+        samples.paint(g, null);
+    }
+
+    /**
+     * Add shape above the others and show it
+     *
+     * @param item shape with style
+     */
+    public void addShape(ShapeScene.Item item) {
+        scene.add(item);
+        updateRegion(item.getBounds());
+    }
+
+    /**
+     * Remove shape and show the shapes under it
+     *
+     * @param item shape in this panel
+     */
+    public void removeShape(ShapeScene.Item item) {
+        scene.remove(item);
+        updateRegion(item.getBounds());
+    }
+
+    /**
+     * Topmost shape at the point
+     *
+     * @param x x coordinate
+     * @param y y coordinate
+     * @return shape, or null if none
+     */
+    public ShapeScene.Item getShapeAt(int x, int y) {
+        return scene.hit(x, y);
+    }
+
+    /**
+     * Shapes possibly touching pixels in the region
+     *
+     * @param region region
+     * @return shapes in the order of drawing
+     */
+    public List<ShapeScene.Item> getShapesIn(Rectangle region) {
+        return scene.query(region);
+    }
+
+    public ShapeScene getScene() {
+        return scene;
+    }
+
+    /**
+     * Redraw only shapes intersecting the damaged region, and repaint it
+     *
+     * @param damaged damaged region
+     */
+    private void updateRegion(Rectangle2D damaged) {
+        Rectangle r = damaged.getBounds().intersection(
+                new Rectangle(0, 0, image.getWidth(), image.getHeight()));
+        if (r.isEmpty()) {
+            return;
+        }
+        if (savingImages.containsKey(image)) {//the saved image must not change
+            BufferedImage copy = ImagePool.SHARED.acquire(image.getWidth(),
+                    image.getHeight());
+            image.copyData(copy.getRaster());
+            image = copy;
+        }
+        Graphics2D g = (Graphics2D) image.getGraphics();
+        g.setClip(r);
+        g.setColor(this.getBackground());
+        g.fill(r);
+        scene.paint(g, r);
+        g.dispose();
+        damageDisplay(r);
+        repaint(r);
     }
 
     /**
-     * save image to file
+     * save image to file in background
      *
      * @param file destination
      */
@@ -83,22 +322,27 @@ public class DrawPanel extends javax.swing.JPanel {
         if (!fileChooser.FileUtilGUI.checkWritable(file)) {
             return;
         }
-        FileOutputStream out = null;
-        try {
-            out = new FileOutputStream(file);
-        } catch (FileNotFoundException ex) {
-            fileChooser.FileUtilGUI.showError(ex.getMessage());
+        //the image is replaced by a copy before it is changed, so that it
+        //is saved without copying
+        BufferedImage saved = image;
+        savingImages.merge(saved, 1, Integer::sum);
+        fileChooser.ImageSaver.save(this, saved, file,
+                () -> releaseSaved(saved),
+                "Image is saved to " + file.getName());
+    }
+
+    /**
+     * Called when a save of an image finishes
+     *
+     * @param saved image passed to ImageSaver
+     */
+    private void releaseSaved(BufferedImage saved) {
+        if (savingImages.merge(saved, -1, Integer::sum) > 0) {
+            return;
         }
-        if (out != null) {
-            String ext = FileIO.getExtention(file.getName());
-            try {
-                javax.imageio.ImageIO.write(image, ext, out);
-                String message
-                        = "Image is saved to " + file.getName();
-                fileChooser.FileUtilGUI.showMessage(message);
-            } catch (IOException ex) {
-                fileChooser.FileUtilGUI.showError(ex.getMessage());
-            }
+        savingImages.remove(saved);
+        if (saved != image) {//replaced while saved
+            ImagePool.SHARED.release(saved);
         }
     }
 
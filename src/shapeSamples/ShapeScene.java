@@ -0,0 +1,466 @@
+package shapeSamples;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Shape;
+import java.awt.geom.Line2D;
+import java.awt.geom.Rectangle2D;
+import java.awt.geom.RectangularShape;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Retained shapes with a spatial index
+ *
+ * Shapes are kept with their styles, and drawn in the order of addition.
+ * Bounds of shapes are registered in uniform grids of cells, so that shapes
+ * in a region are found by visiting only the cells overlapping the region.
+ * Each shape is registered in the finest grid where it covers a few cells;
+ * the cells of the next grid are LEVEL_RATIO times larger, up to one cell
+ * for the whole area. Repainting a damaged region and hit testing cost the
+ * number of grids and the shapes near the region, not the number of all
+ * shapes.
+ *
+ * @author tadaki
+ */
+public class ShapeScene {
+
+    /**
+     * Shape with its style
+     */
+    public static class Item {
+
+        private final Shape shape;
+        private final Color color;
+        private final BasicStroke stroke;//null for filled shape
+        private final Rectangle2D bounds;//including stroke
+        private int id = -1;//index in the scene, -1 if not in a scene
+
+        /**
+         * @param shape shape
+         * @param color color
+         * @param stroke stroke for outline, null for filled shape
+         */
+        public Item(Shape shape, Color color, BasicStroke stroke) {
+            this.shape = shape;
+            this.color = color;
+            this.stroke = stroke;
+            Rectangle2D r = shape.getBounds2D();
+            //caps and right-angled joins stick out by sqrt(2) times half
+            //width, sharper joins at most by the miter limit times half
+            //width, and one more pixel is touched by rasterization
+            double margin = 1;
+            if (stroke != null) {
+                double ratio = Math.sqrt(2);
+                if (stroke.getLineJoin() == BasicStroke.JOIN_MITER
+                        && !(shape instanceof RectangularShape)
+                        && !(shape instanceof Line2D)) {
+                    ratio = Math.max(ratio, stroke.getMiterLimit());
+                }
+                margin += stroke.getLineWidth() / 2 * ratio;
+            }
+            bounds = new Rectangle2D.Double(r.getX() - margin,
+                    r.getY() - margin,
+                    r.getWidth() + 2 * margin, r.getHeight() + 2 * margin);
+        }
+
+        /**
+         * Filled shape
+         *
+         * @param shape shape
+         * @param color color
+         * @return item
+         */
+        public static Item fill(Shape shape, Color color) {
+            return new Item(shape, color, null);
+        }
+
+        /**
+         * Outline of shape
+         *
+         * @param shape shape
+         * @param color color
+         * @param stroke stroke
+         * @return item
+         */
+        public static Item draw(Shape shape, Color color, BasicStroke stroke) {
+            return new Item(shape, color, stroke);
+        }
+
+        public Shape getShape() {
+            return shape;
+        }
+
+        public Color getColor() {
+            return color;
+        }
+
+        public BasicStroke getStroke() {
+            return stroke;
+        }
+
+        /**
+         * Bounds of pixels touched by the item
+         *
+         * @return bounds, not to be changed
+         */
+        public Rectangle2D getBounds() {
+            return bounds;
+        }
+
+        /**
+         * Test whether the point is on the painted part of the item
+         *
+         * @param x x coordinate
+         * @param y y coordinate
+         * @return true if on the item
+         */
+        public boolean contains(double x, double y) {
+            if (!bounds.contains(x, y)) {
+                return false;
+            }
+            if (stroke == null) {
+                return shape.contains(x, y);
+            }
+            return stroke.createStrokedShape(shape).contains(x, y);
+        }
+
+        void paint(Graphics2D g) {
+            g.setColor(color);
+            if (stroke == null) {
+                g.fill(shape);
+            } else {
+                g.setStroke(stroke);
+                g.draw(shape);
+            }
+        }
+    }
+
+    /**
+     * Uniform grid of cells holding ids of items
+     */
+    private static class Grid {
+
+        private final int cellSize;
+        private final int columns;
+        private final int rows;
+        private final int[][] cells;
+        private final int[] counts;
+        //first column, first row, last column and last row of a rectangle
+        private final int[] range = new int[4];
+
+        Grid(int width, int height, int cellSize) {
+            this.cellSize = cellSize;
+            columns = Math.max(1, (width + cellSize - 1) / cellSize);
+            rows = Math.max(1, (height + cellSize - 1) / cellSize);
+            cells = new int[columns * rows][];
+            counts = new int[columns * rows];
+        }
+
+        /**
+         * Set range to cells overlapping the rectangle, clipped to the grid
+         *
+         * @return number of cells
+         */
+        int setRange(Rectangle2D r) {
+            range[0] = cell(r.getMinX(), columns);
+            range[1] = cell(r.getMinY(), rows);
+            range[2] = cell(r.getMaxX(), columns);
+            range[3] = cell(r.getMaxY(), rows);
+            return (range[2] - range[0] + 1) * (range[3] - range[1] + 1);
+        }
+
+        private int cell(double v, int n) {
+            return (int) Math.max(0, Math.min(n - 1,
+                    Math.floor(v / cellSize)));
+        }
+
+        void add(int id, Rectangle2D bounds) {
+            setRange(bounds);
+            for (int row = range[1]; row <= range[3]; row++) {
+                for (int column = range[0]; column <= range[2]; column++) {
+                    int c = row * columns + column;
+                    if (cells[c] == null) {
+                        cells[c] = new int[4];
+                    } else if (counts[c] == cells[c].length) {
+                        cells[c] = Arrays.copyOf(cells[c], 2 * counts[c]);
+                    }
+                    cells[c][counts[c]++] = id;
+                }
+            }
+        }
+
+        void remove(int id, Rectangle2D bounds) {
+            setRange(bounds);
+            for (int row = range[1]; row <= range[3]; row++) {
+                for (int column = range[0]; column <= range[2]; column++) {
+                    int c = row * columns + column;
+                    int[] ids = cells[c];
+                    for (int k = 0; k < counts[c]; k++) {
+                        if (ids[k] == id) {//keep the order of others
+                            System.arraycopy(ids, k + 1, ids, k,
+                                    counts[c] - k - 1);
+                            counts[c]--;
+                            break;
+                        }
+                    }
+                }
+            }
+        }
+
+        void clear() {
+            Arrays.fill(counts, 0);
+        }
+    }
+
+    public static final int DEFAULT_CELL_SIZE = 64;
+    private static final int MAX_CELLS = 16;//cells of an item in a grid
+    private static final int LEVEL_RATIO = 4;//ratio of sizes of cells
+    //grids of coarser cells for larger items; the last one has one cell
+    private final Grid[] grids;
+    //items by id, in the order of drawing; null for removed
+    private Item[] items = new Item[256];
+    private int[] levels = new int[256];//grid of each item
+    private int numIds = 0;
+    private int size = 0;
+    //stamps of the last query visiting items, to find each item once
+    private int[] marks = new int[256];
+    private int stamp = 0;
+    private int[] found = new int[256];
+
+    /**
+     * Create scene for an area with the default cell size
+     *
+     * @param width width of area
+     * @param height height of area
+     */
+    public ShapeScene(int width, int height) {
+        this(width, height, DEFAULT_CELL_SIZE);
+    }
+
+    /**
+     * Create scene. Shapes out of the area are indexed in the cells at the
+     * edges of the area.
+     *
+     * @param width width of area
+     * @param height height of area
+     * @param cellSize size of the finest cells of the index
+     */
+    public ShapeScene(int width, int height, int cellSize) {
+        List<Grid> list = new ArrayList<>();
+        Grid grid;
+        do {
+            grid = new Grid(width, height, cellSize);
+            list.add(grid);
+            cellSize *= LEVEL_RATIO;
+        } while (grid.columns * grid.rows > 1);
+        grids = list.toArray(new Grid[0]);
+    }
+
+    /**
+     * Number of items
+     *
+     * @return number of items
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Add item above the others
+     *
+     * @param item item not in a scene
+     */
+    public void add(Item item) {
+        if (item.id >= 0) {
+            throw new IllegalArgumentException("Item is already in a scene");
+        }
+        if (numIds == items.length) {
+            compact();
+            if (numIds > items.length / 2) {
+                items = Arrays.copyOf(items, 2 * items.length);
+                levels = Arrays.copyOf(levels, items.length);
+                marks = Arrays.copyOf(marks, items.length);
+            }
+        }
+        item.id = numIds++;
+        items[item.id] = item;
+        size++;
+        index(item);
+    }
+
+    /**
+     * Remove item
+     *
+     * @param item item in this scene
+     */
+    public void remove(Item item) {
+        if (item.id < 0 || item.id >= numIds || items[item.id] != item) {
+            return;
+        }
+        int id = item.id;
+        grids[levels[id]].remove(id, item.bounds);
+        items[id] = null;
+        item.id = -1;
+        size--;
+    }
+
+    /**
+     * Remove all items
+     */
+    public void clear() {
+        for (int i = 0; i < numIds; i++) {
+            if (items[i] != null) {
+                items[i].id = -1;
+                items[i] = null;
+            }
+        }
+        for (Grid grid : grids) {
+            grid.clear();
+        }
+        numIds = 0;
+        size = 0;
+    }
+
+    /**
+     * Items possibly touching pixels in the region, in the order of drawing
+     *
+     * @param region region
+     * @return items whose bounds intersect the region
+     */
+    public List<Item> query(Rectangle2D region) {
+        int n = find(region);
+        List<Item> list = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            list.add(items[found[i]]);
+        }
+        return list;
+    }
+
+    /**
+     * Topmost item on the point
+     *
+     * @param x x coordinate
+     * @param y y coordinate
+     * @return item, or null if none
+     */
+    public Item hit(double x, double y) {
+        int n = find(new Rectangle2D.Double(x, y, 0, 0));
+        for (int i = n - 1; i >= 0; i--) {
+            Item item = items[found[i]];
+            if (item.contains(x, y)) {
+                return item;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Draw items intersecting the region
+     *
+     * @param g graphics, whose clip should be in the region
+     * @param region region to be drawn, or null for all items
+     */
+    public void paint(Graphics2D g, Rectangle2D region) {
+        if (region == null) {
+            for (int i = 0; i < numIds; i++) {
+                if (items[i] != null) {
+                    items[i].paint(g);
+                }
+            }
+            return;
+        }
+        int n = find(region);
+        for (int i = 0; i < n; i++) {
+            items[found[i]].paint(g);
+        }
+    }
+
+    /**
+     * Find ids of items whose bounds intersect the region
+     *
+     * @return number of ids in found[], sorted in the order of drawing
+     */
+    private int find(Rectangle2D region) {
+        if (++stamp == 0) {//wrapped around
+            Arrays.fill(marks, 0);
+            stamp = 1;
+        }
+        int n = 0;
+        for (Grid grid : grids) {
+            grid.setRange(region);
+            int[] r = grid.range;
+            for (int row = r[1]; row <= r[3]; row++) {
+                for (int column = r[0]; column <= r[2]; column++) {
+                    int c = row * grid.columns + column;
+                    n = collect(grid.cells[c], grid.counts[c], region, n);
+                }
+            }
+        }
+        Arrays.sort(found, 0, n);
+        return n;
+    }
+
+    private int collect(int[] ids, int count, Rectangle2D region, int n) {
+        for (int k = 0; k < count; k++) {
+            int id = ids[k];
+            if (marks[id] == stamp) {
+                continue;
+            }
+            marks[id] = stamp;
+            if (intersects(items[id].bounds, region)) {
+                if (n == found.length) {
+                    found = Arrays.copyOf(found, 2 * n);
+                }
+                found[n++] = id;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Intersection including the edges, so that a point on an edge is found
+     */
+    private static boolean intersects(Rectangle2D a, Rectangle2D b) {
+        return a.getMinX() <= b.getMaxX() && b.getMinX() <= a.getMaxX()
+                && a.getMinY() <= b.getMaxY() && b.getMinY() <= a.getMaxY();
+    }
+
+    /**
+     * Register item in the finest grid where it covers a few cells
+     */
+    private void index(Item item) {
+        int level = 0;
+        while (grids[level].setRange(item.bounds) > MAX_CELLS) {
+            level++;
+        }
+        levels[item.id] = level;
+        grids[level].add(item.id, item.bounds);
+    }
+
+    /**
+     * Renumber items to remove holes left by removed items
+     */
+    private void compact() {
+        if (size == numIds) {
+            return;
+        }
+        int n = 0;
+        for (int i = 0; i < numIds; i++) {
+            if (items[i] != null) {
+                items[i].id = n;
+                items[n++] = items[i];
+            }
+        }
+        Arrays.fill(items, n, numIds, null);
+        numIds = n;
+        for (Grid grid : grids) {
+            grid.clear();
+        }
+        for (int i = 0; i < numIds; i++) {
+            index(items[i]);
+        }
+    }
+}
@@ -0,0 +1,704 @@
+package simpleDrawer;
+
+import java.awt.Color;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import utils.Metrics;
+
+/**
+ * Automatic saving of a canvas into a recovery file
+ *
+ * Tiles changed since the last checkpoint are appended to a memory-mapped
+ * file as records, compressed by Deflater when it makes them smaller. The
+ * file holds two segments, located by the file header; records are
+ * appended to the active one. When records of tiles written again take more
+ * than half of the segment, or the segment is full, the latest record of
+ * each tile is copied into the other segment, which then becomes active.
+ * The other segment is replaced by a larger one, mapped at the end of the
+ * file, when it has little room left for the latest records; the file grows
+ * with the tiles drawn. The length of committed records and the generation
+ * of a segment are written after the records are forced to the file, so
+ * that a crash leaves the last checkpoint readable. Recovery only decodes
+ * the latest records, and the other tiles of the canvas stay background.
+ *
+ * The file is locked while it is used, so that another running program
+ * neither overwrites it nor offers to recover it.
+ *
+ * Records are written on a background thread from a snapshot of the
+ * canvas; checkpoint() is called on the thread drawing on the canvas.
+ *
+ * @author tadaki
+ */
+class AutoSave implements TiledCanvas.TileListener, Closeable {
+
+    private static final int MAGIC = 0x53444132;//"SDA2"
+    //magic, size, background and offsets of segments
+    private static final int FILE_HEADER = 32;
+    private static final int SEGMENT_OFFSETS = 16;//in file header
+    private static final int SEGMENT_HEADER = 16;//generation, size, committed
+    private static final int MIN_CAPACITY = 1 << 20;//bytes of a segment
+    private static final int MAX_CAPACITY = Integer.MAX_VALUE - 8;
+    private static final int RECORD_HEADER = 12;//index, method, length
+    private static final int BACKGROUND = 0;//tile absent, without data
+    private static final int RAW = 1;
+    private static final int DEFLATED = 2;
+    private static final int TILE_PIXELS
+            = TiledCanvas.TILE_SIZE * TiledCanvas.TILE_SIZE;
+    private static final int TILE_BYTES = 4 * TILE_PIXELS;
+    static final int INTERVAL = 2000;//milliseconds between checkpoints
+    static final String FILE_NAME = ".simpleDrawer.recovery";
+    //files locked by this program, which are not opened again, as closing
+    //another channel may release the lock
+    private static final Set<File> LOCKED = ConcurrentHashMap.newKeySet();
+
+    private final File file;
+    private final TiledCanvas canvas;
+    private final FileChannel channel;//locked while open
+    private final MappedByteBuffer[] segments = new MappedByteBuffer[2];
+    private final int[] capacities = new int[2];//bytes of segments
+    private final BitSet dirty = new BitSet();//changed since checkpoint
+    private final ExecutorService writer
+            = Executors.newSingleThreadExecutor(r -> {
+                Thread thread = new Thread(r, "AutoSave");
+                thread.setDaemon(true);
+                return thread;
+            });
+    private Future<?> pending = null;
+    private volatile IOException error = null;
+    //state of segments, used by the writer
+    private int active = 0;
+    private int generation = 1;
+    private int committed = SEGMENT_HEADER;//end of committed records
+    private int end = SEGMENT_HEADER;//end of written records
+    private final int[] offsets;//of the latest record of each tile, or -1
+    private final int[] lengths;
+    private long liveBytes = 0;//bytes of the latest records
+    //work area for tiles
+    private final BufferedImage work = new BufferedImage(
+            TiledCanvas.TILE_SIZE, TiledCanvas.TILE_SIZE,
+            BufferedImage.TYPE_INT_RGB);
+    private final int[] pixels
+            = ((DataBufferInt) work.getRaster().getDataBuffer()).getData();
+    private final byte[] bytes = new byte[TILE_BYTES];
+    private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    private final Inflater inflater = new Inflater();
+
+    private AutoSave(File file, TiledCanvas canvas, FileChannel channel) {
+        this.file = file;
+        this.canvas = canvas;
+        this.channel = channel;
+        offsets = new int[canvas.getNumTiles()];
+        lengths = new int[canvas.getNumTiles()];
+        Arrays.fill(offsets, -1);
+    }
+
+    /**
+     * Create a recovery file for the canvas. Tiles already drawn are
+     * written at the first checkpoint.
+     *
+     * @param file recovery file, overwritten
+     * @param canvas canvas
+     * @return autosave
+     * @throws IOException if the file is used by another program
+     */
+    static AutoSave create(File file, TiledCanvas canvas) throws IOException {
+        FileChannel channel = openLocked(file, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        AutoSave autoSave;
+        try {
+            channel.truncate(0);
+            autoSave = new AutoSave(file, canvas, channel);
+            ByteBuffer header = ByteBuffer.allocate(FILE_HEADER);
+            header.putInt(MAGIC).putInt(canvas.getWidth())
+                    .putInt(canvas.getHeight())
+                    .putInt(canvas.getBackground().getRGB()).flip();
+            channel.write(header, 0);
+            autoSave.allocate(0, MIN_CAPACITY);
+            autoSave.writeSegmentHeader(0, SEGMENT_HEADER, 1);
+            channel.force(true);
+        } catch (IOException ex) {
+            unlock(file, channel);
+            throw ex;
+        }
+        for (int i = 0; i < canvas.getNumTiles(); i++) {
+            if (canvas.getTile(i) != null) {
+                autoSave.dirty.set(i);
+            }
+        }
+        canvas.addTileListener(autoSave);
+        return autoSave;
+    }
+
+    /**
+     * Open a file locked until the channel is closed
+     *
+     * @throws IOException if the file is used by another program
+     */
+    private static FileChannel openLocked(File file,
+            StandardOpenOption... options) throws IOException {
+        if (!LOCKED.add(file.getAbsoluteFile())) {
+            throw new IOException(file.getName() + " is used");
+        }
+        FileChannel channel = null;
+        try {
+            channel = FileChannel.open(file.toPath(), options);
+            if (!tryLock(channel, false)) {
+                throw new IOException(file.getName()
+                        + " is used by another program");
+            }
+            return channel;
+        } catch (IOException ex) {
+            unlock(file, channel);
+            throw ex;
+        }
+    }
+
+    /**
+     * Close a channel opened by openLocked()
+     */
+    private static void unlock(File file, FileChannel channel)
+            throws IOException {
+        try {
+            if (channel != null) {
+                channel.close();
+            }
+        } finally {
+            LOCKED.remove(file.getAbsoluteFile());
+        }
+    }
+
+    /**
+     * Lock the whole file until the channel is closed
+     *
+     * @param shared true for shared lock, on a channel for reading
+     * @return false if the file is locked by another program or another
+     * channel
+     */
+    private static boolean tryLock(FileChannel channel, boolean shared)
+            throws IOException {
+        try {
+            return channel.tryLock(0, Long.MAX_VALUE, shared) != null;
+        } catch (OverlappingFileLockException ex) {//locked in this program
+            return false;
+        }
+    }
+
+    /**
+     * Recovery files in a directory which hold a drawing and are not used
+     * by running programs
+     *
+     * @param dir directory
+     * @return recovery files
+     */
+    static List<File> findRecoverable(File dir) {
+        List<File> files = new ArrayList<>();
+        File[] list = dir.listFiles((d, name) -> name.equals(FILE_NAME)
+                || name.startsWith(FILE_NAME + "."));
+        if (list != null) {
+            Arrays.sort(list);
+            for (File f : list) {
+                if (canRecover(f)) {
+                    files.add(f);
+                }
+            }
+        }
+        return files;
+    }
+
+    /**
+     * Recovery file for a drawing of this program. A file named after the
+     * process is used when FILE_NAME is used by another running program.
+     *
+     * @param dir directory
+     * @return recovery file
+     */
+    static File newFile(File dir) {
+        File file = new File(dir, FILE_NAME);
+        File own = new File(dir,
+                FILE_NAME + "." + ProcessHandle.current().pid());
+        if (LOCKED.contains(file.getAbsoluteFile())) {
+            return own;
+        }
+        if (!file.isFile()) {
+            return file;
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.READ)) {
+            if (tryLock(channel, true)) {
+                return file;
+            }
+        } catch (IOException ex) {
+            return file;//create() reports the error
+        }
+        return own;
+    }
+
+    /**
+     * Whether a recovery file holds a drawing and is not used by a running
+     * program
+     *
+     * @param file recovery file
+     * @return true if any tile is recorded
+     */
+    static boolean canRecover(File file) {
+        if (!file.isFile() || LOCKED.contains(file.getAbsoluteFile())) {
+            return false;
+        }
+        try (FileChannel channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.READ)) {
+            if (!tryLock(channel, true)) {
+                return false;
+            }
+            ByteBuffer header = readFileHeader(channel);
+            if (header == null) {
+                return false;
+            }
+            int latest = 0;
+            long length = 0;
+            for (int s = 0; s < 2; s++) {
+                ByteBuffer segment = readSegmentHeader(channel,
+                        header.getLong(SEGMENT_OFFSETS + 8 * s));
+                if (segment != null && segment.getInt(0) > latest) {
+                    latest = segment.getInt(0);
+                    length = segment.getLong(8);
+                }
+            }
+            return length > SEGMENT_HEADER;
+        } catch (IOException ex) {
+            return false;
+        }
+    }
+
+    private static ByteBuffer readFileHeader(FileChannel channel)
+            throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(FILE_HEADER);
+        channel.read(header, 0);
+        if (header.getInt(0) != MAGIC || !TiledCanvas.isValidSize(
+                header.getInt(4), header.getInt(8))) {
+            return null;
+        }
+        return header;
+    }
+
+    /**
+     * Read the header of a segment
+     *
+     * @param offset offset of the segment in the file
+     * @return header, or null if the segment is not inside the file
+     */
+    private static ByteBuffer readSegmentHeader(FileChannel channel,
+            long offset) throws IOException {
+        if (offset < FILE_HEADER) {
+            return null;
+        }
+        ByteBuffer header = ByteBuffer.allocate(SEGMENT_HEADER);
+        channel.read(header, offset);
+        int capacity = header.getInt(4);
+        if (header.hasRemaining() || capacity < SEGMENT_HEADER
+                || offset + capacity > channel.size()) {
+            return null;
+        }
+        return header;
+    }
+
+    /**
+     * Recover the canvas from a recovery file. Following checkpoints are
+     * appended to the file.
+     *
+     * @param file recovery file
+     * @param store storage of tiles of the canvas
+     * @return autosave of the recovered canvas
+     * @throws IOException
+     */
+    static AutoSave open(File file, TileStore store) throws IOException {
+        FileChannel channel = openLocked(file,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            ByteBuffer header = readFileHeader(channel);
+            if (header == null) {
+                throw new IOException(file.getName()
+                        + " is not a recovery file");
+            }
+            TiledCanvas canvas = new TiledCanvas(header.getInt(4),
+                    header.getInt(8), new Color(header.getInt(12)), store);
+            AutoSave autoSave = new AutoSave(file, canvas, channel);
+            autoSave.restore(header);
+            canvas.addTileListener(autoSave);
+            return autoSave;
+        } catch (IOException ex) {
+            unlock(file, channel);
+            throw ex;
+        }
+    }
+
+    /**
+     * Select the valid segment of the latest generation and write the latest
+     * record of each tile into the canvas
+     */
+    private void restore(ByteBuffer header) throws IOException {
+        active = -1;
+        for (int s = 0; s < 2; s++) {
+            long offset = header.getLong(SEGMENT_OFFSETS + 8 * s);
+            ByteBuffer h = readSegmentHeader(channel, offset);
+            if (h == null) {//allocated at compaction
+                continue;
+            }
+            capacities[s] = h.getInt(4);
+            segments[s] = channel.map(FileChannel.MapMode.READ_WRITE,
+                    offset, capacities[s]);
+            int g = h.getInt(0);
+            long c = h.getLong(8);
+            if (g > 0 && c >= SEGMENT_HEADER && c <= capacities[s]
+                    && (active < 0 || g > generation)) {
+                active = s;
+                generation = g;
+                committed = (int) c;
+            }
+        }
+        if (active < 0) {
+            throw new IOException("No drawing in " + file.getName());
+        }
+        end = committed;
+        MappedByteBuffer segment = segments[active];
+        for (int p = SEGMENT_HEADER; p < committed;) {
+            int index = segment.getInt(p);
+            int length = segment.getInt(p + 8);
+            int size = RECORD_HEADER + length;
+            if (index < 0 || index >= offsets.length
+                    || length < 0 || p + size > committed) {
+                throw new IOException("Broken recovery file");
+            }
+            setLive(index, p, size);
+            p += size;
+        }
+        for (int i = 0; i < offsets.length; i++) {
+            if (offsets[i] >= 0) {
+                readRecord(segment, offsets[i], i);
+            }
+        }
+    }
+
+    private void readRecord(MappedByteBuffer segment, int offset, int index)
+            throws IOException {
+        int method = segment.getInt(offset + 4);
+        int length = segment.getInt(offset + 8);
+        ByteBuffer data = segment.slice(offset + RECORD_HEADER, length);
+        if (method == BACKGROUND) {
+            return;
+        } else if (method == RAW && length == TILE_BYTES) {
+            data.get(bytes);
+        } else if (method == DEFLATED) {
+            inflater.reset();
+            inflater.setInput(data);
+            try {
+                int n = 0;
+                while (n < bytes.length && !inflater.finished()) {
+                    int k = inflater.inflate(bytes, n, bytes.length - n);
+                    if (k == 0 && inflater.needsInput()) {
+                        throw new IOException("Broken tile");
+                    }
+                    n += k;
+                }
+            } catch (DataFormatException ex) {
+                throw new IOException(ex);
+            }
+        } else {
+            throw new IOException("Broken tile");
+        }
+        ByteBuffer.wrap(bytes).asIntBuffer().get(pixels);
+        canvas.writePixels(index, pixels);
+    }
+
+    TiledCanvas getCanvas() {
+        return canvas;
+    }
+
+    @Override
+    public void beforeWrite(int index) {
+        dirty.set(index);
+    }
+
+    /**
+     * Start writing tiles changed since the last checkpoint in background.
+     * Nothing is done while the previous checkpoint is being written; its
+     * tiles are written by the next call.
+     *
+     * @throws IOException if the previous checkpoint has failed
+     */
+    void checkpoint() throws IOException {
+        if (error != null) {
+            throw error;
+        }
+        if (dirty.isEmpty() || (pending != null && !pending.isDone())) {
+            return;
+        }
+        BitSet tiles = (BitSet) dirty.clone();
+        dirty.clear();
+        CanvasSnapshot snapshot = canvas.snapshot();
+        pending = writer.submit(() -> write(snapshot, tiles));
+    }
+
+    /**
+     * Write all tiles changed and wait for the end of writing
+     *
+     * @throws IOException
+     */
+    void flush() throws IOException {
+        waitWriter();
+        checkpoint();
+        waitWriter();
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    private void waitWriter() throws IOException {
+        if (pending == null) {
+            return;
+        }
+        try {
+            pending.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Autosave interrupted");
+        } catch (ExecutionException ex) {
+            throw new IOException(ex.getCause());
+        }
+    }
+
+    /**
+     * Append records of tiles from a snapshot and commit them
+     */
+    private void write(CanvasSnapshot snapshot, BitSet tiles) {
+        long start = System.nanoTime();
+        try {
+            for (int i = tiles.nextSetBit(0); i >= 0;
+                    i = tiles.nextSetBit(i + 1)) {
+                if ((long) end + RECORD_HEADER + TILE_BYTES
+                        > capacities[active]) {
+                    commit();
+                    compact(RECORD_HEADER + TILE_BYTES);
+                }
+                Rectangle bounds = canvas.getTileBounds(i);
+                if (snapshot.copyTile(i, bounds, work.getRaster()
+                        .createWritableTranslatedChild(bounds.x, bounds.y))) {
+                    appendTile(i);
+                } else {
+                    appendRecord(i, BACKGROUND, 0);
+                }
+            }
+            commit();
+            //copy latest records when most bytes are of old records
+            if (end > capacities[active] / 2
+                    && 2 * liveBytes < end - SEGMENT_HEADER) {
+                compact(0);
+            }
+        } catch (IOException | RuntimeException ex) {
+            error = (ex instanceof IOException)
+                    ? (IOException) ex : new IOException(ex);
+        } finally {
+            javax.swing.SwingUtilities.invokeLater(snapshot::release);
+            Metrics.AUTOSAVE.record(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Append pixels of the work tile, deflated directly into the segment
+     * unless it does not become smaller
+     */
+    private void appendTile(int index) {
+        MappedByteBuffer segment = segments[active];
+        ByteBuffer.wrap(bytes).asIntBuffer().put(pixels);
+        deflater.reset();
+        deflater.setInput(bytes);
+        deflater.finish();
+        ByteBuffer data = segment.slice(end + RECORD_HEADER, TILE_BYTES - 1);
+        while (!deflater.finished() && data.hasRemaining()) {
+            deflater.deflate(data);
+        }
+        if (deflater.finished()) {
+            appendRecord(index, DEFLATED, data.position());
+        } else {
+            segment.put(end + RECORD_HEADER, bytes);
+            appendRecord(index, RAW, TILE_BYTES);
+        }
+    }
+
+    /**
+     * Append the header of a record whose data is already written
+     */
+    private void appendRecord(int index, int method, int length) {
+        MappedByteBuffer segment = segments[active];
+        segment.putInt(end, index);
+        segment.putInt(end + 4, method);
+        segment.putInt(end + 8, length);
+        setLive(index, end, RECORD_HEADER + length);
+        end += RECORD_HEADER + length;
+    }
+
+    private void setLive(int index, int offset, int size) {
+        if (offsets[index] >= 0) {
+            liveBytes -= lengths[index];
+        }
+        offsets[index] = offset;
+        lengths[index] = size;
+        liveBytes += size;
+    }
+
+    /**
+     * Force written records to the file and then mark them committed
+     */
+    private void commit() {
+        if (end == committed) {
+            return;
+        }
+        MappedByteBuffer segment = segments[active];
+        segment.force(committed, end - committed);
+        segment.putLong(8, end);
+        segment.force(0, SEGMENT_HEADER);
+        committed = end;
+    }
+
+    /**
+     * Copy the latest record of each tile into the other segment and make it
+     * active. Records of background tiles are dropped, as tiles are
+     * background unless recorded. The other segment is replaced by one twice
+     * as large as the records when it would be more than two thirds full.
+     *
+     * @param needed bytes to be appended after compaction
+     * @throws IOException
+     */
+    private void compact(int needed) throws IOException {
+        MappedByteBuffer from = segments[active];
+        int other = 1 - active;
+        long required = SEGMENT_HEADER + needed;
+        for (int i = 0; i < offsets.length; i++) {
+            if (offsets[i] >= 0 && from.getInt(offsets[i] + 4) != BACKGROUND) {
+                required += lengths[i];
+            }
+        }
+        if (required > MAX_CAPACITY) {
+            throw new IOException("Recovery file is full");
+        }
+        if (capacities[other] < required + required / 2) {
+            allocate(other, (int) Math.min(MAX_CAPACITY,
+                    Math.max(MIN_CAPACITY, 2 * required)));
+        }
+        MappedByteBuffer to = segments[other];
+        int p = SEGMENT_HEADER;
+        liveBytes = 0;
+        for (int i = 0; i < offsets.length; i++) {
+            if (offsets[i] < 0) {
+                continue;
+            }
+            if (from.getInt(offsets[i] + 4) == BACKGROUND) {
+                offsets[i] = -1;
+                continue;
+            }
+            to.put(p, from, offsets[i], lengths[i]);
+            offsets[i] = p;
+            liveBytes += lengths[i];
+            p += lengths[i];
+        }
+        to.force(SEGMENT_HEADER, p - SEGMENT_HEADER);
+        writeSegmentHeader(other, p, generation + 1);
+        active = other;
+        generation++;
+        committed = p;
+        end = p;
+    }
+
+    /**
+     * Map a new segment at the end of the file in place of segment s, which
+     * is not active. The file header refers to the new segment before it
+     * holds records; recovery ignores it until its generation is written.
+     */
+    private void allocate(int s, int capacity) throws IOException {
+        long offset = channel.size();
+        MappedByteBuffer segment = channel.map(FileChannel.MapMode.READ_WRITE,
+                offset, capacity);
+        segment.putInt(0, 0);
+        segment.putInt(4, capacity);
+        segment.putLong(8, SEGMENT_HEADER);
+        segment.force(0, SEGMENT_HEADER);
+        channel.write(ByteBuffer.allocate(8).putLong(0, offset),
+                SEGMENT_OFFSETS + 8L * s);
+        channel.force(false);
+        segments[s] = segment;
+        capacities[s] = capacity;
+    }
+
+    /**
+     * Write the length before the generation, so that a segment being
+     * rewritten stays older than the active one until it is complete
+     */
+    private void writeSegmentHeader(int s, int length, int g) {
+        segments[s].putLong(8, length);
+        segments[s].force(0, SEGMENT_HEADER);
+        segments[s].putInt(0, g);
+        segments[s].force(0, SEGMENT_HEADER);
+    }
+
+    /**
+     * Write all tiles changed and close the file, which can be recovered
+     *
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            stop();
+        }
+    }
+
+    /**
+     * Stop saving and remove the file, as the drawing is not to be
+     * recovered
+     *
+     * @throws IOException
+     */
+    void discard() throws IOException {
+        try {
+            waitWriter();
+        } catch (IOException ex) {
+            //the file is removed anyway
+        }
+        try {
+            channel.write(ByteBuffer.allocate(4), 0);//clear magic
+            channel.force(true);
+        } finally {
+            stop();
+        }
+        file.delete();//may fail while mapped; the magic is cleared
+    }
+
+    private void stop() throws IOException {
+        canvas.removeTileListener(this);
+        writer.shutdown();
+        unlock(file, channel);
+    }
+}
@@ -0,0 +1,193 @@
+package simpleDrawer;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.awt.image.SampleModel;
+import java.awt.image.WritableRaster;
+import java.util.Vector;
+
+/**
+ * Read-only image view of a snapshot of TiledCanvas
+ *
+ * Image writers request the pixels tile by tile or row by row, and each
+ * request is served by copying from the tiles of the snapshot. Tiles not
+ * created are served by a tile filled with the background color.
+ *
+ * @author tadaki
+ */
+class CanvasImage implements RenderedImage {
+
+    private static final int SIZE = TiledCanvas.TILE_SIZE;
+    private final CanvasSnapshot snapshot;
+    private final TiledCanvas canvas;
+    private final ColorModel colorModel;
+    private final SampleModel sampleModel;
+    private Raster backgroundTile = null;
+
+    CanvasImage(CanvasSnapshot snapshot) {
+        this.snapshot = snapshot;
+        this.canvas = snapshot.getCanvas();
+        BufferedImage sample = new BufferedImage(1, 1,
+                BufferedImage.TYPE_INT_RGB);
+        colorModel = sample.getColorModel();
+        sampleModel = sample.getSampleModel()
+                .createCompatibleSampleModel(SIZE, SIZE);
+    }
+
+    @Override
+    public Vector<RenderedImage> getSources() {
+        return null;
+    }
+
+    @Override
+    public Object getProperty(String name) {
+        return java.awt.Image.UndefinedProperty;
+    }
+
+    @Override
+    public String[] getPropertyNames() {
+        return null;
+    }
+
+    @Override
+    public ColorModel getColorModel() {
+        return colorModel;
+    }
+
+    @Override
+    public SampleModel getSampleModel() {
+        return sampleModel;
+    }
+
+    @Override
+    public int getWidth() {
+        return canvas.getWidth();
+    }
+
+    @Override
+    public int getHeight() {
+        return canvas.getHeight();
+    }
+
+    @Override
+    public int getMinX() {
+        return 0;
+    }
+
+    @Override
+    public int getMinY() {
+        return 0;
+    }
+
+    @Override
+    public int getNumXTiles() {
+        return canvas.getNumTilesX();
+    }
+
+    @Override
+    public int getNumYTiles() {
+        return canvas.getNumTilesY();
+    }
+
+    @Override
+    public int getMinTileX() {
+        return 0;
+    }
+
+    @Override
+    public int getMinTileY() {
+        return 0;
+    }
+
+    @Override
+    public int getTileWidth() {
+        return SIZE;
+    }
+
+    @Override
+    public int getTileHeight() {
+        return SIZE;
+    }
+
+    @Override
+    public int getTileGridXOffset() {
+        return 0;
+    }
+
+    @Override
+    public int getTileGridYOffset() {
+        return 0;
+    }
+
+    @Override
+    public Raster getTile(int tx, int ty) {
+        return getData(new Rectangle(tx * SIZE, ty * SIZE, SIZE, SIZE));
+    }
+
+    /**
+     * Tile filled with background color, shared by all absent tiles
+     *
+     * @return raster of background
+     */
+    private synchronized Raster getBackgroundTile() {
+        if (backgroundTile == null) {
+            WritableRaster raster = colorModel.createCompatibleWritableRaster(
+                    SIZE, SIZE);
+            Object pixel = colorModel.getDataElements(
+                    canvas.getBackground().getRGB(), null);
+            for (int y = 0; y < SIZE; y++) {
+                for (int x = 0; x < SIZE; x++) {
+                    raster.setDataElements(x, y, pixel);
+                }
+            }
+            backgroundTile = raster;
+        }
+        return backgroundTile;
+    }
+
+    @Override
+    public Raster getData() {
+        return getData(new Rectangle(0, 0, getWidth(), getHeight()));
+    }
+
+    @Override
+    public Raster getData(Rectangle rect) {
+        WritableRaster raster = colorModel.createCompatibleWritableRaster(
+                rect.width, rect.height).createWritableTranslatedChild(
+                rect.x, rect.y);
+        return copyData(raster);
+    }
+
+    @Override
+    public WritableRaster copyData(WritableRaster raster) {
+        if (raster == null) {
+            raster = colorModel.createCompatibleWritableRaster(
+                    getWidth(), getHeight());
+        }
+        Rectangle region = raster.getBounds().intersection(
+                new Rectangle(0, 0, getWidth(), getHeight()));
+        if (region.isEmpty()) {
+            return raster;
+        }
+        int tx0 = region.x / SIZE;
+        int ty0 = region.y / SIZE;
+        int tx1 = (region.x + region.width - 1) / SIZE;
+        int ty1 = (region.y + region.height - 1) / SIZE;
+        for (int ty = ty0; ty <= ty1; ty++) {
+            for (int tx = tx0; tx <= tx1; tx++) {
+                Rectangle r = new Rectangle(tx * SIZE, ty * SIZE, SIZE, SIZE)
+                        .intersection(region);
+                if (!snapshot.copyTile(ty * canvas.getNumTilesX() + tx,
+                        r, raster)) {
+                    raster.setRect(getBackgroundTile().createChild(
+                            r.x - tx * SIZE, r.y - ty * SIZE,
+                            r.width, r.height, r.x, r.y, null));
+                }
+            }
+        }
+        return raster;
+    }
+}
@@ -0,0 +1,110 @@
+package simpleDrawer;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.RenderedImage;
+import java.awt.image.WritableRaster;
+
+/**
+ * Snapshot of TiledCanvas, copied on write
+ *
+ * Taking a snapshot only copies references of tiles. A tile is copied when it
+ * is changed on the canvas for the first time after the snapshot, so that
+ * the snapshot can be read on another thread while drawing continues.
+ *
+ * @author tadaki
+ */
+class CanvasSnapshot implements TiledCanvas.TileListener {
+
+    private final TiledCanvas canvas;
+    private final BufferedImage[] tiles;
+    private final boolean[] preserved;
+    private boolean released = false;
+
+    /**
+     * Take snapshot. Must be called on the thread drawing on the canvas.
+     *
+     * @param canvas canvas
+     */
+    CanvasSnapshot(TiledCanvas canvas) {
+        this.canvas = canvas;
+        int n = canvas.getNumTiles();
+        tiles = new BufferedImage[n];
+        preserved = new boolean[n];
+        for (int i = 0; i < n; i++) {
+            tiles[i] = canvas.getTile(i);
+        }
+        canvas.addTileListener(this);
+    }
+
+    TiledCanvas getCanvas() {
+        return canvas;
+    }
+
+    @Override
+    public synchronized void beforeWrite(int index) {
+        if (preserved[index]) {
+            return;
+        }
+        preserved[index] = true;
+        BufferedImage tile = tiles[index];
+        if (tile != null) {//copy before the canvas changes the tile
+            tiles[index] = toHeap(tile);
+        }
+    }
+
+    /**
+     * Copy pixels of a tile into a raster, while the tile is not changed
+     *
+     * @param index index of tile
+     * @param r region to be copied, in canvas coordinates
+     * @param raster destination, in canvas coordinates
+     * @return false if the tile is absent in the snapshot
+     */
+    synchronized boolean copyTile(int index, Rectangle r,
+            WritableRaster raster) {
+        BufferedImage tile = tiles[index];
+        if (tile == null) {
+            return false;
+        }
+        if (MappedTileStore.getPixels(tile) != null) {
+            tile = toHeap(tile);
+        }
+        Rectangle bounds = canvas.getTileBounds(index);
+        raster.setRect(tile.getRaster().createChild(
+                r.x - bounds.x, r.y - bounds.y, r.width, r.height,
+                r.x, r.y, null));
+        return true;
+    }
+
+    /**
+     * Copy of a tile in Java heap
+     */
+    private static BufferedImage toHeap(BufferedImage tile) {
+        BufferedImage copy = new BufferedImage(tile.getWidth(),
+                tile.getHeight(), BufferedImage.TYPE_INT_RGB);
+        TiledCanvas.readTile(tile, ((java.awt.image.DataBufferInt) copy
+                .getRaster().getDataBuffer()).getData());
+        return copy;
+    }
+
+    /**
+     * Image view of the snapshot, which can be read on any thread
+     *
+     * @return image
+     */
+    RenderedImage asImage() {
+        return new CanvasImage(this);
+    }
+
+    /**
+     * Stop tracking the canvas. Must be called on the thread drawing on the
+     * canvas.
+     */
+    void release() {
+        if (!released) {
+            canvas.removeTileListener(this);
+            released = true;
+        }
+    }
+}
@@ -0,0 +1,193 @@
+package simpleDrawer;
+
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.image.BufferedImage;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import utils.CompatibleImage;
+
+/**
+ * Copies of tiles of TiledCanvas in the format and resolution of the display
+ *
+ * Tiles of the canvas stay TYPE_INT_RGB, whose pixels are accessed directly
+ * by the undo history and the stroke journal. For the view at 1:1, each
+ * visible tile is copied once into a compatible image of device pixels, and
+ * the copy is blitted to the screen without conversion of format or
+ * scaling. A copy is updated when its tile has been changed, and copies of
+ * tiles not painted recently are dropped. All copies are recreated when the
+ * panel is shown on another screen.
+ *
+ * @author tadaki
+ */
+class DisplayTiles implements TiledCanvas.TileListener {
+
+    private static final int TILE_SIZE = TiledCanvas.TILE_SIZE;
+    private static final int MIN_CAPACITY = 16;
+
+    /**
+     * Copy of a tile
+     */
+    private static class Copy {
+
+        final BufferedImage image;
+        boolean valid = false;
+
+        Copy(BufferedImage image) {
+            this.image = image;
+        }
+    }
+
+    private final TiledCanvas canvas;
+    private int capacity = MIN_CAPACITY;
+    //copies by index of tile, in the order of the last use
+    private final Map<Integer, Copy> copies
+            = new LinkedHashMap<Integer, Copy>(64, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, Copy> eldest) {
+            return size() > capacity;
+        }
+    };
+    private GraphicsConfiguration config = null;
+    private double scaleX = 1;
+    private double scaleY = 1;
+    private int copyWidth = TILE_SIZE;//size of copies in device pixels
+    private int copyHeight = TILE_SIZE;
+    private BufferedImage heapTile = null;//tile of MappedTileStore in heap
+
+    /**
+     * Create copies and listen to changes of the canvas
+     *
+     * @param canvas canvas
+     */
+    DisplayTiles(TiledCanvas canvas) {
+        this.canvas = canvas;
+        canvas.addTileListener(this);
+    }
+
+    /**
+     * Stop listening to the canvas and drop copies
+     */
+    void dispose() {
+        canvas.removeTileListener(this);
+        copies.clear();
+    }
+
+    @Override
+    public void beforeWrite(int index) {
+        Copy copy = copies.get(index);
+        if (copy != null) {
+            copy.valid = false;
+        }
+    }
+
+    /**
+     * Draw the part of canvas in the region at 1:1, as TiledCanvas.paint().
+     * The destination is set by setDestination() before.
+     *
+     * @param g destination in canvas coordinates
+     * @param x0 left of region
+     * @param y0 top of region
+     * @param x1 right of region
+     * @param y1 bottom of region
+     * @return number of pixels copied from tiles
+     */
+    long paint(Graphics2D g, int x0, int y0, int x1, int y1) {
+        long pixels = 0;
+        x0 = Math.max(0, x0);
+        y0 = Math.max(0, y0);
+        x1 = Math.min(canvas.getWidth(), x1);
+        y1 = Math.min(canvas.getHeight(), y1);
+        if (x1 <= x0 || y1 <= y0) {
+            return pixels;
+        }
+        int tx0 = x0 / TILE_SIZE;
+        int ty0 = y0 / TILE_SIZE;
+        int tx1 = (x1 - 1) / TILE_SIZE;
+        int ty1 = (y1 - 1) / TILE_SIZE;
+        //keep copies of all tiles in the region, and as many more
+        capacity = Math.max(capacity,
+                Math.max(MIN_CAPACITY, 2 * (tx1 - tx0 + 1) * (ty1 - ty0 + 1)));
+        for (int ty = ty0; ty <= ty1; ty++) {
+            for (int tx = tx0; tx <= tx1; tx++) {
+                int left = Math.max(x0, tx * TILE_SIZE);
+                int top = Math.max(y0, ty * TILE_SIZE);
+                int right = Math.min(x1, (tx + 1) * TILE_SIZE);
+                int bottom = Math.min(y1, (ty + 1) * TILE_SIZE);
+                BufferedImage copy = getCopy(ty * canvas.getNumTilesX() + tx);
+                if (copy == null) {
+                    g.setColor(canvas.getBackground());
+                    g.fillRect(left, top, right - left, bottom - top);
+                    continue;
+                }
+                //source rectangle in device pixels of the copy
+                int sx0 = (int) Math.floor((left - tx * TILE_SIZE) * scaleX);
+                int sy0 = (int) Math.floor((top - ty * TILE_SIZE) * scaleY);
+                int sx1 = (int) Math.ceil((right - tx * TILE_SIZE) * scaleX);
+                int sy1 = (int) Math.ceil((bottom - ty * TILE_SIZE) * scaleY);
+                g.drawImage(copy, left, top, right, bottom,
+                        sx0, sy0, sx1, sy1, null);
+                pixels += (long) (right - left) * (bottom - top);
+            }
+        }
+        return pixels;
+    }
+
+    /**
+     * Set the screen of the destination; copies are dropped if it is another
+     * screen or scale
+     *
+     * @param gc configuration of the screen
+     * @param sx device pixels per canvas pixel
+     * @param sy device pixels per canvas pixel
+     */
+    void setDestination(GraphicsConfiguration gc, double sx, double sy) {
+        if (gc == config && sx == scaleX && sy == scaleY) {
+            return;
+        }
+        copies.clear();
+        config = gc;
+        scaleX = sx;
+        scaleY = sy;
+        copyWidth = (int) Math.ceil(TILE_SIZE * sx);
+        copyHeight = (int) Math.ceil(TILE_SIZE * sy);
+        capacity = MIN_CAPACITY;
+    }
+
+    /**
+     * Get up-to-date copy of a tile
+     *
+     * @param index index of tile
+     * @return copy, or null if the tile is filled with background
+     */
+    private BufferedImage getCopy(int index) {
+        BufferedImage tile = canvas.getTile(index);
+        if (tile == null) {
+            copies.remove(index);
+            return null;
+        }
+        Copy copy = copies.get(index);
+        if (copy == null) {
+            copy = new Copy(CompatibleImage.create(config,
+                    copyWidth, copyHeight));
+            copies.put(index, copy);
+        }
+        if (!copy.valid) {
+            Graphics2D cg = copy.image.createGraphics();
+            cg.scale(scaleX, scaleY);
+            if (MappedTileStore.getPixels(tile) != null) {//read in bulk
+                if (heapTile == null) {
+                    heapTile = new BufferedImage(TILE_SIZE, TILE_SIZE,
+                            BufferedImage.TYPE_INT_RGB);
+                }
+                TiledCanvas.readTile(tile, ((java.awt.image.DataBufferInt)
+                        heapTile.getRaster().getDataBuffer()).getData());
+                tile = heapTile;
+            }
+            cg.drawImage(tile, 0, 0, null);
+            cg.dispose();
+            copy.valid = true;
+        }
+        return copy.image;
+    }
+}
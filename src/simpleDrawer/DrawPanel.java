@@ -7,24 +7,105 @@
 package simpleDrawer;
 
 import java.awt.BasicStroke;
+import java.awt.Color;
 import java.awt.Dimension;
+import java.awt.FontMetrics;
 import java.awt.Graphics2D;
-import java.awt.Point;
+import java.awt.GraphicsConfiguration;
+import java.awt.Rectangle;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseListener;
 import java.awt.event.MouseMotionListener;
-import java.awt.image.BufferedImage;
+import java.awt.event.MouseWheelEvent;
+import java.awt.event.MouseWheelListener;
 import java.io.*;
-import utils.FileIO;
+import utils.CompatibleImage;
+import utils.Histogram;
+import utils.Metrics;
 
 public class DrawPanel extends javax.swing.JPanel
-        implements MouseListener, MouseMotionListener {
+        implements MouseListener, MouseMotionListener, MouseWheelListener {
 
-    private BufferedImage image = null;
-    private Point point = null;
+    public static final double MIN_ZOOM = 1. / 256;
+    public static final double MAX_ZOOM = 32;
+    private static final double ZOOM_STEP = 1.25;//zoom by a wheel notch
+    private static final Color OUTSIDE = Color.GRAY;//outside of canvas
+    //input events passed to the render thread
+    private static final int PRESS = 1;//value: color, aux: line width
+    private static final int DRAG = 2;
+    private static final int RELEASE = 3;
+    private static final int EVENT_TYPE = 0xff;
+    private static final int RASTER = 0x100;//flags of PRESS
+    private static final int ERASER = 0x200;
+
+    private TiledCanvas canvas = null;
     private BasicStroke stroke = null;
     private boolean eraser = false;
     private BasicStroke eraserStroke;//Stroke for eraser
+    private boolean rasterBrush = false;//draw by RasterBrush, not Java2D
+    private boolean fillTool = false;//fill regions instead of drawing lines
+    private final StrokeEngine strokeEngine = new StrokeEngine();
+    private boolean stroking = false;//a stroke is passed to the render thread
+    private boolean strokeEraser = false;//the stroke drawn is by eraser
+    //style of the last stroke, reused while the style is not changed
+    private BasicStroke strokeStyle = null;
+    private Color strokeColor = null;
+    //regions of the last segment, reused while dragging
+    private final Rectangle segmentBounds = new Rectangle();
+    private final Rectangle segmentScreen = new Rectangle();
+    private final FloodFill floodFill = new FloodFill();
+    //viewport: screen = (canvas - view) * zoom
+    private double zoom = 1;
+    private double viewX = 0;
+    private double viewY = 0;
+    private MipPyramid pyramid = null;
+    private DisplayTiles displayTiles = null;//tiles in the display format
+    private FilterPreview filterPreview = null;//shown instead of the canvas
+    private boolean panning = false;
+    private int panX;//last mouse position while panning
+    private int panY;
+    private long blittedPixels = 0;//pixels copied in the last paint
+    private Dimension canvasSize = null;
+    private TileStore tileStore = TileStore.HEAP;
+    private UndoHistory history = null;
+    private long undoBudget = UndoHistory.DEFAULT_BUDGET;
+    private StrokeJournal journal = null;
+    private File autoSaveFile = null;//recovery file
+    private AutoSave autoSave = null;
+    private final javax.swing.Timer autoSaveTimer
+            = new javax.swing.Timer(AutoSave.INTERVAL, e -> checkpoint());
+    private long inputTime = 0;//first input not yet passed to renderThread
+    private final RenderThread renderThread = new RenderThread(
+            new RenderThread.Painter() {
+        @Override
+        public void handleEvent(int[] event) {
+            DrawPanel.this.handleEvent(event);
+        }
+
+        @Override
+        public void update() {
+            strokeEngine.flush();//draw points of the events together
+        }
+
+        @Override
+        public long paintView(Graphics2D g, Rectangle clip,
+                GraphicsConfiguration gc) {
+            return DrawPanel.this.paintView(g, clip, gc);
+        }
+    }, r -> repaint(r));
+    private long inputEvents = 0;
+    private long paints = 0;
+    //overlay of frame rate, paint time and event rate
+    private boolean overlayVisible = false;
+    private final javax.swing.Timer overlayTimer
+            = new javax.swing.Timer(500, e -> updateOverlay());
+    private final Rectangle overlayBounds = new Rectangle();
+    private final Color overlayColor = new Color(0, 0, 0, 160);
+    private String[] overlayLines = {"", "", ""};
+    private Histogram.Snapshot lastPaintTimes = null;
+    private long lastPaints = 0;
+    private long lastEvents = 0;
+    private long lastTime = 0;
 
     /**
      * Creates new form DrawPanel
@@ -37,60 +118,812 @@ public class DrawPanel extends javax.swing.JPanel
      * initialize image, register listener, initialize stroke
      */
     public void initialize() {
+        canvasSize = getPreferredSize();
         initializeImage();
+        renderThread.start();
         addMouseListener(this);
         addMouseMotionListener(this);
+        addMouseWheelListener(this);
         stroke = new BasicStroke();
         eraserStroke = new BasicStroke(20.0f);
     }
 
     @Override
     public void paintComponent(java.awt.Graphics g) {
-        if (image == null) {
+        if (canvas == null) {
             return;
         }
-        //show image
-        g.drawImage(image, 0, 0, image.getWidth(), image.getHeight(), this);
+        long start = System.nanoTime();
+        Metrics.PaintEvent event = new Metrics.PaintEvent();
+        event.begin();
+        Graphics2D g2 = (Graphics2D) g;
+        //show only the part of the view inside the clip
+        Rectangle clip = g.getClipBounds();
+        if (clip == null) {
+            clip = new Rectangle(0, 0, getWidth(), getHeight());
+        }
+        long shownInput = 0;
+        if (filterPreview != null && filterPreview.getImage() != null) {
+            Rectangle r = toScreen(new Rectangle(0, 0, canvas.getWidth(),
+                    canvas.getHeight()));
+            if (!r.contains(clip)) {
+                g.setColor(OUTSIDE);
+                g.fillRect(clip.x, clip.y, clip.width, clip.height);
+            }
+            g2.setRenderingHint(java.awt.RenderingHints.KEY_INTERPOLATION,
+                    java.awt.RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.drawImage(filterPreview.getImage(), r.x, r.y, r.width, r.height,
+                    null);
+            blittedPixels = (long) r.width * r.height;
+        } else {//the view is drawn by the render thread
+            renderThread.setDestination(g2.getDeviceConfiguration(),
+                    getWidth(), getHeight(),
+                    CompatibleImage.getScaleX(g2), CompatibleImage.getScaleY(g2));
+            RenderThread.Frame frame = renderThread.takeFrame();
+            Rectangle r = (frame == null) ? new Rectangle()
+                    : new Rectangle(frame.getWidth(), frame.getHeight());
+            if (!r.contains(clip)) {//until a frame of the size is drawn
+                g.setColor(OUTSIDE);
+                g.fillRect(clip.x, clip.y, clip.width, clip.height);
+            }
+            if (frame != null) {
+                //device pixels of the frame are copied without scaling
+                g.drawImage(frame.getImage(), 0, 0, r.width, r.height, null);
+                shownInput = frame.takeInputTime();
+            }
+            r = r.intersection(clip);
+            blittedPixels = r.isEmpty() ? 0 : (long) r.width * r.height;
+        }
+        event.end();
+        long end = System.nanoTime();
+        Metrics.PAINT.record(end - start);
+        if (shownInput != 0) {
+            Metrics.INPUT_LATENCY.record(end - shownInput);
+        }
+        if (!overlayBounds.contains(clip)) {//not only the overlay
+            paints++;
+        }
+        if (event.shouldCommit()) {
+            event.component = getClass().getName();
+            event.pixels = blittedPixels;
+            event.commit();
+        }
+        if (overlayVisible && overlayBounds.intersects(clip)) {
+            paintOverlay(g);
+        }
+    }
+
+    /**
+     * Draw a region of the view, on the render thread or holding its lock
+     *
+     * @param g destination in screen coordinates
+     * @param clip region in screen coordinates
+     * @param gc configuration of the screen
+     * @return number of pixels copied from tiles
+     */
+    private long paintView(Graphics2D g, Rectangle clip,
+            GraphicsConfiguration gc) {
+        if (canvas == null || !toScreen(new Rectangle(0, 0,
+                canvas.getWidth(), canvas.getHeight())).contains(clip)) {
+            g.setColor(OUTSIDE);
+            g.fillRect(clip.x, clip.y, clip.width, clip.height);
+        }
+        if (canvas == null) {
+            return 0;
+        }
+        int vx = (int) viewX;
+        int vy = (int) viewY;
+        if (zoom == 1 && vx == viewX && vy == viewY) {//copy pixels 1:1
+            java.awt.geom.AffineTransform t = g.getTransform();
+            displayTiles.setDestination(gc, t.getScaleX(), t.getScaleY());
+            g.translate(-vx, -vy);
+            long pixels = displayTiles.paint(g,
+                    clip.x + vx, clip.y + vy,
+                    clip.x + vx + clip.width, clip.y + vy + clip.height);
+            g.translate(vx, vy);
+            return pixels;
+        }
+        //tiles of the pyramid are scaled
+        return pyramid.paint(g, clip, zoom, viewX, viewY);
+    }
+
+    /**
+     * Show or hide the overlay of frames per second, 99th percentile of
+     * paint time and input events per second
+     *
+     * @param visible true for showing
+     */
+    public void setOverlayVisible(boolean visible) {
+        overlayVisible = visible;
+        if (visible) {
+            lastPaintTimes = Metrics.PAINT.snapshot();
+            lastPaints = paints;
+            lastEvents = inputEvents;
+            lastTime = System.nanoTime();
+            overlayTimer.start();
+        } else {
+            overlayTimer.stop();
+        }
+        overlayBounds.setBounds(0, 0, 0, 0);
+        updateOverlay();
+    }
+
+    /**
+     * Compute rates since the last update and repaint the overlay
+     */
+    private void updateOverlay() {
+        long now = System.nanoTime();
+        if (overlayVisible && now > lastTime) {
+            Histogram.Snapshot paintTimes = Metrics.PAINT.snapshot();
+            double seconds = (now - lastTime) * 1e-9;
+            long p99 = paintTimes.minus(lastPaintTimes).getPercentile(99);
+            overlayLines[0] = String.format("%.1f fps",
+                    (paints - lastPaints) / seconds);
+            overlayLines[1] = String.format("p99 paint %.2f ms", p99 * 1e-6);
+            overlayLines[2] = String.format("%.0f events/s",
+                    (inputEvents - lastEvents) / seconds);
+            lastPaintTimes = paintTimes;
+            lastPaints = paints;
+            lastEvents = inputEvents;
+            lastTime = now;
+        }
+        repaint(overlayBounds);
+    }
+
+    private void paintOverlay(java.awt.Graphics g) {
+        FontMetrics fm = g.getFontMetrics();
+        int w = 0;
+        for (String line : overlayLines) {
+            w = Math.max(w, fm.stringWidth(line));
+        }
+        int h = fm.getHeight();
+        overlayBounds.setBounds(4, 4, w + 8, h * overlayLines.length + 8);
+        g.setColor(overlayColor);
+        g.fillRect(overlayBounds.x, overlayBounds.y,
+                overlayBounds.width, overlayBounds.height);
+        g.setColor(Color.WHITE);
+        for (int i = 0; i < overlayLines.length; i++) {
+            g.drawString(overlayLines[i], overlayBounds.x + 4,
+                    overlayBounds.y + 4 + i * h + fm.getAscent());
+        }
+    }
+
+    /**
+     * Number of pixels copied from the image in the last paint
+     *
+     * @return number of pixels
+     */
+    public long getBlittedPixels() {
+        return blittedPixels;
+    }
+
+    /**
+     * Request repaint of the bounds of a segment
+     *
+     * @param x0 x of start point
+     * @param y0 y of start point
+     * @param x1 x of end point
+     * @param y1 y of end point
+     * @param width line width
+     */
+    private void addDirtySegment(int x0, int y0, int x1, int y1, float width) {
+        //square caps may stick out by width/sqrt(2) at the end points
+        int margin = (int) Math.ceil(width) + 1;
+        int x = Math.min(x0, x1) - margin;
+        int y = Math.min(y0, y1) - margin;
+        int w = Math.abs(x1 - x0) + 2 * margin + 1;
+        int h = Math.abs(y1 - y0) + 2 * margin + 1;
+        segmentBounds.setBounds(x, y, w, h);
+        renderThread.damage(toScreen(segmentBounds, segmentScreen));
+    }
+
+    /**
+     * Request a frame redrawing a region of the canvas, holding the lock of
+     * the render thread
+     *
+     * @param r region in canvas coordinates
+     */
+    private void repaintCanvas(Rectangle r) {
+        renderThread.damage(toScreen(r));
+    }
+
+    /**
+     * Wait for the render thread, so that the canvas and the view can be
+     * changed on this thread until renderThread.unlock()
+     */
+    private void lockCanvas() {
+        renderThread.lock();
+        if (inputTime != 0) {//drawn in the next frame
+            renderThread.input(inputTime);
+            inputTime = 0;
+        }
+    }
+
+    /**
+     * Stop the render thread, when the window is closed after
+     * closeAutoSave() and closeJournal()
+     */
+    public void dispose() {
+        overlayTimer.stop();
+        renderThread.dispose();
+    }
+
+    /**
+     * Wait until input events passed to the render thread are drawn on the
+     * canvas
+     */
+    void finishInput() {
+        lockCanvas();
+        renderThread.unlock();
+    }
+
+    /**
+     * Convert region of the canvas to screen
+     *
+     * @param r region in canvas coordinates
+     * @return smallest region of screen including the region
+     */
+    private Rectangle toScreen(Rectangle r) {
+        return toScreen(r, new Rectangle());
+    }
+
+    /**
+     * Convert region of the canvas to screen, without allocation
+     *
+     * @param r region in canvas coordinates
+     * @param screen destination
+     * @return screen set to the smallest region of screen including r
+     */
+    private Rectangle toScreen(Rectangle r, Rectangle screen) {
+        int x0 = (int) Math.floor((r.x - viewX) * zoom);
+        int y0 = (int) Math.floor((r.y - viewY) * zoom);
+        int x1 = (int) Math.ceil((r.x + r.width - viewX) * zoom);
+        int y1 = (int) Math.ceil((r.y + r.height - viewY) * zoom);
+        screen.setBounds(x0, y0, x1 - x0, y1 - y0);
+        return screen;
+    }
+
+    /**
+     * x on the canvas of a point on screen
+     */
+    private int toCanvasX(int x) {
+        return (int) Math.floor(x / zoom + viewX);
+    }
+
+    /**
+     * y on the canvas of a point on screen
+     */
+    private int toCanvasY(int y) {
+        return (int) Math.floor(y / zoom + viewY);
+    }
+
+    /**
+     * Size on screen of a pixel of the canvas
+     *
+     * @return zoom factor
+     */
+    public double getZoom() {
+        return zoom;
+    }
+
+    /**
+     * Zoom keeping a point on screen at the same point of the canvas
+     *
+     * @param newZoom zoom factor, clipped to MIN_ZOOM and MAX_ZOOM
+     * @param x x of the fixed point on screen
+     * @param y y of the fixed point on screen
+     */
+    public void setZoom(double newZoom, int x, int y) {
+        newZoom = Math.max(MIN_ZOOM, Math.min(MAX_ZOOM, newZoom));
+        if (Math.abs(newZoom - 1) < 1e-6) {//back to 1:1 after rounding
+            newZoom = 1;
+        }
+        lockCanvas();
+        try {
+            double cx = x / zoom + viewX;
+            double cy = y / zoom + viewY;
+            zoom = newZoom;
+            setView(cx - x / zoom, cy - y / zoom);
+        } finally {
+            renderThread.unlock();
+        }
+    }
+
+    /**
+     * Move the view
+     *
+     * @param dx distance on screen
+     * @param dy distance on screen
+     */
+    public void pan(int dx, int dy) {
+        lockCanvas();
+        try {
+            setView(viewX - dx / zoom, viewY - dy / zoom);
+        } finally {
+            renderThread.unlock();
+        }
+    }
+
+    /**
+     * Show the canvas 1:1 from the top-left corner
+     */
+    public void resetView() {
+        lockCanvas();
+        try {
+            zoom = 1;
+            setView(0, 0);
+        } finally {
+            renderThread.unlock();
+        }
+    }
+
+    /**
+     * Set the point of the canvas at the top-left corner, keeping the canvas
+     * in view. A canvas narrower than the view is placed at the left.
+     * Called holding the lock of the render thread.
+     */
+    private void setView(double x, double y) {
+        if (canvas != null) {
+            x = Math.max(0, Math.min(x, canvas.getWidth() - getWidth() / zoom));
+            y = Math.max(0,
+                    Math.min(y, canvas.getHeight() - getHeight() / zoom));
+        }
+        if (zoom == 1) {//pixels are copied 1:1 at integer positions
+            x = Math.rint(x);
+            y = Math.rint(y);
+        }
+        viewX = x;
+        viewY = y;
+        renderThread.damageAll();
     }
 
     /**
      * initialize image
      */
     public void initializeImage() {
-        Dimension dimension = getPreferredSize();
-        //create new image
-        image = new BufferedImage(dimension.width, dimension.height,
-                BufferedImage.TYPE_INT_RGB);
-        Graphics2D g = (Graphics2D) image.getGraphics();
-        g.setColor(this.getBackground());//fill with background color
-        g.fillRect(0, 0, dimension.width, dimension.height);
+        lockCanvas();
+        try {
+            if (canvasSize == null) {
+                return;
+            }
+            if (canvas != null
+                    && canvas.getWidth() == canvasSize.width
+                    && canvas.getHeight() == canvasSize.height) {
+                strokeEngine.end();
+                history.clear();//all tiles return to background, undoably
+                if (journal != null) {
+                    try {
+                        journal.writeClear();
+                    } catch (IOException ex) {
+                        journalError(ex);
+                    }
+                }
+                return;
+            }
+            closeJournal();//the journal is for the old canvas
+            setCanvas(new TiledCanvas(canvasSize.width, canvasSize.height,
+                    this.getBackground(), tileStore));
+        } finally {
+            renderThread.unlock();
+        }
+    }
+
+    private void setCanvas(TiledCanvas newCanvas) {
+        if (pyramid != null) {
+            pyramid.dispose();
+            displayTiles.dispose();
+        }
+        canvas = newCanvas;
+        pyramid = new MipPyramid(canvas);
+        displayTiles = new DisplayTiles(canvas);
+        setView(viewX, viewY);
+        canvasSize = new Dimension(canvas.getWidth(), canvas.getHeight());
+        history = new UndoHistory(canvas);
+        history.setBudget(undoBudget);
+        strokeEngine.setTarget(canvas);
+        if (autoSaveFile != null
+                && (autoSave == null || autoSave.getCanvas() != canvas)) {
+            startAutoSave();//the recovery file is for the old canvas
+        }
+    }
+
+    /**
+     * Undo the last stroke or clear
+     */
+    public void undo() {
+        lockCanvas();
+        try {
+            strokeEngine.end();
+            history.commit();
+            Rectangle r = history.undo();
+            if (r != null) {
+                writeRegion(r);
+                repaintCanvas(r);
+            }
+        } finally {
+            renderThread.unlock();
+        }
+    }
+
+    /**
+     * Redo the last undone stroke or clear
+     */
+    public void redo() {
+        lockCanvas();
+        try {
+            strokeEngine.end();
+            history.commit();
+            Rectangle r = history.redo();
+            if (r != null) {
+                writeRegion(r);
+                repaintCanvas(r);
+            }
+        } finally {
+            renderThread.unlock();
+        }
+    }
+
+    private void writeRegion(Rectangle r) {
+        if (journal != null) {
+            try {
+                journal.writeRegion(r);
+            } catch (IOException ex) {
+                journalError(ex);
+            }
+        }
     }
 
     /**
-     * Save image
+     * Save drawing as a journal. Following strokes are appended to the
+     * journal, so that the file is always up to date.
      *
-     * @param file destination file
+     * @param file journal file
      */
-    public void saveImage(File file) {
+    public void saveJournal(File file) {
         if (!fileChooser.FileUtilGUI.checkWritable(file)) {
             return;
         }
-        FileOutputStream out = null;
+        boolean saved = false;
+        lockCanvas();
+        try {
+            strokeEngine.end();
+            history.commit();
+            closeJournal();
+            try {
+                journal = StrokeJournal.create(file, canvas);
+                saved = true;
+            } catch (IOException ex) {
+                journalError(ex);
+            }
+        } finally {
+            renderThread.unlock();
+        }
+        if (saved) {//dialog shown without blocking the render thread
+            fileChooser.FileUtilGUI.showMessage(
+                    "Save drawing in " + file.getName());
+        }
+    }
+
+    /**
+     * Open drawing saved as a journal. Following strokes are appended to the
+     * journal.
+     *
+     * @param file journal file
+     */
+    public void openJournal(File file) {
+        lockCanvas();
+        try {
+            strokeEngine.end();
+            history.commit();
+            closeJournal();
+            try {
+                journal = StrokeJournal.open(file, tileStore);
+                setCanvas(journal.getCanvas());
+                renderThread.damageAll();
+            } catch (IOException ex) {
+                journalError(ex);
+            }
+        } finally {
+            renderThread.unlock();
+        }
+    }
+
+    /**
+     * Write checkpoint and close the journal
+     */
+    public void closeJournal() {
+        lockCanvas();
+        try {
+            if (journal == null) {
+                return;
+            }
+            try {
+                journal.close();
+            } catch (IOException ex) {
+                fileChooser.FileUtilGUI.showError(ex.getMessage());
+            }
+            journal = null;
+        } finally {
+            renderThread.unlock();
+        }
+    }
+
+    /**
+     * Stop journaling after an error
+     */
+    private void journalError(IOException ex) {
+        fileChooser.FileUtilGUI.showError(ex.getMessage());
+        if (journal != null) {
+            try {
+                journal.close();
+            } catch (IOException ex2) {
+                //already reported
+            }
+        }
+        journal = null;
+    }
+
+    /**
+     * Save the canvas into a recovery file periodically, so that the drawing
+     * can be recovered after a crash. The file is overwritten.
+     *
+     * @param file recovery file
+     */
+    public void setAutoSaveFile(File file) {
+        lockCanvas();
+        try {
+            stopAutoSave();
+            autoSaveFile = file;
+            startAutoSave();
+        } finally {
+            renderThread.unlock();
+        }
+    }
+
+    /**
+     * Recover the drawing from a recovery file, instead of
+     * setAutoSaveFile(). The drawing continues to be saved into the file.
+     *
+     * @param file recovery file
+     */
+    public void recover(File file) {
+        lockCanvas();
+        try {
+            strokeEngine.end();
+            history.commit();
+            closeJournal();
+            stopAutoSave();
+            try {
+                autoSave = AutoSave.open(file, tileStore);
+                autoSaveFile = file;
+                setCanvas(autoSave.getCanvas());
+                autoSaveTimer.start();
+                renderThread.damageAll();
+            } catch (IOException ex) {
+                fileChooser.FileUtilGUI.showError(ex.getMessage());
+                setAutoSaveFile(file);
+            }
+        } finally {
+            renderThread.unlock();
+        }
+    }
+
+    private void startAutoSave() {
+        stopAutoSave();
+        try {
+            autoSave = AutoSave.create(autoSaveFile, canvas);
+            autoSaveTimer.start();
+        } catch (IOException ex) {
+            autoSaveError(ex);
+        }
+    }
+
+    private void stopAutoSave() {
+        autoSaveTimer.stop();
+        if (autoSave == null) {
+            return;
+        }
         try {
-            out = new FileOutputStream(file);
-        } catch (FileNotFoundException ex) {
+            autoSave.discard();
+        } catch (IOException ex) {
             fileChooser.FileUtilGUI.showError(ex.getMessage());
         }
-        if (out != null) {
-            String ext = FileIO.getExtention(file.getName());
+        autoSave = null;
+    }
+
+    /**
+     * Start writing tiles changed since the last checkpoint
+     */
+    private void checkpoint() {
+        lockCanvas();
+        try {
+            if (autoSave == null) {
+                return;
+            }
+            try {
+                autoSave.checkpoint();
+            } catch (IOException ex) {
+                autoSaveError(ex);
+            }
+        } finally {
+            renderThread.unlock();
+        }
+    }
+
+    /**
+     * Write tiles changed into the recovery file and close it. The file is
+     * removed if the drawing is saved in a journal.
+     */
+    public void closeAutoSave() {
+        lockCanvas();
+        try {
+            autoSaveTimer.stop();
+            if (autoSave == null) {
+                return;
+            }
+            strokeEngine.end();
+            history.commit();
             try {
-                javax.imageio.ImageIO.write(image, ext, out);
-                String message
-                        = "Save image in " + file.getName();
-                fileChooser.FileUtilGUI.showMessage(message);
+                if (journal != null) {
+                    autoSave.discard();
+                } else {
+                    autoSave.close();
+                }
             } catch (IOException ex) {
                 fileChooser.FileUtilGUI.showError(ex.getMessage());
             }
+            autoSave = null;
+            autoSaveFile = null;
+        } finally {
+            renderThread.unlock();
+        }
+    }
+
+    /**
+     * Stop saving into the recovery file after an error
+     */
+    private void autoSaveError(IOException ex) {
+        fileChooser.FileUtilGUI.showError(ex.getMessage());
+        autoSaveFile = null;
+        stopAutoSave();
+    }
+
+    /**
+     * Show the canvas through filters until endFilters() is called
+     */
+    void beginFilters() {
+        lockCanvas();
+        try {
+            strokeEngine.end();
+            history.commit();
+            endFilters(false);
+            filterPreview = new FilterPreview(canvas, this::repaint);
+        } finally {
+            renderThread.unlock();
+        }
+    }
+
+    /**
+     * Change the filters previewed
+     *
+     * @param pipeline filters
+     * @param full true for computing the full resolution in background,
+     * false for the reduced preview only
+     */
+    void setFilters(FilterPipeline pipeline, boolean full) {
+        if (filterPreview != null) {
+            filterPreview.setPipeline(pipeline, full);
+        }
+    }
+
+    /**
+     * Stop showing the canvas through filters
+     *
+     * @param apply true for writing the filtered pixels into the canvas,
+     * which can be undone
+     */
+    void endFilters(boolean apply) {
+        lockCanvas();
+        try {
+            if (filterPreview == null) {
+                return;
+            }
+            if (apply) {
+                history.begin();
+                boolean changed = filterPreview.writeResult();
+                history.commit();
+                if (changed) {
+                    writeRegion(new Rectangle(0, 0, canvas.getWidth(),
+                            canvas.getHeight()));
+                }
+            }
+            filterPreview.dispose();
+            filterPreview = null;
+            renderThread.damageAll();
+        } finally {
+            renderThread.unlock();
+        }
+    }
+
+    /**
+     * Set the limit of memory used for undo. The oldest strokes are discarded
+     * when the limit is exceeded.
+     *
+     * @param bytes limit in bytes
+     */
+    public void setUndoBudget(long bytes) {
+        lockCanvas();
+        try {
+            undoBudget = bytes;
+            if (history != null) {
+                history.setBudget(bytes);
+            }
+        } finally {
+            renderThread.unlock();
+        }
+    }
+
+    /**
+     * Set the size of canvas. The canvas is initialized.
+     *
+     * @param width width of canvas
+     * @param height height of canvas
+     */
+    public void setCanvasSize(int width, int height) {
+        lockCanvas();
+        try {
+            canvasSize = new Dimension(width, height);
+            initializeImage();
+            renderThread.damageAll();
+        } finally {
+            renderThread.unlock();
+        }
+    }
+
+    /**
+     * Keep pixels in a memory-mapped file instead of Java heap. The canvas is
+     * initialized.
+     *
+     * @param file file for pixels, or null for Java heap
+     * @throws IOException
+     */
+    public void setStorageFile(File file) throws IOException {
+        lockCanvas();
+        try {
+            TileStore newStore = TileStore.HEAP;
+            if (file != null) {
+                newStore = new MappedTileStore(file);
+            }
+            strokeEngine.end();
+            TileStore oldStore = tileStore;
+            tileStore = newStore;
+            canvas = null;
+            initializeImage();
+            oldStore.close();
+            renderThread.damageAll();
+        } finally {
+            renderThread.unlock();
+        }
+    }
+
+    /**
+     * Save image in background. Drawing can continue while saving, as the
+     * image is saved from a snapshot of the canvas.
+     *
+     * @param file destination file
+     */
+    public void saveImage(File file) {
+        if (!fileChooser.FileUtilGUI.checkWritable(file)) {
+            return;
+        }
+        lockCanvas();
+        try {
+            strokeEngine.flush();
+            CanvasSnapshot snapshot = canvas.snapshot();
+            fileChooser.ImageSaver.save(this, snapshot.asImage(), file,
+                    snapshot::release, "Save image in " + file.getName());
+        } finally {
+            renderThread.unlock();
         }
     }
 
@@ -110,6 +943,57 @@ public class DrawPanel extends javax.swing.JPanel
         this.eraser = eraser;
     }
 
+    /**
+     * Select the brush of the next strokes
+     *
+     * @param raster true for round strokes written directly into tiles,
+     * false for Java2D with BasicStroke
+     */
+    public void setRasterBrush(boolean raster) {
+        rasterBrush = raster;
+    }
+
+    /**
+     * Select the tool of the next clicks
+     *
+     * @param fill true for filling regions, false for drawing lines
+     */
+    public void setFillTool(boolean fill) {
+        fillTool = fill;
+    }
+
+    /**
+     * Fill the region of the color at a point with the current color, or
+     * with background for eraser
+     *
+     * @param x x of the point on the canvas
+     * @param y y of the point on the canvas
+     */
+    private void fill(int x, int y) {
+        lockCanvas();
+        try {
+            Color color = eraser ? this.getBackground() : this.getForeground();
+            history.begin();
+            long start = System.nanoTime();
+            Rectangle r = floodFill.fill(canvas, x, y, color);
+            Metrics.FILL.record(System.nanoTime() - start);
+            history.commit();
+            if (r == null) {
+                return;
+            }
+            if (journal != null) {
+                try {
+                    journal.writeFill(x, y, color);
+                } catch (IOException ex) {
+                    journalError(ex);
+                }
+            }
+            repaintCanvas(r);
+        } finally {
+            renderThread.unlock();
+        }
+    }
+
     /**
      * * handling mouse events ***********************
      */
@@ -127,47 +1011,169 @@ public class DrawPanel extends javax.swing.JPanel
 
     @Override
     public void mousePressed(MouseEvent e) {
-        point = new Point(e.getPoint());
+        countInput();
+        if (javax.swing.SwingUtilities.isRightMouseButton(e)
+                || javax.swing.SwingUtilities.isMiddleMouseButton(e)) {
+            panning = true;
+            panX = e.getX();
+            panY = e.getY();
+            return;
+        }
+        int x = toCanvasX(e.getX());
+        int y = toCanvasY(e.getY());
+        if (fillTool) {
+            fill(x, y);
+            return;
+        }
+        stroking = true;
+        int flags = rasterBrush ? RASTER : 0;
+        if (eraser) {//eraser case
+            post(PRESS | flags | ERASER, x, y, this.getBackground().getRGB(),
+                    Float.floatToIntBits(eraserStroke.getLineWidth()));
+        } else {
+            post(PRESS | flags, x, y, this.getForeground().getRGB(),
+                    Float.floatToIntBits(stroke.getLineWidth()));
+        }
     }
 
     @Override
     public void mouseReleased(MouseEvent e) {
-        if (point != null) {
-            Graphics2D g = (Graphics2D) image.getGraphics();
-            if (eraser) {//eraser case
-                g.setColor(this.getBackground());
-                g.setStroke(eraserStroke);
-            } else {
-                g.setColor(this.getForeground());
-                g.setStroke(stroke);
-            }
-            g.drawLine(point.x, point.y, e.getX(), e.getY());
-            point = null;
+        countInput();
+        if (panning) {
+            panning = false;
+            return;
+        }
+        if (stroking) {
+            post(RELEASE, toCanvasX(e.getX()), toCanvasY(e.getY()), 0, 0);
+            stroking = false;
         }
-        repaint();
     }
 
     @Override
     public void mouseDragged(MouseEvent e) {
-        if (point != null) {
-            Graphics2D g = (Graphics2D) image.getGraphics();
-            if (eraser) {//eraser case
-                g.setColor(this.getBackground());
-                g.setStroke(eraserStroke);
-            } else {
-                g.setColor(this.getForeground());
-                g.setStroke(stroke);
+        countInput();
+        if (panning) {
+            pan(e.getX() - panX, e.getY() - panY);
+            panX = e.getX();
+            panY = e.getY();
+        } else if (stroking) {
+            post(DRAG, toCanvasX(e.getX()), toCanvasY(e.getY()), 0, 0);
+        }
+    }
+
+    /**
+     * Pass an input event to the render thread
+     */
+    private void post(int type, int x, int y, int value, int aux) {
+        renderThread.post(type, x, y, value, aux, inputTime);
+        inputTime = 0;
+    }
+
+    /**
+     * Handle an input event on the render thread, or on the holder of its
+     * lock
+     *
+     * @param event values of InputRing.FIELDS
+     */
+    private void handleEvent(int[] event) {
+        int x = event[1];
+        int y = event[2];
+        switch (event[0] & EVENT_TYPE) {
+            case PRESS -> {
+                history.begin();
+                strokeEraser = (event[0] & ERASER) != 0;
+                float width = Float.intBitsToFloat(event[4]);
+                if (strokeStyle == null || strokeStyle.getLineWidth() != width) {
+                    strokeStyle = new BasicStroke(width);
+                }
+                if (strokeColor == null || strokeColor.getRGB() != event[3]) {
+                    strokeColor = new Color(event[3], true);
+                }
+                strokeEngine.begin(x, y, strokeColor, strokeStyle,
+                        (event[0] & RASTER) != 0);
+            }
+            case DRAG -> {
+                if (strokeEngine.isActive()) {
+                    addPoint(x, y);
+                }
+            }
+            case RELEASE -> {
+                if (strokeEngine.isActive()) {
+                    addPoint(x, y);
+                    strokeEngine.end();
+                    history.commit();
+                    writeStroke();
+                }
+            }
+            default -> {
             }
-            g.drawLine(point.x, point.y, e.getX(), e.getY());
-            point = new Point(e.getPoint());
         }
-        repaint();
+    }
+
+    /**
+     * Write the stroke just finished into the journal
+     */
+    private void writeStroke() {
+        if (journal == null) {
+            return;
+        }
+        try {
+            journal.writeStroke(strokeEngine.getXs(),
+                    strokeEngine.getYs(), strokeEngine.getNumPoints(),
+                    strokeEngine.getColor(),
+                    strokeEngine.getLineWidth(), strokeEraser,
+                    strokeEngine.isRaster());
+        } catch (IOException ex) {
+            if (javax.swing.SwingUtilities.isEventDispatchThread()) {
+                journalError(ex);
+                return;
+            }
+            javax.swing.SwingUtilities.invokeLater(() -> {
+                lockCanvas();
+                try {
+                    journalError(ex);
+                } finally {
+                    renderThread.unlock();
+                }
+            });
+        }
+    }
+
+    /**
+     * Append a point to the current stroke. The point is drawn in the next
+     * frame.
+     *
+     * @param x x of the point on the canvas
+     * @param y y of the point on the canvas
+     */
+    private void addPoint(int x, int y) {
+        addDirtySegment(strokeEngine.getLastX(), strokeEngine.getLastY(),
+                x, y, strokeEngine.getLineWidth());
+        strokeEngine.add(x, y);
     }
 
     @Override
     public void mouseMoved(MouseEvent e) {
     }
 
+    @Override
+    public void mouseWheelMoved(MouseWheelEvent e) {
+        countInput();
+        setZoom(zoom * Math.pow(ZOOM_STEP, -e.getPreciseWheelRotation()),
+                e.getX(), e.getY());
+    }
+
+    /**
+     * Count an input event and keep the time of the first one not yet
+     * painted for the latency from input to paint
+     */
+    private void countInput() {
+        inputEvents++;
+        if (inputTime == 0) {
+            inputTime = System.nanoTime();
+        }
+    }
+
     /**
      * This method is called from within the constructor to initialize the form.
      * WARNING: Do NOT modify this code. The content of this method is always
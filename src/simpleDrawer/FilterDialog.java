@@ -0,0 +1,134 @@
+package simpleDrawer;
+
+import java.awt.BorderLayout;
+import java.awt.Frame;
+import java.awt.GridBagConstraints;
+import java.awt.GridBagLayout;
+import java.util.ArrayList;
+import java.util.List;
+import javax.swing.JButton;
+import javax.swing.JCheckBox;
+import javax.swing.JLabel;
+import javax.swing.JPanel;
+import javax.swing.JSlider;
+
+/**
+ * Dialog selecting filters applied to the canvas of DrawPanel
+ *
+ * The canvas is previewed through the selected filters while the dialog is
+ * shown: at reduced resolution while a slider is dragged, and at full
+ * resolution when it is released. OK writes the filtered pixels into the
+ * canvas, which can be undone.
+ *
+ * @author tadaki
+ */
+class FilterDialog extends javax.swing.JDialog {
+
+    private final DrawPanel drawPanel;
+    private final JCheckBox colorAdjust = new JCheckBox("Color adjust");
+    private final JSlider brightness = new JSlider(-100, 100, 0);
+    private final JSlider contrast = new JSlider(-100, 100, 0);//percent
+    private final JSlider saturation = new JSlider(0, 200, 100);//percent
+    private final JCheckBox boxBlur = new JCheckBox("Box blur");
+    private final JSlider boxRadius = new JSlider(1, 20, 2);
+    private final JCheckBox gaussianBlur = new JCheckBox("Gaussian blur");
+    private final JSlider gaussianSigma = new JSlider(1, 100, 20);//0.1 pixel
+    private final JCheckBox sharpen = new JCheckBox("Sharpen");
+    private final JSlider sharpenAmount = new JSlider(0, 200, 50);//percent
+    private final JCheckBox threshold = new JCheckBox("Threshold");
+    private final JSlider thresholdLevel = new JSlider(0, 255, 128);
+    private final JPanel controls = new JPanel(new GridBagLayout());
+    private int rows = 0;
+
+    /**
+     * Create modal dialog
+     *
+     * @param owner frame of the panel
+     * @param drawPanel panel whose canvas is filtered
+     */
+    FilterDialog(Frame owner, DrawPanel drawPanel) {
+        super(owner, "Filters", true);
+        this.drawPanel = drawPanel;
+        setDefaultCloseOperation(DISPOSE_ON_CLOSE);
+        addRow(colorAdjust, "brightness", brightness);
+        addRow(null, "contrast", contrast);
+        addRow(null, "saturation", saturation);
+        addRow(boxBlur, "radius", boxRadius);
+        addRow(gaussianBlur, "sigma / 10", gaussianSigma);
+        addRow(sharpen, "amount %", sharpenAmount);
+        addRow(threshold, "level", thresholdLevel);
+        JButton ok = new JButton("OK");
+        ok.addActionListener(e -> close(true));
+        JButton cancel = new JButton("CANCEL");
+        cancel.addActionListener(e -> close(false));
+        JPanel buttons = new JPanel();
+        buttons.add(ok);
+        buttons.add(cancel);
+        getContentPane().add(controls, BorderLayout.CENTER);
+        getContentPane().add(buttons, BorderLayout.SOUTH);
+        addWindowListener(new java.awt.event.WindowAdapter() {
+            @Override
+            public void windowClosing(java.awt.event.WindowEvent e) {
+                close(false);
+            }
+        });
+        pack();
+        setLocationRelativeTo(owner);
+        drawPanel.beginFilters();
+    }
+
+    private void addRow(JCheckBox check, String label, JSlider slider) {
+        GridBagConstraints c = new GridBagConstraints();
+        c.gridy = rows++;
+        c.anchor = GridBagConstraints.WEST;
+        if (check != null) {
+            check.addActionListener(e -> update(true));
+            c.gridx = 0;
+            controls.add(check, c);
+        }
+        c.gridx = 1;
+        controls.add(new JLabel(label), c);
+        c.gridx = 2;
+        controls.add(slider, c);
+        //full resolution when the slider is released
+        slider.addChangeListener(e -> update(!slider.getValueIsAdjusting()));
+    }
+
+    /**
+     * Filters selected, in the order of application
+     *
+     * @return pipeline
+     */
+    FilterPipeline createPipeline() {
+        List<ImageFilter> filters = new ArrayList<>();
+        if (colorAdjust.isSelected()) {
+            filters.add(ImageFilters.colorAdjust(
+                    brightness.getValue() * 255 / 100,
+                    1 + contrast.getValue() / 100.,
+                    saturation.getValue() / 100.));
+        }
+        if (boxBlur.isSelected()) {
+            filters.add(ImageFilters.boxBlur(boxRadius.getValue()));
+        }
+        if (gaussianBlur.isSelected()) {
+            filters.add(ImageFilters.gaussianBlur(
+                    gaussianSigma.getValue() / 10.));
+        }
+        if (sharpen.isSelected()) {
+            filters.add(ImageFilters.sharpen(sharpenAmount.getValue() / 100.));
+        }
+        if (threshold.isSelected()) {
+            filters.add(ImageFilters.threshold(thresholdLevel.getValue()));
+        }
+        return new FilterPipeline(filters);
+    }
+
+    private void update(boolean full) {
+        drawPanel.setFilters(createPipeline(), full);
+    }
+
+    private void close(boolean apply) {
+        drawPanel.endFilters(apply);
+        dispose();
+    }
+}
@@ -0,0 +1,180 @@
+package simpleDrawer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Sequence of filters applied to an image
+ *
+ * Each filter is applied to the whole image before the next one, with the
+ * image split into bands of rows filtered in parallel on a fork-join pool.
+ * Results alternate between two buffers, and work areas of filters are kept
+ * per thread and reused across bands, filters and images.
+ *
+ * @author tadaki
+ */
+class FilterPipeline {
+
+    static final int BAND_ROWS = 64;
+
+    /**
+     * Work areas of a thread, grown as needed
+     */
+    static class Scratch {
+
+        private int[] rows = new int[0];
+        private int[] sums = new int[0];
+
+        /**
+         * Buffer for rows filtered in one direction
+         *
+         * @param size number of pixels
+         * @return buffer of at least size, with undefined content
+         */
+        int[] getRows(int size) {
+            if (rows.length < size) {
+                rows = new int[size];
+            }
+            return rows;
+        }
+
+        /**
+         * Buffer for sums of channels
+         *
+         * @param size number of elements
+         * @return buffer of at least size, filled with 0
+         */
+        int[] getSums(int size) {
+            if (sums.length < size) {
+                sums = new int[size];
+            } else {
+                Arrays.fill(sums, 0, size, 0);
+            }
+            return sums;
+        }
+    }
+
+    private static final ThreadLocal<Scratch> scratches
+            = ThreadLocal.withInitial(() -> new Scratch());
+    private final ForkJoinPool pool;
+    private final List<ImageFilter> filters;
+
+    /**
+     * Create pipeline using the common pool
+     *
+     * @param filters filters in the order of application
+     */
+    FilterPipeline(List<ImageFilter> filters) {
+        this(filters, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Create pipeline
+     *
+     * @param filters filters in the order of application
+     * @param pool pool of threads for bands
+     */
+    FilterPipeline(List<ImageFilter> filters, ForkJoinPool pool) {
+        this.filters = Collections.unmodifiableList(new ArrayList<>(filters));
+        this.pool = pool;
+    }
+
+    List<ImageFilter> getFilters() {
+        return filters;
+    }
+
+    boolean isEmpty() {
+        return filters.isEmpty();
+    }
+
+    /**
+     * The pipeline for an image scaled by a factor
+     *
+     * @param scale scale of the image
+     * @return pipeline of scaled filters sharing the pool
+     */
+    FilterPipeline scaled(double scale) {
+        List<ImageFilter> list = new ArrayList<>();
+        for (ImageFilter filter : filters) {
+            list.add(filter.scaled(scale));
+        }
+        return new FilterPipeline(list, pool);
+    }
+
+    /**
+     * Apply filters
+     *
+     * @param src source pixels, not modified
+     * @param width width of the image
+     * @param height height of the image
+     * @return filtered pixels, src itself if there are no filters
+     */
+    int[] apply(int[] src, int width, int height) {
+        return apply(src, width, height, () -> false);
+    }
+
+    /**
+     * Apply filters, stopping when cancelled
+     *
+     * @param src source pixels, not modified
+     * @param width width of the image
+     * @param height height of the image
+     * @param cancelled tested before each band
+     * @return filtered pixels, src itself if there are no filters, or null
+     * if cancelled
+     */
+    int[] apply(int[] src, int width, int height, BooleanSupplier cancelled) {
+        int[] in = src;
+        int[] out = null;
+        int[] spare = null;
+        for (ImageFilter filter : filters) {
+            out = (spare != null) ? spare : new int[width * height];
+            int[] source = in;
+            int[] destination = out;
+            List<Future<?>> futures = new ArrayList<>();
+            for (int y = 0; y < height; y += BAND_ROWS) {
+                int y0 = y;
+                int y1 = Math.min(height, y + BAND_ROWS);
+                futures.add(pool.submit(() -> {
+                    if (!cancelled.getAsBoolean()) {
+                        filter.filter(source, destination, width, height,
+                                y0, y1, scratches.get());
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                get(future);
+            }
+            if (cancelled.getAsBoolean()) {
+                return null;
+            }
+            spare = (in == src) ? null : in;//src is kept
+            in = out;
+        }
+        return in;
+    }
+
+    private static void get(Future<?> future) {
+        try {
+            future.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Filtering interrupted");
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+}
@@ -0,0 +1,224 @@
+package simpleDrawer;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Preview of filters applied to the canvas
+ *
+ * The pixels of the canvas are copied when the preview is created, together
+ * with a copy reduced to PREVIEW_SIZE. Whenever the filters change, the
+ * reduced copy is filtered at once for the preview, and the full copy is
+ * filtered in the background; the result replaces the preview when it is
+ * finished, unless the filters have changed again. Methods are called on
+ * the event dispatch thread.
+ *
+ * @author tadaki
+ */
+class FilterPreview {
+
+    static final int PREVIEW_SIZE = 512;//longer side of reduced copy
+    private final TiledCanvas canvas;
+    private final int width;
+    private final int height;
+    private final int[] source;
+    private final double scale;//of the reduced copy
+    private final int previewWidth;
+    private final int previewHeight;
+    private final int[] previewSource;
+    private final Runnable listener;
+    private final ExecutorService background
+            = Executors.newSingleThreadExecutor(r -> {
+                Thread thread = new Thread(r, "FilterPreview");
+                thread.setDaemon(true);
+                return thread;
+            });
+    private FilterPipeline pipeline = null;
+    private volatile int generation = 0;//incremented when filters change
+    private Future<?> job = null;
+    private int[] result = null;//of the current filters at full resolution
+    private BufferedImage image = null;
+
+    /**
+     * Copy pixels of the canvas
+     *
+     * @param canvas canvas
+     * @param listener called when the image of the preview changes
+     */
+    FilterPreview(TiledCanvas canvas, Runnable listener) {
+        this.canvas = canvas;
+        this.listener = listener;
+        width = canvas.getWidth();
+        height = canvas.getHeight();
+        source = readCanvas(canvas);
+        scale = Math.min(1., (double) PREVIEW_SIZE / Math.max(width, height));
+        previewWidth = Math.max(1, (int) Math.round(width * scale));
+        previewHeight = Math.max(1, (int) Math.round(height * scale));
+        if (scale < 1) {
+            BufferedImage reduced = new BufferedImage(previewWidth,
+                    previewHeight, BufferedImage.TYPE_INT_RGB);
+            Graphics2D g = reduced.createGraphics();
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+                    RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.drawImage(toImage(source, width, height),
+                    0, 0, previewWidth, previewHeight, null);
+            g.dispose();
+            previewSource = (int[]) reduced.getRaster().getDataElements(
+                    0, 0, previewWidth, previewHeight, null);
+        } else {
+            previewSource = source;
+        }
+    }
+
+    /**
+     * Copy pixels of all tiles of a canvas
+     */
+    private static int[] readCanvas(TiledCanvas canvas) {
+        int w = canvas.getWidth();
+        int[] pixels = new int[w * canvas.getHeight()];
+        int[] tile = new int[TiledCanvas.TILE_SIZE * TiledCanvas.TILE_SIZE];
+        int rgb = canvas.getBackground().getRGB() & 0xffffff;
+        for (int i = 0; i < canvas.getNumTiles(); i++) {
+            java.awt.Rectangle r = canvas.getTileBounds(i)
+                    .intersection(new java.awt.Rectangle(
+                            0, 0, w, canvas.getHeight()));
+            int[] p = canvas.readPixels(i, tile);
+            for (int y = r.y; y < r.y + r.height; y++) {
+                int o = y * w + r.x;
+                if (p == null) {
+                    java.util.Arrays.fill(pixels, o, o + r.width, rgb);
+                } else {
+                    System.arraycopy(p, (y - r.y) * TiledCanvas.TILE_SIZE,
+                            pixels, o, r.width);
+                }
+            }
+        }
+        return pixels;
+    }
+
+    private static BufferedImage toImage(int[] pixels, int w, int h) {
+        BufferedImage image = new BufferedImage(w, h,
+                BufferedImage.TYPE_INT_RGB);
+        image.getRaster().setDataElements(0, 0, w, h, pixels);
+        return image;
+    }
+
+    /**
+     * Image shown instead of the canvas, scaled to the size of the canvas
+     *
+     * @return reduced or full image, or null before filters are set
+     */
+    BufferedImage getImage() {
+        return image;
+    }
+
+    /**
+     * Set filters. The reduced copy is filtered now.
+     *
+     * @param newPipeline filters at the resolution of the canvas
+     * @param full true for starting the full resolution in background,
+     * false while the filters are still being adjusted
+     */
+    void setPipeline(FilterPipeline newPipeline, boolean full) {
+        int current = ++generation;
+        if (job != null) {
+            job.cancel(false);
+            job = null;
+        }
+        pipeline = newPipeline;
+        result = null;
+        if (newPipeline.isEmpty()) {
+            result = source;
+            image = toImage(source, width, height);
+            listener.run();
+            return;
+        }
+        int[] preview = newPipeline.scaled(scale)
+                .apply(previewSource, previewWidth, previewHeight);
+        image = toImage(preview, previewWidth, previewHeight);
+        listener.run();
+        if (full) {
+            job = background.submit(() -> {
+                int[] pixels = newPipeline.apply(source, width, height,
+                        () -> generation != current);
+                if (pixels == null) {
+                    return;
+                }
+                BufferedImage fullImage = toImage(pixels, width, height);
+                javax.swing.SwingUtilities.invokeLater(() -> {
+                    if (generation == current) {
+                        result = pixels;
+                        image = fullImage;
+                        listener.run();
+                    }
+                });
+            });
+        }
+    }
+
+    /**
+     * Filtered pixels at full resolution, computed now if the background
+     * has not finished
+     *
+     * @return pixels of the canvas filtered, or null before filters are set
+     */
+    int[] getResult() {
+        if (result == null && pipeline != null) {
+            generation++;//stop the background
+            result = pipeline.apply(source, width, height);
+        }
+        return result;
+    }
+
+    /**
+     * Write filtered pixels into the canvas. Tiles without change are not
+     * written.
+     *
+     * @return true if any tile is changed
+     */
+    boolean writeResult() {
+        int[] pixels = getResult();
+        if (pixels == null || pixels == source) {
+            return false;
+        }
+        int size = TiledCanvas.TILE_SIZE;
+        int[] tile = new int[size * size];
+        int rgb = canvas.getBackground().getRGB() & 0xffffff;
+        boolean changed = false;
+        for (int i = 0; i < canvas.getNumTiles(); i++) {
+            java.awt.Rectangle r = canvas.getTileBounds(i)
+                    .intersection(new java.awt.Rectangle(0, 0, width, height));
+            boolean tileChanged = false;
+            for (int y = r.y; y < r.y + r.height && !tileChanged; y++) {
+                int o = y * width + r.x;
+                tileChanged = !java.util.Arrays.equals(pixels, o, o + r.width,
+                        source, o, o + r.width);
+            }
+            if (!tileChanged) {
+                continue;
+            }
+            if (canvas.readPixels(i, tile) == null) {
+                java.util.Arrays.fill(tile, rgb);
+            }
+            for (int y = r.y; y < r.y + r.height; y++) {
+                System.arraycopy(pixels, y * width + r.x,
+                        tile, (y - r.y) * size, r.width);
+            }
+            canvas.writePixels(i, tile);
+            changed = true;
+        }
+        return changed;
+    }
+
+    /**
+     * Stop the background
+     */
+    void dispose() {
+        generation++;
+        background.shutdownNow();
+    }
+}
@@ -0,0 +1,650 @@
+package simpleDrawer;
+
+import java.awt.Color;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferInt;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Flood fill of the region of a color connected to a point
+ *
+ * Pixels are 4-connected. A region is found by a span stack: a seed is
+ * extended to the left and the right as far as the color continues, and one
+ * seed is pushed for each run of the color in the rows above and below the
+ * span. Spans are collected first and written afterwards, so that listeners
+ * of the canvas are notified once per tile.
+ *
+ * When a region exceeds an eighth of the canvas, the span stack is
+ * abandoned and the canvas is labelled in parallel by bands, each a row of
+ * tiles, as reading the whole canvas is then cheaper than following spans. Runs of the color in a band are joined with overlapping runs of the
+ * previous row by union-find; runs at the seams of bands are joined
+ * afterwards, and the runs of the component containing the point are
+ * written in parallel, each band writing its own tiles.
+ *
+ * @author tadaki
+ */
+class FloodFill {
+
+    //least pixels found by the span stack before switching to bands
+    static final int SEQUENTIAL_LIMIT = 1 << 14;
+    private static final int TILE_SIZE = TiledCanvas.TILE_SIZE;
+    private static final int RGB = 0xffffff;
+
+    /**
+     * Runs of the color to be replaced in a band of rows
+     */
+    private static class Band {
+
+        final int top;
+        final int bottom;//exclusive
+        final int[] rowStart;//index of the first run of each row, and the end
+        int[] left = new int[64];
+        int[] right = new int[64];//inclusive
+        int[] parent = new int[64];//in this band until joined at seams
+        int runs = 0;
+        int offset;//index of the first run among all bands
+
+        Band(int top, int bottom) {
+            this.top = top;
+            this.bottom = bottom;
+            rowStart = new int[bottom - top + 1];
+        }
+
+        void addRun(int l, int r) {
+            if (runs == left.length) {
+                left = Arrays.copyOf(left, 2 * runs);
+                right = Arrays.copyOf(right, 2 * runs);
+                parent = Arrays.copyOf(parent, 2 * runs);
+            }
+            left[runs] = l;
+            right[runs] = r;
+            parent[runs] = runs;
+            runs++;
+        }
+    }
+
+    private final ForkJoinPool pool;
+    //state during a fill
+    private TiledCanvas canvas;
+    private int width;
+    private int height;
+    private int numTilesX;
+    private int background;
+    private int target;//color to be replaced
+    private int[][] sources;//pixels of tiles read, by index
+    private boolean[] read;//whether sources of tiles are set
+    private long[][] visited;//pixels in spans found, by index of tile
+    private BufferedImage[] tiles;//tiles to be written, by index
+    private int[][] tilePixels;//int[] of tiles to be written, if available
+
+    /**
+     * Create flood fill using the common pool
+     */
+    FloodFill() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Create flood fill
+     *
+     * @param pool pool of threads for filling large regions
+     */
+    FloodFill(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Fill the region of the color at a point
+     *
+     * @param canvas canvas
+     * @param x x of the point
+     * @param y y of the point
+     * @param color new color of the region
+     * @return bounds of the filled pixels, or null if nothing is changed
+     */
+    Rectangle fill(TiledCanvas canvas, int x, int y, Color color) {
+        if (x < 0 || y < 0 || x >= canvas.getWidth()
+                || y >= canvas.getHeight()) {
+            return null;
+        }
+        this.canvas = canvas;
+        width = canvas.getWidth();
+        height = canvas.getHeight();
+        numTilesX = canvas.getNumTilesX();
+        background = canvas.getBackground().getRGB() & RGB;
+        int n = canvas.getNumTiles();
+        sources = new int[n][];
+        read = new boolean[n];
+        visited = new long[n][];
+        tiles = new BufferedImage[n];
+        tilePixels = new int[n][];
+        try {
+            target = pixel(x, y);
+            int rgb = color.getRGB() & RGB;
+            if (target == rgb) {
+                return null;
+            }
+            int[] spans = findSpans(x, y);
+            if (spans != null) {
+                return writeSpans(spans, rgb);
+            }
+            visited = null;
+            return fillBands(x, y, rgb);
+        } finally {
+            this.canvas = null;
+            sources = null;
+            visited = null;
+            tiles = null;
+            tilePixels = null;
+        }
+    }
+
+    /**
+     * Pixels of a tile for reading
+     *
+     * @param index index of tile
+     * @return pixels, or null if the tile is filled with background
+     */
+    private int[] source(int index) {
+        if (!read[index]) {
+            BufferedImage tile = canvas.getTile(index);
+            if (tile != null) {
+                DataBuffer buffer = tile.getRaster().getDataBuffer();
+                if (buffer instanceof DataBufferInt) {
+                    sources[index] = ((DataBufferInt) buffer).getData();
+                } else {//mapped tiles are copied
+                    sources[index] = canvas.readPixels(index, null);
+                }
+            }
+            read[index] = true;
+        }
+        return sources[index];
+    }
+
+    private int pixel(int x, int y) {
+        int[] p = source((y / TILE_SIZE) * numTilesX + x / TILE_SIZE);
+        if (p == null) {
+            return background;
+        }
+        return p[(y % TILE_SIZE) * TILE_SIZE + x % TILE_SIZE] & RGB;
+    }
+
+    /**
+     * Whether a pixel has the color to be replaced and is not in a span
+     */
+    private boolean isFree(int x, int y) {
+        int index = (y / TILE_SIZE) * numTilesX + x / TILE_SIZE;
+        return isFree(source(index), visited[index],
+                (y % TILE_SIZE) * TILE_SIZE + x % TILE_SIZE);
+    }
+
+    /**
+     * First pixel from x0 to the right whose freedom differs
+     *
+     * @param y row
+     * @param x0 first pixel
+     * @param x1 last pixel
+     * @param free freedom to be skipped
+     * @return x of the pixel, or x1 + 1 if none
+     */
+    private int skipRight(int y, int x0, int x1, boolean free) {
+        int ty = y / TILE_SIZE;
+        int row = (y % TILE_SIZE) * TILE_SIZE;
+        int x = x0;
+        while (x <= x1) {
+            int tx = x / TILE_SIZE;
+            int index = ty * numTilesX + tx;
+            int[] p = source(index);
+            long[] v = visited[index];
+            int end = Math.min(x1, tx * TILE_SIZE + TILE_SIZE - 1);
+            for (int bit = row + x - tx * TILE_SIZE; x <= end; x++, bit++) {
+                if (isFree(p, v, bit) != free) {
+                    return x;
+                }
+            }
+        }
+        return x;
+    }
+
+    /**
+     * First pixel from x0 to the left which is not free
+     *
+     * @param y row
+     * @param x0 first pixel
+     * @return x of the pixel, or -1 if none
+     */
+    private int skipLeft(int y, int x0) {
+        int ty = y / TILE_SIZE;
+        int row = (y % TILE_SIZE) * TILE_SIZE;
+        int x = x0;
+        while (x >= 0) {
+            int tx = x / TILE_SIZE;
+            int index = ty * numTilesX + tx;
+            int[] p = source(index);
+            long[] v = visited[index];
+            int end = tx * TILE_SIZE;
+            for (int bit = row + x - tx * TILE_SIZE; x >= end; x--, bit--) {
+                if (!isFree(p, v, bit)) {
+                    return x;
+                }
+            }
+        }
+        return x;
+    }
+
+    private boolean isFree(int[] p, long[] v, int bit) {
+        int c = (p == null) ? background : p[bit] & RGB;
+        return c == target && (v == null || (v[bit >>> 6] & (1L << bit)) == 0);
+    }
+
+    private void visit(int y, int xl, int xr) {
+        int ty = y / TILE_SIZE;
+        int row = (y % TILE_SIZE) * TILE_SIZE;
+        for (int tx = xl / TILE_SIZE; tx <= xr / TILE_SIZE; tx++) {
+            int index = ty * numTilesX + tx;
+            if (visited[index] == null) {
+                visited[index] = new long[TILE_SIZE * TILE_SIZE / 64];
+            }
+            long[] v = visited[index];
+            int b0 = row + Math.max(xl, tx * TILE_SIZE) - tx * TILE_SIZE;
+            int b1 = row + Math.min(xr, tx * TILE_SIZE + TILE_SIZE - 1)
+                    - tx * TILE_SIZE;
+            for (int w = b0 >>> 6; w <= b1 >>> 6; w++) {//bits b0 to b1
+                long mask = -1L;
+                if (w == b0 >>> 6) {
+                    mask &= -1L << b0;
+                }
+                if (w == b1 >>> 6) {
+                    mask &= -1L >>> (63 - (b1 & 63));
+                }
+                v[w] |= mask;
+            }
+        }
+    }
+
+    /**
+     * Find the region by the span stack
+     *
+     * @return spans as triples of y, left and right, terminated by -1, or
+     * null if the region is too large
+     */
+    private int[] findSpans(int x, int y) {
+        int[] stack = new int[64];
+        int top = 0;
+        int[] spans = new int[64];
+        int numSpans = 0;
+        long filled = 0;
+        long limit = Math.max(SEQUENTIAL_LIMIT, (long) width * height / 8);
+        stack[top++] = x;
+        stack[top++] = y;
+        while (top > 0) {
+            int sy = stack[--top];
+            int sx = stack[--top];
+            if (!isFree(sx, sy)) {//filled from another seed
+                continue;
+            }
+            int xl = skipLeft(sy, sx - 1) + 1;
+            int xr = skipRight(sy, sx + 1, width - 1, true) - 1;
+            visit(sy, xl, xr);
+            filled += xr - xl + 1;
+            if (filled > limit) {
+                return null;
+            }
+            if (numSpans + 4 > spans.length) {
+                spans = Arrays.copyOf(spans, 2 * spans.length);
+            }
+            spans[numSpans++] = sy;
+            spans[numSpans++] = xl;
+            spans[numSpans++] = xr;
+            for (int ny = sy - 1; ny <= sy + 1; ny += 2) {
+                if (ny < 0 || ny >= height) {
+                    continue;
+                }
+                int i = skipRight(ny, xl, xr, false);
+                while (i <= xr) {//a seed for each run
+                    if (top + 2 > stack.length) {
+                        stack = Arrays.copyOf(stack, 2 * stack.length);
+                    }
+                    stack[top++] = i;
+                    stack[top++] = ny;
+                    i = skipRight(ny, skipRight(ny, i, xr, true), xr, false);
+                }
+            }
+        }
+        spans[numSpans] = -1;
+        return spans;
+    }
+
+    /**
+     * Write spans found by the span stack
+     */
+    private Rectangle writeSpans(int[] spans, int rgb) {
+        boolean[] touched = new boolean[canvas.getNumTiles()];
+        int x0 = width;
+        int y0 = height;
+        int x1 = -1;
+        int y1 = -1;
+        for (int i = 0; spans[i] >= 0; i += 3) {
+            int y = spans[i];
+            markTiles(touched, y, spans[i + 1], spans[i + 2]);
+            x0 = Math.min(x0, spans[i + 1]);
+            x1 = Math.max(x1, spans[i + 2]);
+            y0 = Math.min(y0, y);
+            y1 = Math.max(y1, y);
+        }
+        beginTiles(touched);
+        int[] row = rowOf(rgb);
+        for (int i = 0; spans[i] >= 0; i += 3) {
+            fillSpan(spans[i], spans[i + 1], spans[i + 2], rgb, row);
+        }
+        return new Rectangle(x0, y0, x1 - x0 + 1, y1 - y0 + 1);
+    }
+
+    /**
+     * Find and fill the region by bands in parallel
+     */
+    private Rectangle fillBands(int x, int y, int rgb) {
+        int numBands = canvas.getNumTilesY();
+        Band[] bands = new Band[numBands];
+        List<Future<?>> futures = new ArrayList<>();
+        for (int b = 0; b < numBands; b++) {
+            Band band = new Band(b * TILE_SIZE,
+                    Math.min(height, (b + 1) * TILE_SIZE));
+            bands[b] = band;
+            futures.add(pool.submit(() -> label(band)));
+        }
+        getAll(futures);
+        //join runs of all bands
+        int total = 0;
+        for (Band band : bands) {
+            band.offset = total;
+            total += band.runs;
+        }
+        int[] parent = new int[total];
+        for (Band band : bands) {
+            for (int i = 0; i < band.runs; i++) {
+                parent[band.offset + i] = band.offset + band.parent[i];
+            }
+            band.parent = null;
+        }
+        for (int b = 1; b < numBands; b++) {
+            Band upper = bands[b - 1];
+            Band lower = bands[b];
+            int last = upper.bottom - upper.top - 1;
+            joinRows(upper, upper.rowStart[last], upper.rowStart[last + 1],
+                    lower, lower.rowStart[0], lower.rowStart[1], parent);
+        }
+        //parents precede children, so that one pass points all to roots
+        for (int i = 0; i < total; i++) {
+            parent[i] = parent[parent[i]];
+        }
+        Band seedBand = bands[y / TILE_SIZE];
+        int r = y - seedBand.top;
+        int seed = seedBand.rowStart[r];
+        while (seedBand.right[seed] < x) {
+            seed++;
+        }
+        int root = parent[seedBand.offset + seed];
+        //tiles are prepared for writing in this thread for the listeners
+        boolean[] touched = new boolean[canvas.getNumTiles()];
+        Rectangle[] bounds = new Rectangle[numBands];
+        futures.clear();
+        for (int b = 0; b < numBands; b++) {
+            int k = b;
+            futures.add(pool.submit(() -> {
+                bounds[k] = markBand(bands[k], parent, root, touched);
+            }));
+        }
+        getAll(futures);
+        beginTiles(touched);
+        futures.clear();
+        for (Band band : bands) {
+            futures.add(pool.submit(() -> writeBand(band, parent, root, rgb)));
+        }
+        getAll(futures);
+        Rectangle region = null;
+        for (Rectangle rect : bounds) {
+            if (rect != null) {
+                region = (region == null) ? rect : region.union(rect);
+            }
+        }
+        return region;
+    }
+
+    /**
+     * Collect runs of the color in a band and join overlapping runs of
+     * adjacent rows
+     */
+    private void label(Band band) {
+        for (int y = band.top; y < band.bottom; y++) {
+            int r = y - band.top;
+            band.rowStart[r] = band.runs;
+            int start = -1;//start of the open run
+            int ty = y / TILE_SIZE;
+            int offset = (y % TILE_SIZE) * TILE_SIZE;
+            for (int tx = 0; tx < numTilesX; tx++) {
+                int x0 = tx * TILE_SIZE;
+                int x1 = Math.min(width, x0 + TILE_SIZE);
+                int[] p = source(ty * numTilesX + tx);
+                if (p == null) {//uniform background
+                    if (background == target) {
+                        if (start < 0) {
+                            start = x0;
+                        }
+                    } else if (start >= 0) {
+                        band.addRun(start, x0 - 1);
+                        start = -1;
+                    }
+                    continue;
+                }
+                int x = x0;
+                while (x < x1) {
+                    if (start < 0) {//find the start of a run
+                        while (x < x1 && (p[offset + x - x0] & RGB) != target) {
+                            x++;
+                        }
+                        if (x < x1) {
+                            start = x;
+                        }
+                    } else {//find the end of the run
+                        while (x < x1 && (p[offset + x - x0] & RGB) == target) {
+                            x++;
+                        }
+                        if (x < x1) {
+                            band.addRun(start, x - 1);
+                            start = -1;
+                        }
+                    }
+                }
+            }
+            if (start >= 0) {
+                band.addRun(start, width - 1);
+            }
+            if (r > 0) {
+                joinRows(band, band.rowStart[r - 1], band.rowStart[r],
+                        band, band.rowStart[r], band.runs, band.parent);
+            }
+        }
+        band.rowStart[band.bottom - band.top] = band.runs;
+    }
+
+    /**
+     * Join overlapping runs of two adjacent rows
+     *
+     * @param a band of the upper row
+     * @param a0 first run of the upper row
+     * @param a1 end of runs of the upper row
+     * @param b band of the lower row
+     * @param b0 first run of the lower row
+     * @param b1 end of runs of the lower row
+     * @param parent parents of runs, indexed with offsets of bands if the
+     * bands differ
+     */
+    private static void joinRows(Band a, int a0, int a1, Band b, int b0, int b1,
+            int[] parent) {
+        int oa = (a == b) ? 0 : a.offset;
+        int ob = (a == b) ? 0 : b.offset;
+        int i = a0;
+        int j = b0;
+        while (i < a1 && j < b1) {
+            if (a.left[i] <= b.right[j] && b.left[j] <= a.right[i]) {
+                union(parent, oa + i, ob + j);
+            }
+            if (a.right[i] < b.right[j]) {
+                i++;
+            } else {
+                j++;
+            }
+        }
+    }
+
+    private static int find(int[] parent, int i) {
+        while (parent[i] != i) {
+            parent[i] = parent[parent[i]];
+            i = parent[i];
+        }
+        return i;
+    }
+
+    /**
+     * Join sets; the larger root points to the smaller one
+     */
+    private static void union(int[] parent, int i, int j) {
+        int ri = find(parent, i);
+        int rj = find(parent, j);
+        if (ri < rj) {
+            parent[rj] = ri;
+        } else if (rj < ri) {
+            parent[ri] = rj;
+        }
+    }
+
+    /**
+     * Mark tiles under runs of the region in a band
+     *
+     * @return bounds of the runs, or null if none
+     */
+    private Rectangle markBand(Band band, int[] parent, int root,
+            boolean[] touched) {
+        int x0 = width;
+        int y0 = -1;
+        int x1 = -1;
+        int y1 = -1;
+        for (int y = band.top; y < band.bottom; y++) {
+            int r = y - band.top;
+            for (int k = band.rowStart[r]; k < band.rowStart[r + 1]; k++) {
+                if (parent[band.offset + k] != root) {
+                    continue;
+                }
+                markTiles(touched, y, band.left[k], band.right[k]);
+                x0 = Math.min(x0, band.left[k]);
+                x1 = Math.max(x1, band.right[k]);
+                if (y0 < 0) {
+                    y0 = y;
+                }
+                y1 = y;
+            }
+        }
+        if (y0 < 0) {
+            return null;
+        }
+        return new Rectangle(x0, y0, x1 - x0 + 1, y1 - y0 + 1);
+    }
+
+    private void writeBand(Band band, int[] parent, int root, int rgb) {
+        int[] row = rowOf(rgb);
+        for (int y = band.top; y < band.bottom; y++) {
+            int r = y - band.top;
+            for (int k = band.rowStart[r]; k < band.rowStart[r + 1]; k++) {
+                if (parent[band.offset + k] == root) {
+                    fillSpan(y, band.left[k], band.right[k], rgb, row);
+                }
+            }
+        }
+    }
+
+    private void markTiles(boolean[] touched, int y, int xl, int xr) {
+        int ty = y / TILE_SIZE;
+        for (int tx = xl / TILE_SIZE; tx <= xr / TILE_SIZE; tx++) {
+            touched[ty * numTilesX + tx] = true;
+        }
+    }
+
+    /**
+     * Notify listeners and create tiles to be written
+     */
+    private void beginTiles(boolean[] touched) {
+        for (int i = 0; i < touched.length; i++) {
+            if (!touched[i]) {
+                continue;
+            }
+            BufferedImage tile = canvas.beginWrite(i % numTilesX,
+                    i / numTilesX, true);
+            tiles[i] = tile;
+            DataBuffer buffer = tile.getRaster().getDataBuffer();
+            if (buffer instanceof DataBufferInt) {
+                tilePixels[i] = ((DataBufferInt) buffer).getData();
+            }
+        }
+    }
+
+    /**
+     * A row of the color, for rasters without int[]
+     */
+    private static int[] rowOf(int rgb) {
+        int[] row = new int[TILE_SIZE];
+        Arrays.fill(row, rgb);
+        return row;
+    }
+
+    /**
+     * Fill pixels from xl to xr in a row, split at edges of tiles
+     */
+    private void fillSpan(int y, int xl, int xr, int rgb, int[] row) {
+        int ty = y / TILE_SIZE;
+        int sy = y % TILE_SIZE;
+        for (int tx = xl / TILE_SIZE; tx <= xr / TILE_SIZE; tx++) {
+            int index = ty * numTilesX + tx;
+            int l = Math.max(xl, tx * TILE_SIZE) - tx * TILE_SIZE;
+            int len = Math.min(xr, tx * TILE_SIZE + TILE_SIZE - 1)
+                    - tx * TILE_SIZE - l + 1;
+            int[] p = tilePixels[index];
+            if (p != null) {
+                Arrays.fill(p, sy * TILE_SIZE + l, sy * TILE_SIZE + l + len,
+                        rgb);
+            } else if (MappedTileStore.getPixels(tiles[index]) != null) {
+                MappedTileStore.getPixels(tiles[index])
+                        .put(sy * TILE_SIZE + l, row, 0, len);
+            } else {
+                tiles[index].getRaster().setDataElements(l, sy, len, 1, row);
+            }
+        }
+    }
+
+    private static void getAll(List<Future<?>> futures) {
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Filling interrupted");
+            } catch (ExecutionException ex) {
+                Throwable cause = ex.getCause();
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+                throw new IllegalStateException(cause);
+            }
+        }
+    }
+}
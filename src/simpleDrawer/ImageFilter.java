@@ -0,0 +1,37 @@
+package simpleDrawer;
+
+/**
+ * Filter of images given as int[] of 0xRRGGBB pixels
+ *
+ * A filter computes a band of rows of the destination from the whole
+ * source, so that bands can be filtered in parallel. Work areas are taken
+ * from the scratch of the thread instead of being allocated per band.
+ *
+ * @author tadaki
+ */
+interface ImageFilter {
+
+    /**
+     * Filter rows of an image
+     *
+     * @param src source pixels, not modified
+     * @param dst destination pixels
+     * @param width width of the image
+     * @param height height of the image
+     * @param y0 first row of the band
+     * @param y1 end of rows of the band (exclusive)
+     * @param scratch work area of the current thread
+     */
+    void filter(int[] src, int[] dst, int width, int height, int y0, int y1,
+            FilterPipeline.Scratch scratch);
+
+    /**
+     * The filter for an image scaled by a factor, such as a preview
+     *
+     * @param scale scale of the image
+     * @return filter with distances in pixels scaled
+     */
+    default ImageFilter scaled(double scale) {
+        return this;
+    }
+}
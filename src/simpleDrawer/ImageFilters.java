@@ -0,0 +1,347 @@
+package simpleDrawer;
+
+/**
+ * Filters of images: blurs, sharpen, threshold and color adjustment
+ *
+ * Blurs are separable: rows of a band, and the rows around it within the
+ * radius, are filtered horizontally into the scratch, and the scratch is
+ * filtered vertically into the band. Pixels outside of the image are taken
+ * from the nearest edge.
+ *
+ * @author tadaki
+ */
+class ImageFilters {
+
+    /**
+     * Prevent creating instances
+     */
+    private ImageFilters() {
+    }
+
+    /**
+     * Average of a square
+     *
+     * @param radius distance from the center to the edges of the square
+     * @return filter
+     */
+    static ImageFilter boxBlur(int radius) {
+        return new BoxBlur(Math.max(0, radius));
+    }
+
+    /**
+     * Gaussian blur
+     *
+     * @param sigma standard deviation in pixels
+     * @return filter
+     */
+    static ImageFilter gaussianBlur(double sigma) {
+        return new GaussianBlur(Math.max(0, sigma));
+    }
+
+    /**
+     * Sharpen by subtracting the Laplacian
+     *
+     * @param amount strength, 0 for no change
+     * @return filter
+     */
+    static ImageFilter sharpen(double amount) {
+        return new Sharpen(amount);
+    }
+
+    /**
+     * Black and white by brightness
+     *
+     * @param level pixels of luminance from level to 255 become white
+     * @return filter
+     */
+    static ImageFilter threshold(int level) {
+        return new Threshold(level);
+    }
+
+    /**
+     * Adjust brightness, contrast and saturation
+     *
+     * @param brightness value added to channels, from -255 to 255
+     * @param contrast factor of differences from the middle gray
+     * @param saturation factor of differences from gray, 0 for gray
+     * @return filter
+     */
+    static ImageFilter colorAdjust(int brightness, double contrast,
+            double saturation) {
+        return new ColorAdjust(brightness, contrast, saturation);
+    }
+
+    private static int clamp(int v, int min, int max) {
+        return Math.max(min, Math.min(max, v));
+    }
+
+    private static int pack(int r, int g, int b) {
+        return (r << 16) | (g << 8) | b;
+    }
+
+    private static int luminance(int r, int g, int b) {
+        return (77 * r + 150 * g + 29 * b) >> 8;
+    }
+
+    /**
+     * Fill scratch with rows around a band filtered horizontally
+     */
+    private interface RowFilter {
+
+        void filterRow(int[] src, int offset, int[] dst, int dstOffset,
+                int width);
+    }
+
+    private static int[] filterRows(int[] src, int width, int height,
+            int y0, int y1, int radius, RowFilter rowFilter,
+            FilterPipeline.Scratch scratch) {
+        int rows = y1 - y0 + 2 * radius;
+        int[] tmp = scratch.getRows(rows * width);
+        for (int i = 0; i < rows; i++) {
+            int y = clamp(y0 - radius + i, 0, height - 1);
+            rowFilter.filterRow(src, y * width, tmp, i * width, width);
+        }
+        return tmp;
+    }
+
+    private static class BoxBlur implements ImageFilter {
+
+        private final int radius;
+        private final int scale;//reciprocal of the number of pixels, << 16
+
+        BoxBlur(int radius) {
+            this.radius = radius;
+            scale = (1 << 16) / (2 * radius + 1);
+        }
+
+        @Override
+        public void filter(int[] src, int[] dst, int width, int height,
+                int y0, int y1, FilterPipeline.Scratch scratch) {
+            int r = radius;
+            int[] tmp = filterRows(src, width, height, y0, y1, r,
+                    this::filterRow, scratch);
+            //running sums of columns over the window of rows
+            int[] sums = scratch.getSums(3 * width);
+            for (int i = 0; i < 2 * r; i++) {
+                addRow(tmp, i * width, sums, width, 1);
+            }
+            for (int y = y0; y < y1; y++) {
+                int i = y - y0;//window is from row i to i + 2r of tmp
+                addRow(tmp, (i + 2 * r) * width, sums, width, 1);
+                int o = y * width;
+                for (int x = 0; x < width; x++) {
+                    dst[o + x] = pack(average(sums[3 * x]),
+                            average(sums[3 * x + 1]), average(sums[3 * x + 2]));
+                }
+                addRow(tmp, i * width, sums, width, -1);
+            }
+        }
+
+        private int average(int sum) {
+            return (sum * scale + (1 << 15)) >>> 16;
+        }
+
+        private void filterRow(int[] src, int offset, int[] dst, int dstOffset,
+                int width) {
+            int r = radius;
+            int sr = 0;
+            int sg = 0;
+            int sb = 0;
+            for (int k = -r; k <= r; k++) {
+                int p = src[offset + clamp(k, 0, width - 1)];
+                sr += (p >> 16) & 255;
+                sg += (p >> 8) & 255;
+                sb += p & 255;
+            }
+            for (int x = 0; x < width; x++) {
+                dst[dstOffset + x] = pack(average(sr), average(sg),
+                        average(sb));
+                int out = src[offset + Math.max(x - r, 0)];
+                int in = src[offset + Math.min(x + r + 1, width - 1)];
+                sr += ((in >> 16) & 255) - ((out >> 16) & 255);
+                sg += ((in >> 8) & 255) - ((out >> 8) & 255);
+                sb += (in & 255) - (out & 255);
+            }
+        }
+
+        private static void addRow(int[] tmp, int offset, int[] sums,
+                int width, int sign) {
+            for (int x = 0; x < width; x++) {
+                int p = tmp[offset + x];
+                sums[3 * x] += sign * ((p >> 16) & 255);
+                sums[3 * x + 1] += sign * ((p >> 8) & 255);
+                sums[3 * x + 2] += sign * (p & 255);
+            }
+        }
+
+        @Override
+        public ImageFilter scaled(double scale) {
+            return new BoxBlur((int) Math.round(radius * scale));
+        }
+    }
+
+    private static class GaussianBlur implements ImageFilter {
+
+        private static final int SHIFT = 14;//weights sum to 1 << SHIFT
+        private final double sigma;
+        private final int radius;
+        private final int[] weights;
+
+        GaussianBlur(double sigma) {
+            this.sigma = sigma;
+            radius = (int) Math.ceil(3 * sigma);
+            weights = new int[2 * radius + 1];
+            double[] w = new double[2 * radius + 1];
+            double total = 0;
+            for (int k = -radius; k <= radius; k++) {
+                w[k + radius] = (sigma > 0)
+                        ? Math.exp(-k * k / (2 * sigma * sigma)) : 1;
+                total += w[k + radius];
+            }
+            int sum = 0;
+            for (int k = 0; k < w.length; k++) {
+                weights[k] = (int) Math.round(w[k] / total * (1 << SHIFT));
+                sum += weights[k];
+            }
+            weights[radius] += (1 << SHIFT) - sum;//exact sum after rounding
+        }
+
+        @Override
+        public void filter(int[] src, int[] dst, int width, int height,
+                int y0, int y1, FilterPipeline.Scratch scratch) {
+            int[] tmp = filterRows(src, width, height, y0, y1, radius,
+                    this::filterRow, scratch);
+            for (int y = y0; y < y1; y++) {
+                int[] sums = scratch.getSums(3 * width);
+                for (int k = 0; k < weights.length; k++) {
+                    int w = weights[k];
+                    int o = (y - y0 + k) * width;
+                    for (int x = 0; x < width; x++) {
+                        int p = tmp[o + x];
+                        sums[3 * x] += w * ((p >> 16) & 255);
+                        sums[3 * x + 1] += w * ((p >> 8) & 255);
+                        sums[3 * x + 2] += w * (p & 255);
+                    }
+                }
+                int o = y * width;
+                int half = 1 << (SHIFT - 1);
+                for (int x = 0; x < width; x++) {
+                    dst[o + x] = pack((sums[3 * x] + half) >> SHIFT,
+                            (sums[3 * x + 1] + half) >> SHIFT,
+                            (sums[3 * x + 2] + half) >> SHIFT);
+                }
+            }
+        }
+
+        private void filterRow(int[] src, int offset, int[] dst, int dstOffset,
+                int width) {
+            int r = radius;
+            int half = 1 << (SHIFT - 1);
+            for (int x = 0; x < width; x++) {
+                int sr = half;
+                int sg = half;
+                int sb = half;
+                for (int k = -r; k <= r; k++) {
+                    int p = src[offset + clamp(x + k, 0, width - 1)];
+                    int w = weights[k + r];
+                    sr += w * ((p >> 16) & 255);
+                    sg += w * ((p >> 8) & 255);
+                    sb += w * (p & 255);
+                }
+                dst[dstOffset + x]
+                        = pack(sr >> SHIFT, sg >> SHIFT, sb >> SHIFT);
+            }
+        }
+
+        @Override
+        public ImageFilter scaled(double scale) {
+            return new GaussianBlur(sigma * scale);
+        }
+    }
+
+    private static class Sharpen implements ImageFilter {
+
+        private final int amount;//<< 8
+
+        Sharpen(double amount) {
+            this.amount = (int) Math.round(amount * 256);
+        }
+
+        @Override
+        public void filter(int[] src, int[] dst, int width, int height,
+                int y0, int y1, FilterPipeline.Scratch scratch) {
+            int center = 256 + 4 * amount;
+            for (int y = y0; y < y1; y++) {
+                int o = y * width;
+                int up = Math.max(y - 1, 0) * width;
+                int down = Math.min(y + 1, height - 1) * width;
+                for (int x = 0; x < width; x++) {
+                    int c = src[o + x];
+                    int n = src[up + x];
+                    int s = src[down + x];
+                    int w = src[o + Math.max(x - 1, 0)];
+                    int e = src[o + Math.min(x + 1, width - 1)];
+                    int v = 0;
+                    for (int shift = 16; shift >= 0; shift -= 8) {
+                        int neighbors = ((n >> shift) & 255)
+                                + ((s >> shift) & 255) + ((w >> shift) & 255)
+                                + ((e >> shift) & 255);
+                        int ch = (center * ((c >> shift) & 255)
+                                - amount * neighbors + 128) >> 8;
+                        v |= clamp(ch, 0, 255) << shift;
+                    }
+                    dst[o + x] = v;
+                }
+            }
+        }
+    }
+
+    private static class Threshold implements ImageFilter {
+
+        private final int level;
+
+        Threshold(int level) {
+            this.level = level;
+        }
+
+        @Override
+        public void filter(int[] src, int[] dst, int width, int height,
+                int y0, int y1, FilterPipeline.Scratch scratch) {
+            for (int i = y0 * width; i < y1 * width; i++) {
+                int p = src[i];
+                int l = luminance((p >> 16) & 255, (p >> 8) & 255, p & 255);
+                dst[i] = (l >= level) ? 0xffffff : 0;
+            }
+        }
+    }
+
+    private static class ColorAdjust implements ImageFilter {
+
+        private final int[] table = new int[256];//brightness and contrast
+        private final int saturation;//<< 8
+
+        ColorAdjust(int brightness, double contrast, double saturation) {
+            for (int v = 0; v < 256; v++) {
+                table[v] = clamp((int) Math.round(
+                        (v - 128) * contrast + 128 + brightness), 0, 255);
+            }
+            this.saturation = (int) Math.round(saturation * 256);
+        }
+
+        @Override
+        public void filter(int[] src, int[] dst, int width, int height,
+                int y0, int y1, FilterPipeline.Scratch scratch) {
+            for (int i = y0 * width; i < y1 * width; i++) {
+                int p = src[i];
+                int r = table[(p >> 16) & 255];
+                int g = table[(p >> 8) & 255];
+                int b = table[p & 255];
+                int l = luminance(r, g, b);
+                dst[i] = pack(
+                        clamp(l + (((r - l) * saturation) >> 8), 0, 255),
+                        clamp(l + (((g - l) * saturation) >> 8), 0, 255),
+                        clamp(l + (((b - l) * saturation) >> 8), 0, 255));
+            }
+        }
+    }
+}
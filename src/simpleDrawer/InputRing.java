@@ -0,0 +1,100 @@
+package simpleDrawer;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Queue of input events from one producer thread to one consumer thread
+ *
+ * Events are kept in primitive arrays of fixed capacity, so that no object
+ * is allocated per event. The producer only writes the tail and the consumer
+ * only writes the head; each side publishes its index with an ordered write
+ * after the slot is written or read, and keeps a cached copy of the index of
+ * the other side, so that no lock is taken.
+ *
+ * @author tadaki
+ */
+class InputRing {
+
+    static final int FIELDS = 5;//type, x, y, value, aux
+    static final long EMPTY = Long.MIN_VALUE;//returned by poll()
+    private final int mask;
+    private final int[] fields;
+    private final long[] times;
+    private final AtomicLong head = new AtomicLong();//next slot to read
+    private final AtomicLong tail = new AtomicLong();//next slot to write
+    private long cachedHead = 0;//head as seen by the producer
+    private long cachedTail = 0;//tail as seen by the consumer
+
+    /**
+     * Create ring
+     *
+     * @param capacity number of events, rounded up to a power of 2
+     */
+    InputRing(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        mask = size - 1;
+        fields = new int[FIELDS * size];
+        times = new long[size];
+    }
+
+    /**
+     * Append an event. Called only by the producer.
+     *
+     * @param type type of event
+     * @param x x coordinate
+     * @param y y coordinate
+     * @param value value depending on type
+     * @param aux value depending on type
+     * @param time System.nanoTime() of the input
+     * @return false if the ring is full
+     */
+    boolean offer(int type, int x, int y, int value, int aux, long time) {
+        long t = tail.get();
+        if (t - cachedHead > mask) {
+            cachedHead = head.get();
+            if (t - cachedHead > mask) {
+                return false;
+            }
+        }
+        int slot = (int) t & mask;
+        int o = FIELDS * slot;
+        fields[o] = type;
+        fields[o + 1] = x;
+        fields[o + 2] = y;
+        fields[o + 3] = value;
+        fields[o + 4] = aux;
+        times[slot] = time;
+        tail.lazySet(t + 1);//publish the slot
+        return true;
+    }
+
+    /**
+     * Take the oldest event. Called only by the consumer.
+     *
+     * @param event destination of FIELDS values
+     * @return System.nanoTime() of the input, or EMPTY if the ring is empty
+     */
+    long poll(int[] event) {
+        long h = head.get();
+        if (h == cachedTail) {
+            cachedTail = tail.get();
+            if (h == cachedTail) {
+                return EMPTY;
+            }
+        }
+        int slot = (int) h & mask;
+        System.arraycopy(fields, FIELDS * slot, event, 0, FIELDS);
+        long time = times[slot];
+        head.lazySet(h + 1);//release the slot
+        return time;
+    }
+
+    /**
+     * Whether no event is waiting. May be called by either side.
+     *
+     * @return true if empty
+     */
+    boolean isEmpty() {
+        return head.get() == tail.get();
+    }
+}
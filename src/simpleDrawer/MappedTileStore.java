@@ -0,0 +1,133 @@
+package simpleDrawer;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.DirectColorModel;
+import java.awt.image.Raster;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Storage of tiles in a memory-mapped file
+ *
+ * Pixels are kept outside of Java heap and paged by the operating system.
+ * Each tile occupies a fixed region of the file. The file is mapped in
+ * chunks of CHUNK_TILES tiles when a tile in the chunk is created for the
+ * first time, and the mapping is reused by tiles created again at the same
+ * index; mappings are dropped by close(). The file grows sparsely as tiles
+ * are created.
+ *
+ * Tiles are not DataBufferInt, so that Java2D draws on them pixel by pixel.
+ * TiledCanvas therefore reads and writes them in bulk through getPixels(),
+ * and draws strokes on a copy in Java heap; see StrokeBenchmark with
+ * store=mapped for the remaining cost.
+ *
+ * @author tadaki
+ */
+class MappedTileStore implements TileStore {
+
+    private static final DirectColorModel COLOR_MODEL
+            = new DirectColorModel(24, 0xff0000, 0x00ff00, 0x0000ff);
+    static final int CHUNK_TILES = 64;
+    private final FileChannel channel;
+    private final java.util.Map<Integer, java.nio.MappedByteBuffer> chunks
+            = new java.util.HashMap<>();
+
+    /**
+     * Open storage
+     *
+     * @param file file for the storage
+     * @throws IOException
+     */
+    MappedTileStore(File file) throws IOException {
+        channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+    }
+
+    @Override
+    public BufferedImage createTile(int index, int size) {
+        int bytes = 4 * size * size;
+        int chunk = index / CHUNK_TILES;
+        java.nio.MappedByteBuffer mapped = chunks.get(chunk);
+        if (mapped == null) {
+            try {
+                mapped = channel.map(FileChannel.MapMode.READ_WRITE,
+                        (long) bytes * CHUNK_TILES * chunk,
+                        (long) bytes * CHUNK_TILES);
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+            chunks.put(chunk, mapped);
+        }
+        IntBuffer pixels = mapped.slice(bytes * (index % CHUNK_TILES), bytes)
+                .order(ByteOrder.nativeOrder()).asIntBuffer();
+        SinglePixelPackedSampleModel sampleModel
+                = new SinglePixelPackedSampleModel(DataBuffer.TYPE_INT,
+                        size, size, COLOR_MODEL.getMasks());
+        WritableRaster raster = Raster.createWritableRaster(
+                sampleModel, new IntBufferDataBuffer(pixels), null);
+        return new BufferedImage(COLOR_MODEL, raster, false, null);
+    }
+
+    @Override
+    public void releaseTile(int index, BufferedImage tile) {
+        //the mapping of the chunk is kept for the index
+    }
+
+    @Override
+    public boolean canMoveTiles() {
+        return false;//a new tile at the index shares the region
+    }
+
+    @Override
+    public void close() throws IOException {
+        chunks.clear();//unmapped when tiles are not referred any more
+        channel.close();
+    }
+
+    /**
+     * Pixels of a tile of this storage, for reading and writing in bulk
+     *
+     * @param tile tile
+     * @return pixels, or null if the tile is not of this storage
+     */
+    static IntBuffer getPixels(BufferedImage tile) {
+        DataBuffer buffer = tile.getRaster().getDataBuffer();
+        return (buffer instanceof IntBufferDataBuffer b) ? b.getPixels() : null;
+    }
+
+    /**
+     * DataBuffer reading and writing IntBuffer
+     */
+    static class IntBufferDataBuffer extends DataBuffer {
+
+        private final IntBuffer pixels;
+
+        IntBufferDataBuffer(IntBuffer pixels) {
+            super(DataBuffer.TYPE_INT, pixels.capacity());
+            this.pixels = pixels;
+        }
+
+        IntBuffer getPixels() {
+            return pixels;
+        }
+
+        @Override
+        public int getElem(int bank, int i) {
+            return pixels.get(i);
+        }
+
+        @Override
+        public void setElem(int bank, int i, int val) {
+            pixels.put(i, val);
+        }
+    }
+}
@@ -0,0 +1,256 @@
+package simpleDrawer;
+
+import java.awt.Graphics;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+
+/**
+ * Pyramid of reduced tiles of TiledCanvas for zoomed-out views
+ *
+ * Level 0 is the canvas itself. A tile of level k has the same size as
+ * tiles of the canvas and covers 2^k x 2^k tiles of the canvas, each pixel
+ * being the average of 2x2 pixels of level k-1. Tiles are built when they
+ * are painted for the first time. When a tile of the canvas is changed,
+ * only the tiles of upper levels covering it are invalidated, and they are
+ * built again when painted.
+ *
+ * @author tadaki
+ */
+class MipPyramid implements TiledCanvas.TileListener {
+
+    private static final int TILE_SIZE = TiledCanvas.TILE_SIZE;
+    private static final int HALF = TILE_SIZE / 2;
+    private final TiledCanvas canvas;
+    private final int numLevels;//including the canvas
+    private final int[] numTilesX;
+    private final int[] numTilesY;
+    //tiles of levels from 1; null for tiles filled with background
+    private final BufferedImage[][] tiles;
+    private final boolean[][] valid;
+    private final int background;
+    //buffers for reduction
+    private final int[] src = new int[TILE_SIZE * TILE_SIZE];
+    private final int[] dst = new int[TILE_SIZE * TILE_SIZE];
+    private BufferedImage heapTile = null;//tile of MappedTileStore in heap
+
+    /**
+     * Create pyramid and listen to changes of the canvas
+     *
+     * @param canvas canvas
+     */
+    MipPyramid(TiledCanvas canvas) {
+        this.canvas = canvas;
+        background = canvas.getBackground().getRGB() & 0xFFFFFF;
+        int n = 1;
+        int size = Math.max(canvas.getNumTilesX(), canvas.getNumTilesY());
+        while ((1 << (n - 1)) < size) {
+            n++;
+        }
+        numLevels = n;
+        numTilesX = new int[n];
+        numTilesY = new int[n];
+        tiles = new BufferedImage[n][];
+        valid = new boolean[n][];
+        for (int k = 0; k < n; k++) {
+            numTilesX[k] = (canvas.getNumTilesX() + (1 << k) - 1) >> k;
+            numTilesY[k] = (canvas.getNumTilesY() + (1 << k) - 1) >> k;
+            tiles[k] = new BufferedImage[numTilesX[k] * numTilesY[k]];
+            valid[k] = new boolean[numTilesX[k] * numTilesY[k]];
+        }
+        canvas.addTileListener(this);
+    }
+
+    /**
+     * Stop listening to the canvas
+     */
+    void dispose() {
+        canvas.removeTileListener(this);
+    }
+
+    int getNumLevels() {
+        return numLevels;
+    }
+
+    @Override
+    public void beforeWrite(int index) {
+        int tx = index % canvas.getNumTilesX();
+        int ty = index / canvas.getNumTilesX();
+        for (int k = 1; k < numLevels; k++) {
+            valid[k][(ty >> k) * numTilesX[k] + (tx >> k)] = false;
+        }
+    }
+
+    /**
+     * Level to be sampled for a scale
+     *
+     * @param scale size on screen of a pixel of the canvas
+     * @return the level with the fewest pixels not less than pixels on screen
+     */
+    int levelFor(double scale) {
+        int k = 0;
+        while (k + 1 < numLevels && scale * (1 << (k + 1)) <= 1) {
+            k++;
+        }
+        return k;
+    }
+
+    /**
+     * Get tile, building it if necessary
+     *
+     * @param level level
+     * @param tx horizontal index of tile in the level
+     * @param ty vertical index of tile in the level
+     * @return tile, or null if filled with background
+     */
+    BufferedImage getTile(int level, int tx, int ty) {
+        if (level == 0) {
+            return canvas.getTile(tx, ty);
+        }
+        int index = ty * numTilesX[level] + tx;
+        if (!valid[level][index]) {
+            build(level, tx, ty);
+            valid[level][index] = true;
+        }
+        return tiles[level][index];
+    }
+
+    /**
+     * Reduce 2x2 tiles of the lower level into a tile
+     */
+    private void build(int level, int tx, int ty) {
+        int index = ty * numTilesX[level] + tx;
+        //children are built before dst is used
+        BufferedImage[] children = new BufferedImage[4];
+        boolean empty = true;
+        for (int q = 0; q < 4; q++) {
+            int cx = 2 * tx + (q & 1);
+            int cy = 2 * ty + (q >> 1);
+            if (cx < numTilesX[level - 1] && cy < numTilesY[level - 1]) {
+                children[q] = getTile(level - 1, cx, cy);
+                empty &= (children[q] == null);
+            }
+        }
+        if (empty) {
+            tiles[level][index] = null;
+            return;
+        }
+        for (int q = 0; q < 4; q++) {
+            if (children[q] != null) {
+                TiledCanvas.readTile(children[q], src);
+            }
+            reduce(children[q] == null ? null : src, q & 1, q >> 1);
+        }
+        if (tiles[level][index] == null) {
+            tiles[level][index] = new BufferedImage(TILE_SIZE, TILE_SIZE,
+                    BufferedImage.TYPE_INT_RGB);
+        }
+        tiles[level][index].getRaster().setDataElements(
+                0, 0, TILE_SIZE, TILE_SIZE, dst);
+    }
+
+    /**
+     * Average 2x2 pixels of a tile into a quarter of dst
+     *
+     * @param pixels pixels of tile, or null for background
+     * @param qx horizontal index of quarter
+     * @param qy vertical index of quarter
+     */
+    private void reduce(int[] pixels, int qx, int qy) {
+        for (int y = 0; y < HALF; y++) {
+            int d = (qy * HALF + y) * TILE_SIZE + qx * HALF;
+            if (pixels == null) {
+                Arrays.fill(dst, d, d + HALF, background);
+                continue;
+            }
+            int s = 2 * y * TILE_SIZE;
+            for (int x = 0; x < HALF; x++, s += 2) {
+                int p0 = pixels[s];
+                int p1 = pixels[s + 1];
+                int p2 = pixels[s + TILE_SIZE];
+                int p3 = pixels[s + TILE_SIZE + 1];
+                //red and blue, and green, summed without overflow
+                int rb = (p0 & 0xFF00FF) + (p1 & 0xFF00FF)
+                        + (p2 & 0xFF00FF) + (p3 & 0xFF00FF);
+                int g = (p0 & 0xFF00) + (p1 & 0xFF00)
+                        + (p2 & 0xFF00) + (p3 & 0xFF00);
+                dst[d + x] = (((rb + 0x20002) >>> 2) & 0xFF00FF)
+                        | (((g + 0x200) >>> 2) & 0xFF00);
+            }
+        }
+    }
+
+    /**
+     * Draw the part of canvas inside the clip at a scale
+     *
+     * @param g destination
+     * @param clip region of destination
+     * @param scale size on screen of a pixel of the canvas
+     * @param viewX x of the canvas at the origin of destination
+     * @param viewY y of the canvas at the origin of destination
+     * @return number of pixels copied from tiles
+     */
+    long paint(Graphics g, Rectangle clip, double scale,
+            double viewX, double viewY) {
+        int level = levelFor(scale);
+        int span = TILE_SIZE << level;//pixels of canvas covered by a tile
+        //visible part of the canvas
+        double x0 = Math.max(0, viewX + clip.x / scale);
+        double y0 = Math.max(0, viewY + clip.y / scale);
+        double x1 = Math.min(canvas.getWidth(),
+                viewX + (clip.x + clip.width) / scale);
+        double y1 = Math.min(canvas.getHeight(),
+                viewY + (clip.y + clip.height) / scale);
+        if (x1 <= x0 || y1 <= y0) {
+            return 0;
+        }
+        long pixels = 0;
+        int tx0 = (int) (x0 / span);
+        int ty0 = (int) (y0 / span);
+        int tx1 = Math.min(numTilesX[level] - 1, (int) ((x1 - 1e-9) / span));
+        int ty1 = Math.min(numTilesY[level] - 1, (int) ((y1 - 1e-9) / span));
+        for (int ty = ty0; ty <= ty1; ty++) {
+            for (int tx = tx0; tx <= tx1; tx++) {
+                //edges of tiles are rounded in the same way for neighbours,
+                //and the canvas is cut at its size
+                int right = Math.min((tx + 1) * span, canvas.getWidth());
+                int bottom = Math.min((ty + 1) * span, canvas.getHeight());
+                int dx0 = (int) Math.floor((tx * span - viewX) * scale);
+                int dy0 = (int) Math.floor((ty * span - viewY) * scale);
+                int dx1 = (int) Math.floor((right - viewX) * scale);
+                int dy1 = (int) Math.floor((bottom - viewY) * scale);
+                if (dx1 <= dx0 || dy1 <= dy0) {
+                    continue;
+                }
+                BufferedImage tile = getTile(level, tx, ty);
+                if (tile == null) {
+                    g.setColor(canvas.getBackground());
+                    g.fillRect(dx0, dy0, dx1 - dx0, dy1 - dy0);
+                } else {
+                    if (MappedTileStore.getPixels(tile) != null) {
+                        tile = toHeap(tile);//drawn fast from DataBufferInt
+                    }
+                    int sw = (right - tx * span) >> level;
+                    int sh = (bottom - ty * span) >> level;
+                    g.drawImage(tile, dx0, dy0, dx1, dy1,
+                            0, 0, Math.max(1, sw), Math.max(1, sh), null);
+                    pixels += (long) (dx1 - dx0) * (dy1 - dy0);
+                }
+            }
+        }
+        return pixels;
+    }
+
+    /**
+     * Copy a tile of MappedTileStore into heapTile
+     */
+    private BufferedImage toHeap(BufferedImage tile) {
+        if (heapTile == null) {
+            heapTile = new BufferedImage(TILE_SIZE, TILE_SIZE,
+                    BufferedImage.TYPE_INT_RGB);
+        }
+        TiledCanvas.readTile(tile, ((java.awt.image.DataBufferInt) heapTile
+                .getRaster().getDataBuffer()).getData());
+        return heapTile;
+    }
+}
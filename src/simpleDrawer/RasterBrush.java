@@ -0,0 +1,381 @@
+package simpleDrawer;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferInt;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Brush writing solid strokes directly into rasters of tiles
+ *
+ * A segment of width w is drawn as a capsule: the pixels within w/2 of the
+ * segment, i.e. a rectangle with discs at both ends, so that connected
+ * segments have round joins. Each row of a capsule is one span, the union
+ * of the spans of the two discs, taken from a table of half widths per line
+ * width, and the span of the rectangle, which moves linearly with rows.
+ * Pixels of the previous capsule of the same stroke are skipped, so that
+ * short segments of wide strokes do not fill the same pixels again. Spans
+ * are filled on the int[] of DataBufferInt by the Vector API (SpanFill)
+ * when jdk.incubator.vector is added, by Arrays.fill otherwise, and by bulk
+ * puts into the IntBuffer of mapped tiles.
+ *
+ * @author tadaki
+ */
+class RasterBrush {
+
+    /**
+     * Segment with its width, and the span of a row of it
+     */
+    private static class Capsule {
+
+        //larger than coordinates relative to the start point
+        private static final int OFFSET = 1 << 24;
+
+        int x0;
+        int y0;
+        int x1;
+        int y1;
+        int[] disc;
+        int radius;
+        //span of the rectangle: x - x0 is in [lo, hi] for row y, where
+        //along the segment lo = ry * alongSlope + alongLo and so on
+        boolean body;
+        boolean vertical;
+        boolean horizontal;
+        double alongSlope;
+        double alongLo;
+        double alongHi;
+        double acrossSlope;
+        double acrossHalf;
+        //span of the last row
+        int left;
+        int right;
+        //spans of rows from top to bottom drawn, empty if left > right
+        int top;
+        int bottom = -1;
+        int[] lefts = new int[0];
+        int[] rights = new int[0];
+
+        /**
+         * Set segment; the rectangle consists of points p with
+         * 0 <= (p - p0).d <= |d|^2 and |(p - p0) x d| <= r|d|
+         */
+        void set(int x0, int y0, int x1, int y1, double r, int[] disc) {
+            this.x0 = x0;
+            this.y0 = y0;
+            this.x1 = x1;
+            this.y1 = y1;
+            this.disc = disc;
+            radius = disc.length / 2;
+            top = 0;
+            bottom = -1;
+            double dx = x1 - x0;
+            double dy = y1 - y0;
+            double length2 = dx * dx + dy * dy;
+            body = length2 > 0;
+            if (!body) {
+                return;
+            }
+            vertical = (dx == 0);
+            horizontal = (dy == 0);
+            if (!vertical) {
+                alongSlope = -dy / dx;
+                alongLo = Math.min(0, length2 / dx);
+                alongHi = Math.max(0, length2 / dx);
+            } else {//rows between the end points
+                alongLo = Math.min(0, dy);
+                alongHi = Math.max(0, dy);
+            }
+            if (!horizontal) {
+                acrossSlope = dx / dy;
+                acrossHalf = r * Math.sqrt(length2) / Math.abs(dy);
+            } else {//rows within r
+                acrossHalf = r;
+            }
+        }
+
+        /**
+         * Compute the span of a row into left and right
+         *
+         * @param y row
+         * @return false if the row does not cross the capsule
+         */
+        boolean span(int y) {
+            left = Integer.MAX_VALUE;
+            right = Integer.MIN_VALUE;
+            if (Math.abs(y - y0) <= radius) {//disc at the start point
+                int h = disc[y - y0 + radius];
+                left = x0 - h;
+                right = x0 + h;
+            }
+            if (Math.abs(y - y1) <= radius) {//disc at the end point
+                int h = disc[y - y1 + radius];
+                left = Math.min(left, x1 - h);
+                right = Math.max(right, x1 + h);
+            }
+            if (!body) {
+                return left <= right;
+            }
+            double ry = y - y0;
+            double lo = Double.NEGATIVE_INFINITY;
+            double hi = Double.POSITIVE_INFINITY;
+            if (!vertical) {
+                lo = ry * alongSlope + alongLo;
+                hi = ry * alongSlope + alongHi;
+            } else if (ry < alongLo || ry > alongHi) {
+                return left <= right;
+            }
+            if (!horizontal) {
+                double c = ry * acrossSlope;
+                lo = Math.max(lo, c - acrossHalf);
+                hi = Math.min(hi, c + acrossHalf);
+            } else if (Math.abs(ry) > acrossHalf) {
+                return left <= right;
+            }
+            if (lo <= hi) {//rounded inwards by truncating positive values
+                left = Math.min(left,
+                        x0 + OFFSET - (int) (OFFSET - lo + 1e-9));
+                right = Math.max(right,
+                        x0 + (int) (OFFSET + hi + 1e-9) - OFFSET);
+            }
+            return left <= right;
+        }
+
+        /**
+         * Keep spans of rows for the next segment
+         *
+         * @param top first row to be drawn
+         * @param bottom last row to be drawn
+         */
+        void beginRows(int top, int bottom) {
+            this.top = top;
+            this.bottom = bottom;
+            if (lefts.length < bottom - top + 1) {
+                lefts = new int[bottom - top + 1];
+                rights = new int[bottom - top + 1];
+            }
+        }
+    }
+
+    private static final int TILE_SIZE = TiledCanvas.TILE_SIZE;
+    //half widths of rows of discs, from the top row, by line width
+    private final Map<Float, int[]> discs = new HashMap<>();
+    private Capsule current = new Capsule();
+    private Capsule previous = new Capsule();
+    //tiles of the canvas and their pixels, null if absent; a tile is taken
+    //from the canvas when a span is filled in it first in drawSegments(),
+    //which is known by the stamp of the call
+    private BufferedImage[] targets = new BufferedImage[0];
+    private int[][] targetPixels = new int[0][];
+    private int[] targetStamps = new int[0];
+    private int stamp = 0;
+    private int[] taken = new int[16];//indices of tiles taken
+    private int numTaken = 0;
+    private TiledCanvas target;
+    private boolean create;
+    private int columns;//tiles in a row of the canvas
+    //a row of the color, for rasters without int[]
+    private final int[] row = new int[TILE_SIZE];
+    private int rowColor = -1;
+    private final boolean vector;//fill by SpanFill
+
+    /**
+     * Brush filling spans by the Vector API if it is available
+     */
+    RasterBrush() {
+        this(true);
+    }
+
+    /**
+     * Brush
+     *
+     * @param vector true for filling spans by the Vector API if it is
+     * available, false for Arrays.fill
+     */
+    RasterBrush(boolean vector) {
+        this.vector = vector && SpanFill.AVAILABLE;
+    }
+
+    /**
+     * Half widths of rows of the disc of a line width
+     *
+     * @param width line width
+     * @return half widths of rows from -radius to radius
+     */
+    int[] getDisc(float width) {
+        int[] disc = discs.get(width);
+        if (disc == null) {
+            double r = width / 2.;
+            int radius = (int) Math.floor(r);
+            disc = new int[2 * radius + 1];
+            for (int dy = -radius; dy <= radius; dy++) {
+                disc[dy + radius]
+                        = (int) Math.floor(Math.sqrt(r * r - dy * dy) + 1e-9);
+            }
+            discs.put(width, disc);
+        }
+        return disc;
+    }
+
+    /**
+     * Draw connected segments, as TiledCanvas.drawSegments() does
+     *
+     * @param canvas canvas
+     * @param xs x coordinates of points
+     * @param ys y coordinates of points
+     * @param offset index of the first point
+     * @param n number of points
+     * @param color color of lines
+     * @param width line width
+     */
+    void drawSegments(TiledCanvas canvas, int[] xs, int[] ys, int offset,
+            int n, Color color, float width) {
+        //tiles do not need to be created for painting background
+        create = color.getRGB() != canvas.getBackground().getRGB();
+        target = canvas;
+        columns = canvas.getNumTilesX();
+        if (targets.length < canvas.getNumTiles()) {
+            targets = new BufferedImage[canvas.getNumTiles()];
+            targetPixels = new int[canvas.getNumTiles()][];
+            targetStamps = new int[canvas.getNumTiles()];
+        }
+        if (++stamp == 0) {//all tiles are taken again
+            Arrays.fill(targetStamps, -1);
+        }
+        int rgb = color.getRGB() & 0xFFFFFF;
+        int[] disc = getDisc(width);
+        try {
+            for (int i = offset + 1; i < offset + n; i++) {
+                Capsule c = previous;
+                previous = current;
+                current = c;
+                current.set(xs[i - 1], ys[i - 1], xs[i], ys[i], width / 2.,
+                        disc);
+                drawSegment(canvas, rgb, i > offset + 1);
+            }
+        } finally {
+            target = null;
+            for (int i = 0; i < numTaken; i++) {
+                targets[taken[i]] = null;
+                targetPixels[taken[i]] = null;
+            }
+            numTaken = 0;
+        }
+    }
+
+    /**
+     * Draw the current capsule, except pixels of the previous one
+     */
+    private void drawSegment(TiledCanvas canvas, int rgb, boolean connected) {
+        Capsule c = current;
+        int xMin = Math.max(0, Math.min(c.x0, c.x1) - c.radius);
+        int xMax = Math.min(canvas.getWidth() - 1,
+                Math.max(c.x0, c.x1) + c.radius);
+        int yMin = Math.max(0, Math.min(c.y0, c.y1) - c.radius);
+        int yMax = Math.min(canvas.getHeight() - 1,
+                Math.max(c.y0, c.y1) + c.radius);
+        if (xMax < xMin || yMax < yMin) {
+            return;
+        }
+        c.beginRows(yMin, yMax);
+        Capsule p = previous;
+        for (int y = yMin; y <= yMax; y++) {
+            c.span(y);
+            int xl = Math.max(xMin, c.left);
+            int xr = Math.min(xMax, c.right);
+            c.lefts[y - yMin] = xl;
+            c.rights[y - yMin] = xr;
+            if (xl > xr) {
+                continue;
+            }
+            if (connected && y >= p.top && y <= p.bottom) {
+                //pixels filled by the previous one
+                int pl = p.lefts[y - p.top];
+                int pr = p.rights[y - p.top];
+                if (pl <= pr) {
+                    fillRow(y, xl, Math.min(xr, pl - 1), rgb);
+                    fillRow(y, Math.max(xl, pr + 1), xr, rgb);
+                    continue;
+                }
+            }
+            fillRow(y, xl, xr, rgb);
+        }
+    }
+
+    /**
+     * Take a tile from the canvas, after notifying listeners. Listeners are
+     * notified once in drawSegments(), as nothing else reads the canvas
+     * until it returns.
+     *
+     * @return false if the tile is absent
+     */
+    private boolean takeTarget(int k) {
+        if (targetStamps[k] != stamp) {
+            targetStamps[k] = stamp;
+            BufferedImage tile = target.beginWrite(k % columns, k / columns,
+                    create);
+            if (numTaken == taken.length) {
+                taken = Arrays.copyOf(taken, 2 * numTaken);
+            }
+            taken[numTaken++] = k;
+            targets[k] = tile;
+            targetPixels[k] = null;
+            if (tile != null) {
+                DataBuffer buffer = tile.getRaster().getDataBuffer();
+                if (buffer instanceof DataBufferInt) {
+                    targetPixels[k] = ((DataBufferInt) buffer).getData();
+                }
+            }
+        }
+        return targets[k] != null;
+    }
+
+    /**
+     * Fill pixels from xl to xr in a row, split at edges of tiles
+     */
+    private void fillRow(int y, int xl, int xr, int rgb) {
+        if (xl > xr) {
+            return;
+        }
+        int row0 = y / TILE_SIZE * columns;
+        for (int tx = xl / TILE_SIZE; tx <= xr / TILE_SIZE; tx++) {
+            int k = row0 + tx;
+            if (!takeTarget(k)) {
+                continue;
+            }
+            int l = Math.max(xl, tx * TILE_SIZE) - tx * TILE_SIZE;
+            int len = Math.min(xr, tx * TILE_SIZE + TILE_SIZE - 1)
+                    - tx * TILE_SIZE - l + 1;
+            fill(k, l, y % TILE_SIZE, len, rgb);
+        }
+    }
+
+    /**
+     * Fill a span in a row of a target tile
+     */
+    private void fill(int k, int x, int y, int len, int rgb) {
+        int[] pixels = targetPixels[k];
+        if (pixels != null) {
+            int start = y * TILE_SIZE + x;
+            if (vector) {
+                SpanFill.fill(pixels, start, start + len, rgb);
+            } else {
+                Arrays.fill(pixels, start, start + len, rgb);
+            }
+            return;
+        }
+        if (rowColor != rgb) {
+            Arrays.fill(row, rgb);
+            rowColor = rgb;
+        }
+        java.nio.IntBuffer mapped = MappedTileStore.getPixels(targets[k]);
+        if (mapped != null) {
+            mapped.put(y * TILE_SIZE + x, row, 0, len);
+        } else {
+            targets[k].getRaster().setDataElements(x, y, len, 1, row);
+        }
+    }
+}
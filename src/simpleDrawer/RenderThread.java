@@ -0,0 +1,376 @@
+package simpleDrawer;
+
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import utils.CompatibleImage;
+import utils.Metrics;
+
+/**
+ * Thread drawing on a canvas and rendering frames of the view
+ *
+ * Input events are passed by the event dispatch thread through an
+ * InputRing. The render thread handles them, draws the view into a back
+ * buffer, and publishes it by exchanging it with the buffer in the middle of
+ * three; the event dispatch thread exchanges the middle buffer with its
+ * front buffer when a newer frame is there, and only copies the front buffer
+ * to the screen. Each buffer keeps the region changed since it was drawn, so
+ * that only that region is drawn again.
+ *
+ * Other changes of the canvas are made on the event dispatch thread between
+ * lock() and unlock(); lock() also handles the events in the ring, so that
+ * they are applied in the order of input.
+ *
+ * @author tadaki
+ */
+class RenderThread implements Runnable {
+
+    /**
+     * Drawing done on the render thread, or by the holder of the lock
+     */
+    interface Painter {
+
+        /**
+         * Handle an input event
+         *
+         * @param event values of InputRing.FIELDS
+         */
+        void handleEvent(int[] event);
+
+        /**
+         * Finish drawing of handled events on the canvas
+         */
+        void update();
+
+        /**
+         * Draw a region of the view
+         *
+         * @param g destination in screen coordinates
+         * @param clip region in screen coordinates
+         * @param gc configuration of the screen on which it is shown
+         * @return number of pixels copied
+         */
+        long paintView(Graphics2D g, Rectangle clip, GraphicsConfiguration gc);
+    }
+
+    /**
+     * Image of the view
+     */
+    static class Frame {
+
+        private static final long SHOWN = Long.MIN_VALUE;//input time taken
+        private BufferedImage image = null;
+        private Destination destination = null;
+        private long sequence = 0;//of publication, 0 before
+        //oldest input shown first in this frame, 0 for none
+        private final AtomicLong inputTime = new AtomicLong();
+        private final Rectangle damage = new Rectangle();//to be drawn again
+
+        BufferedImage getImage() {
+            return image;
+        }
+
+        /**
+         * Size of the view in screen coordinates
+         */
+        int getWidth() {
+            return destination.width;
+        }
+
+        int getHeight() {
+            return destination.height;
+        }
+
+        /**
+         * Take System.nanoTime() of the oldest input shown first in this
+         * frame
+         *
+         * @return time, or 0 if no input or already taken
+         */
+        long takeInputTime() {
+            long t = inputTime.getAndSet(SHOWN);
+            return (t == SHOWN) ? 0 : t;
+        }
+    }
+
+    /**
+     * Screen on which frames are shown
+     */
+    private static class Destination {
+
+        final GraphicsConfiguration config;
+        final int width;//in screen coordinates
+        final int height;
+        final double scaleX;//device pixels per screen coordinate
+        final double scaleY;
+
+        Destination(GraphicsConfiguration config, int width, int height,
+                double scaleX, double scaleY) {
+            this.config = config;
+            this.width = width;
+            this.height = height;
+            this.scaleX = scaleX;
+            this.scaleY = scaleY;
+        }
+
+        boolean sameAs(Destination d) {
+            return d != null && config == d.config && width == d.width
+                    && height == d.height && scaleX == d.scaleX
+                    && scaleY == d.scaleY;
+        }
+    }
+
+    static final int RING_CAPACITY = 4096;
+    private final Painter painter;
+    private final Consumer<Rectangle> listener;//region of a new frame
+    private final InputRing ring = new InputRing(RING_CAPACITY);
+    private final ReentrantLock lock = new ReentrantLock();
+    private final int[] event = new int[InputRing.FIELDS];
+    private final Thread thread;
+    private volatile boolean running = true;
+    private final AtomicBoolean requested = new AtomicBoolean(false);
+    private volatile Destination destination = null;
+    //buffers; back is drawn by this thread, front is shown by the event
+    //dispatch thread, and middle is exchanged between them
+    private final Frame[] frames = {new Frame(), new Frame(), new Frame()};
+    private Frame back = frames[0];
+    private final AtomicReference<Frame> middle
+            = new AtomicReference<>(frames[1]);
+    private Frame front = frames[2];
+    private long published = 0;//sequence of the last frame
+    private long inputTime = 0;//oldest input not yet in a frame
+    private final Rectangle region = new Rectangle();//drawn in a frame
+
+    /**
+     * Create thread, not started
+     *
+     * @param painter drawing of events and of the view
+     * @param listener called on the render thread with the region of the
+     * view changed when a frame is published, for requesting repaint; the
+     * region is reused for the next frame
+     */
+    RenderThread(Painter painter, Consumer<Rectangle> listener) {
+        this.painter = painter;
+        this.listener = listener;
+        thread = new Thread(this, "RenderThread");
+        thread.setDaemon(true);
+    }
+
+    void start() {
+        thread.start();
+    }
+
+    /**
+     * Stop the thread. Events posted after this are dropped.
+     */
+    void dispose() {
+        running = false;
+        LockSupport.unpark(thread);
+    }
+
+    /**
+     * Pass an input event to the render thread. Called only on the event
+     * dispatch thread; yields to the render thread while the ring is full.
+     *
+     * @param type type of event
+     * @param x x coordinate
+     * @param y y coordinate
+     * @param value value depending on type
+     * @param aux value depending on type
+     * @param time System.nanoTime() of the input
+     */
+    void post(int type, int x, int y, int value, int aux, long time) {
+        if (!running) {
+            return;
+        }
+        while (!ring.offer(type, x, y, value, aux, time)) {
+            LockSupport.unpark(thread);
+            Thread.yield();
+        }
+        LockSupport.unpark(thread);
+    }
+
+    /**
+     * Wait for the render thread, and handle events in the ring. The canvas
+     * can then be changed until unlock().
+     */
+    void lock() {
+        lock.lock();
+        handleEvents();
+    }
+
+    void unlock() {
+        lock.unlock();
+    }
+
+    /**
+     * Keep the time of an input whose result is drawn while holding the lock
+     *
+     * @param time System.nanoTime() of the input
+     */
+    void input(long time) {
+        if (inputTime == 0) {
+            inputTime = time;
+        }
+    }
+
+    /**
+     * Draw a region of the view in the next frame. Called while holding the
+     * lock.
+     *
+     * @param r region in screen coordinates
+     */
+    void damage(Rectangle r) {
+        for (Frame f : frames) {
+            if (f.damage.isEmpty()) {
+                f.damage.setBounds(r);
+            } else {
+                f.damage.add(r);
+            }
+        }
+        request();
+    }
+
+    /**
+     * Draw the whole view in the next frame. Called while holding the lock.
+     */
+    void damageAll() {
+        damage(new Rectangle(0, 0, Integer.MAX_VALUE / 2,
+                Integer.MAX_VALUE / 2));
+    }
+
+    private void request() {
+        requested.set(true);
+        LockSupport.unpark(thread);
+    }
+
+    /**
+     * Set the screen on which frames are shown. Called by the event dispatch
+     * thread when painting; a new frame is drawn if the screen, the size or
+     * the scale has changed.
+     *
+     * @param gc configuration of the screen
+     * @param width width of the view in screen coordinates
+     * @param height height of the view in screen coordinates
+     * @param scaleX device pixels per screen coordinate
+     * @param scaleY device pixels per screen coordinate
+     */
+    void setDestination(GraphicsConfiguration gc, int width, int height,
+            double scaleX, double scaleY) {
+        Destination d = new Destination(gc, width, height, scaleX, scaleY);
+        if (!d.sameAs(destination)) {
+            destination = d;
+            request();
+        }
+    }
+
+    /**
+     * Latest frame, for the event dispatch thread
+     *
+     * @return frame, or null before the first frame
+     */
+    Frame takeFrame() {
+        if (middle.get().sequence > front.sequence) {
+            front = middle.getAndSet(front);
+        }
+        return (front.sequence > 0) ? front : null;
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            Rectangle published = null;
+            lock.lock();
+            try {
+                handleEvents();
+                if (requested.getAndSet(false)) {
+                    published = render();
+                }
+            } finally {
+                lock.unlock();
+            }
+            if (published != null && !published.isEmpty()) {
+                listener.accept(published);
+            }
+            if (ring.isEmpty() && !requested.get()) {
+                LockSupport.park(this);
+            }
+        }
+    }
+
+    /**
+     * Handle events in the ring; called while holding the lock
+     */
+    private void handleEvents() {
+        boolean handled = false;
+        long time;
+        while ((time = ring.poll(event)) != InputRing.EMPTY) {
+            input(time);
+            painter.handleEvent(event);
+            handled = true;
+        }
+        if (handled) {
+            painter.update();
+        }
+    }
+
+    /**
+     * Draw the damaged region of the back buffer and publish it
+     *
+     * @return region drawn, reused by the next call, or null if no frame is
+     * published
+     */
+    private Rectangle render() {
+        Destination d = destination;
+        if (d == null || d.width <= 0 || d.height <= 0) {
+            return null;
+        }
+        long start = System.nanoTime();
+        Frame f = back;
+        if (!d.sameAs(f.destination)) {
+            int w = (int) Math.ceil(d.width * d.scaleX);
+            int h = (int) Math.ceil(d.height * d.scaleY);
+            if (!CompatibleImage.isCompatible(f.image, d.config, w, h)) {
+                f.image = CompatibleImage.create(d.config, w, h);
+            }
+            f.destination = d;
+            f.damage.setBounds(0, 0, d.width, d.height);
+        }
+        Rectangle r = region;
+        r.setBounds(0, 0, d.width, d.height);
+        Rectangle.intersect(r, f.damage, r);
+        f.damage.setBounds(0, 0, 0, 0);
+        if (!r.isEmpty()) {
+            Graphics2D g = f.image.createGraphics();
+            g.scale(d.scaleX, d.scaleY);
+            g.clip(r);
+            painter.paintView(g, r, d.config);
+            g.dispose();
+        }
+        f.inputTime.set(inputTime);
+        inputTime = 0;
+        f.sequence = ++published;
+        back = middle.getAndSet(f);
+        //input of a frame replaced before shown is shown first in f
+        long t = back.inputTime.getAndSet(0);
+        if (t != 0 && t != Frame.SHOWN) {
+            long current = f.inputTime.get();
+            while (current != Frame.SHOWN && !f.inputTime.compareAndSet(
+                    current, (current == 0 || t - current < 0) ? t : current)) {
+                current = f.inputTime.get();
+            }
+            if (current == Frame.SHOWN) {//f is already on screen
+                Metrics.INPUT_LATENCY.record(System.nanoTime() - t);
+            }
+        }
+        Metrics.RENDER.record(System.nanoTime() - start);
+        return r;
+    }
+}
@@ -6,8 +6,10 @@
 package simpleDrawer;
 
 import java.io.File;
+import java.io.IOException;
 import javax.swing.JColorChooser;
 import javax.swing.JFileChooser;
+import javax.swing.JOptionPane;
 import javax.swing.filechooser.FileNameExtensionFilter;
 
 /**
@@ -40,9 +42,21 @@ public class SimpleDrawerMain extends javax.swing.JFrame {
         jLabel1 = new javax.swing.JLabel();
         jSlider1 = new javax.swing.JSlider();
         eraser = new javax.swing.JToggleButton();
+        undo = new javax.swing.JButton();
+        redo = new javax.swing.JButton();
+        open = new javax.swing.JButton();
+        stats = new javax.swing.JToggleButton();
+        raster = new javax.swing.JToggleButton();
+        fill = new javax.swing.JToggleButton();
+        filter = new javax.swing.JButton();
         drawPanel = new simpleDrawer.DrawPanel();
 
         setDefaultCloseOperation(javax.swing.WindowConstants.EXIT_ON_CLOSE);
+        addWindowListener(new java.awt.event.WindowAdapter() {
+            public void windowClosing(java.awt.event.WindowEvent evt) {
+                formWindowClosing(evt);
+            }
+        });
 
         jPanel1.setBackground(new java.awt.Color(204, 255, 204));
         jPanel1.setLayout(new java.awt.GridBagLayout());
@@ -122,6 +136,83 @@ public class SimpleDrawerMain extends javax.swing.JFrame {
         gridBagConstraints.gridy = 0;
         jPanel1.add(eraser, gridBagConstraints);
 
+        undo.setText("UNDO");
+        undo.addActionListener(new java.awt.event.ActionListener() {
+            public void actionPerformed(java.awt.event.ActionEvent evt) {
+                undoActionPerformed(evt);
+            }
+        });
+        gridBagConstraints = new java.awt.GridBagConstraints();
+        gridBagConstraints.gridx = 4;
+        gridBagConstraints.gridy = 0;
+        jPanel1.add(undo, gridBagConstraints);
+
+        redo.setText("REDO");
+        redo.addActionListener(new java.awt.event.ActionListener() {
+            public void actionPerformed(java.awt.event.ActionEvent evt) {
+                redoActionPerformed(evt);
+            }
+        });
+        gridBagConstraints = new java.awt.GridBagConstraints();
+        gridBagConstraints.gridx = 4;
+        gridBagConstraints.gridy = 1;
+        jPanel1.add(redo, gridBagConstraints);
+
+        open.setText("OPEN");
+        open.addActionListener(new java.awt.event.ActionListener() {
+            public void actionPerformed(java.awt.event.ActionEvent evt) {
+                openActionPerformed(evt);
+            }
+        });
+        gridBagConstraints = new java.awt.GridBagConstraints();
+        gridBagConstraints.gridx = 5;
+        gridBagConstraints.gridy = 0;
+        jPanel1.add(open, gridBagConstraints);
+
+        stats.setText("STATS");
+        stats.addActionListener(new java.awt.event.ActionListener() {
+            public void actionPerformed(java.awt.event.ActionEvent evt) {
+                statsActionPerformed(evt);
+            }
+        });
+        gridBagConstraints = new java.awt.GridBagConstraints();
+        gridBagConstraints.gridx = 5;
+        gridBagConstraints.gridy = 1;
+        jPanel1.add(stats, gridBagConstraints);
+
+        raster.setText("RASTER");
+        raster.addActionListener(new java.awt.event.ActionListener() {
+            public void actionPerformed(java.awt.event.ActionEvent evt) {
+                rasterActionPerformed(evt);
+            }
+        });
+        gridBagConstraints = new java.awt.GridBagConstraints();
+        gridBagConstraints.gridx = 3;
+        gridBagConstraints.gridy = 1;
+        jPanel1.add(raster, gridBagConstraints);
+
+        fill.setText("FILL");
+        fill.addActionListener(new java.awt.event.ActionListener() {
+            public void actionPerformed(java.awt.event.ActionEvent evt) {
+                fillActionPerformed(evt);
+            }
+        });
+        gridBagConstraints = new java.awt.GridBagConstraints();
+        gridBagConstraints.gridx = 6;
+        gridBagConstraints.gridy = 0;
+        jPanel1.add(fill, gridBagConstraints);
+
+        filter.setText("FILTER");
+        filter.addActionListener(new java.awt.event.ActionListener() {
+            public void actionPerformed(java.awt.event.ActionEvent evt) {
+                filterActionPerformed(evt);
+            }
+        });
+        gridBagConstraints = new java.awt.GridBagConstraints();
+        gridBagConstraints.gridx = 6;
+        gridBagConstraints.gridy = 1;
+        jPanel1.add(filter, gridBagConstraints);
+
         getContentPane().add(jPanel1, java.awt.BorderLayout.NORTH);
 
         javax.swing.GroupLayout drawPanelLayout = new javax.swing.GroupLayout(drawPanel);
@@ -149,11 +240,18 @@ private void saveActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:ev
     JFileChooser chooser = new JFileChooser();
     FileNameExtensionFilter filter = new FileNameExtensionFilter(
             "Image", "png", "jpg");
+    chooser.addChoosableFileFilter(new FileNameExtensionFilter(
+            "Drawing journal", StrokeJournal.EXTENSION));
     chooser.setFileFilter(filter);
     int returnVal = chooser.showSaveDialog(this);
     if (returnVal == JFileChooser.APPROVE_OPTION) {
         File file = chooser.getSelectedFile();
-        drawPanel.saveImage(file);
+        String ext = utils.FileIO.getExtention(file.getName());
+        if (StrokeJournal.EXTENSION.equals(ext)) {
+            drawPanel.saveJournal(file);
+        } else {
+            drawPanel.saveImage(file);
+        }
     }
 }//GEN-LAST:event_saveActionPerformed
 
@@ -164,6 +262,9 @@ private void selectColorActionPerformed(java.awt.event.ActionEvent evt) {//GEN-F
 }//GEN-LAST:event_selectColorActionPerformed
 
 private void quitActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_quitActionPerformed
+    drawPanel.closeAutoSave();
+    drawPanel.closeJournal();
+    drawPanel.dispose();
     System.exit(0);
 }//GEN-LAST:event_quitActionPerformed
 
@@ -177,25 +278,117 @@ private void eraserActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:
     drawPanel.setEraser(erase);
 }//GEN-LAST:event_eraserActionPerformed
 
+private void undoActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_undoActionPerformed
+    drawPanel.undo();
+}//GEN-LAST:event_undoActionPerformed
+
+private void redoActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_redoActionPerformed
+    drawPanel.redo();
+}//GEN-LAST:event_redoActionPerformed
+
+private void openActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_openActionPerformed
+    JFileChooser chooser = new JFileChooser();
+    chooser.setFileFilter(new FileNameExtensionFilter(
+            "Drawing journal", StrokeJournal.EXTENSION));
+    int returnVal = chooser.showOpenDialog(this);
+    if (returnVal == JFileChooser.APPROVE_OPTION) {
+        drawPanel.openJournal(chooser.getSelectedFile());
+    }
+}//GEN-LAST:event_openActionPerformed
+
+private void statsActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_statsActionPerformed
+    drawPanel.setOverlayVisible(stats.isSelected());
+}//GEN-LAST:event_statsActionPerformed
+
+private void rasterActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_rasterActionPerformed
+    drawPanel.setRasterBrush(raster.isSelected());
+}//GEN-LAST:event_rasterActionPerformed
+
+private void fillActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_fillActionPerformed
+    drawPanel.setFillTool(fill.isSelected());
+}//GEN-LAST:event_fillActionPerformed
+
+private void filterActionPerformed(java.awt.event.ActionEvent evt) {//GEN-FIRST:event_filterActionPerformed
+    new FilterDialog(this, drawPanel).setVisible(true);
+}//GEN-LAST:event_filterActionPerformed
+
+private void formWindowClosing(java.awt.event.WindowEvent evt) {//GEN-FIRST:event_formWindowClosing
+    drawPanel.closeAutoSave();
+    drawPanel.closeJournal();
+    drawPanel.dispose();
+}//GEN-LAST:event_formWindowClosing
+
     /**
     * @param args the command line arguments
     */
     public static void main(String args[]) {
         java.awt.EventQueue.invokeLater(() -> {
-            new SimpleDrawerMain().setVisible(true);
+            SimpleDrawerMain frame = new SimpleDrawerMain();
+            frame.configure(args);
+            frame.setVisible(true);
+            frame.startAutoSave();
         });
     }
 
+    /**
+     * Offer recovery of the drawings left by the last runs, and save the
+     * drawing into a recovery file in the home directory. Files used by
+     * other running programs are not offered.
+     */
+    private void startAutoSave() {
+        File home = new File(System.getProperty("user.home"));
+        for (File file : AutoSave.findRecoverable(home)) {
+            int answer = JOptionPane.showConfirmDialog(this,
+                    "Recover the drawing not saved?", "Recovery",
+                    JOptionPane.YES_NO_OPTION);
+            if (answer == JOptionPane.YES_OPTION) {
+                drawPanel.recover(file);
+                return;
+            }
+            if (!file.getName().equals(AutoSave.FILE_NAME)) {
+                file.delete();//left by a program run beside another
+            }
+        }
+        drawPanel.setAutoSaveFile(AutoSave.newFile(home));
+    }
+
+    /**
+     * Configure canvas by command line arguments:
+     * [width height [storage file]]
+     *
+     * @param args the command line arguments
+     */
+    private void configure(String args[]) {
+        try {
+            if (args.length > 2) {//pixels in memory-mapped file
+                drawPanel.setStorageFile(new File(args[2]));
+            }
+            if (args.length > 1) {
+                drawPanel.setCanvasSize(
+                        Integer.parseInt(args[0]), Integer.parseInt(args[1]));
+            }
+        } catch (IOException | NumberFormatException ex) {
+            fileChooser.FileUtilGUI.showError(ex.getMessage());
+        }
+    }
+
     // Variables declaration - do not modify//GEN-BEGIN:variables
     private javax.swing.JButton clearImage;
     private simpleDrawer.DrawPanel drawPanel;
     private javax.swing.JToggleButton eraser;
+    private javax.swing.JToggleButton fill;
+    private javax.swing.JButton filter;
     private javax.swing.JLabel jLabel1;
     private javax.swing.JPanel jPanel1;
+    private javax.swing.JButton open;
     private javax.swing.JSlider jSlider1;
     private javax.swing.JButton quit;
+    private javax.swing.JToggleButton raster;
+    private javax.swing.JButton redo;
     private javax.swing.JButton save;
     private javax.swing.JButton selectColor;
+    private javax.swing.JToggleButton stats;
+    private javax.swing.JButton undo;
     // End of variables declaration//GEN-END:variables
 
 }
@@ -0,0 +1,61 @@
+package simpleDrawer;
+
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Fill of spans of int[] by the Vector API
+ *
+ * The API is in the incubator module jdk.incubator.vector, which is used
+ * only when it is added by --add-modules; otherwise AVAILABLE is false and
+ * spans are to be filled by Arrays.fill. The vector classes are not loaded
+ * until fill() is called.
+ *
+ * @author tadaki
+ */
+class SpanFill {
+
+    //true if jdk.incubator.vector is in the boot layer
+    static final boolean AVAILABLE = ModuleLayer.boot()
+            .findModule("jdk.incubator.vector").isPresent();
+
+    /**
+     * Vectors of the preferred width of the platform
+     */
+    private static class Lanes {
+
+        static final VectorSpecies<Integer> SPECIES
+                = IntVector.SPECIES_PREFERRED;
+        static final int LENGTH = SPECIES.length();
+    }
+
+    private SpanFill() {
+    }
+
+    /**
+     * Fill a span with a value, as Arrays.fill(a, from, to, value) does;
+     * AVAILABLE must be true
+     *
+     * @param a array
+     * @param from first index
+     * @param to index after the last
+     * @param value value
+     */
+    static void fill(int[] a, int from, int to, int value) {
+        int lanes = Lanes.LENGTH;
+        if (to - from < lanes) {//shorter than a vector
+            for (int i = from; i < to; i++) {
+                a[i] = value;
+            }
+            return;
+        }
+        IntVector v = IntVector.broadcast(Lanes.SPECIES, value);
+        int i = from;
+        for (; i <= to - lanes; i += lanes) {
+            v.intoArray(a, i);
+        }
+        if (i < to) {//the last vector overlaps the previous one
+            v.intoArray(a, to - lanes);
+        }
+    }
+}
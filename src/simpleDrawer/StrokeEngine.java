@@ -0,0 +1,190 @@
+package simpleDrawer;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import utils.Metrics;
+
+/**
+ * Engine for drawing strokes on a canvas
+ *
+ * Points given by mouse events are stored in primitive buffers and drawn
+ * together when flush() is called, typically once per frame. All points of
+ * the last stroke are kept until the next stroke begins. The canvas
+ * keeps long-lived Graphics2D objects for its tiles, so that no object is
+ * allocated while dragging. Strokes are drawn by Java2D with the
+ * BasicStroke, or by RasterBrush writing pixels of tiles directly.
+ *
+ * @author tadaki
+ */
+class StrokeEngine {
+
+    private static final int INITIAL_CAPACITY = 256;
+    private int[] xs = new int[INITIAL_CAPACITY];
+    private int[] ys = new int[INITIAL_CAPACITY];
+    private int numPoints = 0;//number of points of the stroke
+    private int numDrawn = 0;//number of points already drawn
+    private boolean active = false;//true while a stroke is drawn
+    private TiledCanvas canvas = null;
+    private Color color = null;
+    private BasicStroke stroke = null;
+    private boolean raster = false;//true for RasterBrush
+    private final RasterBrush brush = new RasterBrush();
+
+    /**
+     * Set the canvas on which strokes are drawn
+     *
+     * @param canvas target canvas
+     */
+    void setTarget(TiledCanvas canvas) {
+        if (this.canvas != null) {
+            flush();
+        }
+        this.canvas = canvas;
+    }
+
+    /**
+     * Start a new stroke
+     *
+     * @param x x of start point
+     * @param y y of start point
+     * @param c color of the stroke
+     * @param s stroke
+     * @param raster true for drawing by RasterBrush with the width of s
+     */
+    void begin(int x, int y, Color c, BasicStroke s, boolean raster) {
+        end();
+        color = c;
+        stroke = s;
+        this.raster = raster;
+        xs[0] = x;
+        ys[0] = y;
+        numPoints = 1;
+        numDrawn = 1;
+        active = true;
+    }
+
+    /**
+     * Append a point to the current stroke
+     *
+     * @param x x of the point
+     * @param y y of the point
+     */
+    void add(int x, int y) {
+        if (!active) {
+            return;
+        }
+        if (numPoints == xs.length) {//only while the buffer grows
+            xs = java.util.Arrays.copyOf(xs, 2 * numPoints);
+            ys = java.util.Arrays.copyOf(ys, 2 * numPoints);
+        }
+        xs[numPoints] = x;
+        ys[numPoints] = y;
+        numPoints++;
+    }
+
+    /**
+     * Draw points added since the last flush
+     */
+    void flush() {
+        if (!active || numPoints == numDrawn) {
+            return;
+        }
+        long start = System.nanoTime();
+        Metrics.StrokeFlushEvent event = new Metrics.StrokeFlushEvent();
+        event.begin();
+        //the segment from the last drawn point is included
+        if (raster) {
+            brush.drawSegments(canvas, xs, ys, numDrawn - 1,
+                    numPoints - numDrawn + 1, color, stroke.getLineWidth());
+        } else {
+            canvas.drawSegments(xs, ys, numDrawn - 1,
+                    numPoints - numDrawn + 1, color, stroke);
+        }
+        event.end();
+        if (event.shouldCommit()) {
+            event.segments = numPoints - numDrawn;
+            event.lineWidth = stroke.getLineWidth();
+            event.raster = raster;
+            event.commit();
+        }
+        Metrics.STROKE_FLUSH.record(System.nanoTime() - start);
+        numDrawn = numPoints;
+    }
+
+    /**
+     * Finish the current stroke
+     */
+    void end() {
+        if (!active) {
+            return;
+        }
+        flush();
+        active = false;
+    }
+
+    boolean isActive() {
+        return active;
+    }
+
+    /**
+     * x of the last point of the current stroke
+     *
+     * @return x coordinate
+     */
+    int getLastX() {
+        return xs[numPoints - 1];
+    }
+
+    /**
+     * y of the last point of the current stroke
+     *
+     * @return y coordinate
+     */
+    int getLastY() {
+        return ys[numPoints - 1];
+    }
+
+    /**
+     * x coordinates of the points of the current or last stroke
+     *
+     * @return array whose first getNumPoints() elements are valid
+     */
+    int[] getXs() {
+        return xs;
+    }
+
+    /**
+     * y coordinates of the points of the current or last stroke
+     *
+     * @return array whose first getNumPoints() elements are valid
+     */
+    int[] getYs() {
+        return ys;
+    }
+
+    int getNumPoints() {
+        return numPoints;
+    }
+
+    Color getColor() {
+        return color;
+    }
+
+    /**
+     * Whether the current or last stroke is drawn by RasterBrush
+     *
+     * @return true for RasterBrush
+     */
+    boolean isRaster() {
+        return raster;
+    }
+
+    /**
+     * Line width of the current stroke
+     *
+     * @return line width
+     */
+    float getLineWidth() {
+        return (stroke == null) ? 1.f : stroke.getLineWidth();
+    }
+}
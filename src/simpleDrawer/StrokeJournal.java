@@ -0,0 +1,773 @@
+package simpleDrawer;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.BitSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Journal of drawing commands
+ *
+ * Each stroke is appended to the journal file as a compact binary command,
+ * so that saving costs only the size of the new strokes. A checkpoint is
+ * written periodically to the checkpoint file as a record of the tiles
+ * changed since the previous one and the current length of the journal.
+ * Records are written on a background thread from a snapshot of the canvas.
+ * When the file holds many records, it is replaced by a single record of all
+ * tiles. A document is loaded from the complete records of the checkpoint
+ * file, followed by the commands written after the latest one.
+ *
+ * @author tadaki
+ */
+class StrokeJournal implements TiledCanvas.TileListener, Closeable {
+
+    private static final int MAGIC = 0x53444a31;//"SDJ1"
+    private static final int CHECKPOINT_MAGIC = 0x53444b32;//"SDK2"
+    private static final int HEADER_SIZE = 16;
+    private static final int STROKE = 1;
+    private static final int CLEAR = 2;
+    private static final int TILES = 3;//pixels of tiles, after undo or redo
+    private static final int RASTER_STROKE = 4;//stroke drawn by RasterBrush
+    private static final int FILL = 5;//flood fill
+    static final int CHECKPOINT_INTERVAL = 64;//commands between checkpoints
+    static final int COMPACT_RECORDS = 16;//records before rewriting the file
+    static final String EXTENSION = "sdj";
+    private static final int TILE_PIXELS
+            = TiledCanvas.TILE_SIZE * TiledCanvas.TILE_SIZE;
+
+    private final File file;
+    private final File checkpointFile;
+    private final TiledCanvas canvas;
+    private DataOutputStream out;
+    private CountingOutput counter;//bytes of out, beyond 2 GB unlike size()
+    private long length;//bytes written to the journal
+    private long checkpointed = -1;//length at the latest checkpoint
+    private int commandsSinceCheckpoint = 0;
+    private final BitSet dirty = new BitSet();//changed since checkpoint
+    private final ExecutorService writer
+            = Executors.newSingleThreadExecutor(r -> {
+                Thread thread = new Thread(r, "StrokeJournal");
+                thread.setDaemon(true);
+                return thread;
+            });
+    private Future<?> pending = null;
+    private volatile IOException error = null;
+    //checkpoint file, used by the writer
+    private DataOutputStream checkpointOut = null;
+    private int records = COMPACT_RECORDS;//in the file; rewritten if many
+    private final BufferedImage work = new BufferedImage(
+            TiledCanvas.TILE_SIZE, TiledCanvas.TILE_SIZE,
+            BufferedImage.TYPE_INT_RGB);
+    private final int[] workPixels
+            = ((DataBufferInt) work.getRaster().getDataBuffer()).getData();
+    private final TileEncoder checkpointEncoder = new TileEncoder();
+    //work area for tiles, used by the thread drawing on the canvas
+    private final int[] pixels = new int[TILE_PIXELS];
+    private final TileEncoder encoder = new TileEncoder();
+    private final byte[] bytes = new byte[4 * TILE_PIXELS];
+    private final Inflater inflater = new Inflater();
+
+    private StrokeJournal(File file, TiledCanvas canvas) {
+        this.file = file;
+        this.checkpointFile = new File(file.getPath() + ".ckpt");
+        this.canvas = canvas;
+    }
+
+    /**
+     * Create a new journal for the canvas. The current content of the canvas
+     * is written as the first checkpoint.
+     *
+     * @param file journal file
+     * @param canvas canvas
+     * @return journal
+     * @throws IOException
+     */
+    static StrokeJournal create(File file, TiledCanvas canvas)
+            throws IOException {
+        StrokeJournal journal = new StrokeJournal(file, canvas);
+        try (DataOutputStream header = new DataOutputStream(
+                new FileOutputStream(file))) {
+            header.writeInt(MAGIC);
+            header.writeInt(canvas.getWidth());
+            header.writeInt(canvas.getHeight());
+            header.writeInt(canvas.getBackground().getRGB());
+            journal.length = header.size();
+        }
+        journal.openForAppend();
+        canvas.addTileListener(journal);
+        try {
+            journal.flush();
+        } catch (IOException ex) {
+            journal.stop();
+            throw ex;
+        }
+        return journal;
+    }
+
+    /**
+     * Open an existing journal. A canvas is created from the latest
+     * checkpoint and the commands written after it.
+     *
+     * @param file journal file
+     * @param store storage of tiles of the canvas
+     * @return journal
+     * @throws IOException
+     */
+    static StrokeJournal open(File file, TileStore store) throws IOException {
+        StrokeJournal journal;
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException(file.getName() + " is not a journal");
+            }
+            int width = in.readInt();
+            int height = in.readInt();
+            Color background = new Color(in.readInt());
+            if (!TiledCanvas.isValidSize(width, height)) {
+                throw new IOException("Broken journal: size " + width
+                        + "x" + height);
+            }
+            TiledCanvas canvas
+                    = new TiledCanvas(width, height, background, store);
+            journal = new StrokeJournal(file, canvas);
+            long position = journal.readCheckpoint();
+            if (position > file.length()) {//stale, the journal was truncated
+                journal.discardCheckpoint();
+                position = -1;
+            }
+            if (position < HEADER_SIZE) {//no valid checkpoint
+                position = HEADER_SIZE;
+            } else {
+                in.skipNBytes(position - HEADER_SIZE);
+            }
+            //tiles changed by replaying are written at the next checkpoint
+            canvas.addTileListener(journal);
+            journal.length = journal.replay(in, position);
+        }
+        //discard a command partially written before a crash
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(journal.length);
+        }
+        journal.openForAppend();
+        return journal;
+    }
+
+    TiledCanvas getCanvas() {
+        return canvas;
+    }
+
+    File getFile() {
+        return file;
+    }
+
+    private void openForAppend() throws IOException {
+        counter = new CountingOutput(new BufferedOutputStream(
+                new FileOutputStream(file, true)), length);
+        out = new DataOutputStream(counter);
+    }
+
+    @Override
+    public void beforeWrite(int index) {
+        dirty.set(index);
+    }
+
+    /**
+     * Append a stroke
+     *
+     * @param xs x coordinates of points
+     * @param ys y coordinates of points
+     * @param n number of points
+     * @param color color of the stroke
+     * @param width line width
+     * @param eraser true for eraser
+     * @param raster true for stroke drawn by RasterBrush
+     * @throws IOException
+     */
+    void writeStroke(int[] xs, int[] ys, int n, Color color, float width,
+            boolean eraser, boolean raster) throws IOException {
+        out.writeByte(raster ? RASTER_STROKE : STROKE);
+        out.writeInt(color.getRGB());
+        out.writeFloat(width);
+        out.writeBoolean(eraser);
+        writeVarInt(n);
+        int x = 0;
+        int y = 0;
+        for (int i = 0; i < n; i++) {//differences from previous points
+            writeVarInt(zigzag(xs[i] - x));
+            writeVarInt(zigzag(ys[i] - y));
+            x = xs[i];
+            y = ys[i];
+        }
+        finishCommand();
+    }
+
+    /**
+     * Append flood fill
+     *
+     * @param x x of the point
+     * @param y y of the point
+     * @param color new color of the region
+     * @throws IOException
+     */
+    void writeFill(int x, int y, Color color) throws IOException {
+        out.writeByte(FILL);
+        writeVarInt(x);
+        writeVarInt(y);
+        out.writeInt(color.getRGB());
+        finishCommand();
+    }
+
+    /**
+     * Append clear
+     *
+     * @throws IOException
+     */
+    void writeClear() throws IOException {
+        out.writeByte(CLEAR);
+        finishCommand();
+    }
+
+    /**
+     * Append the current pixels of tiles in a region, used for undo and redo
+     *
+     * @param region region of canvas
+     * @throws IOException
+     */
+    void writeRegion(Rectangle region) throws IOException {
+        out.writeByte(TILES);
+        int size = TiledCanvas.TILE_SIZE;
+        int tx0 = Math.max(0, region.x / size);
+        int ty0 = Math.max(0, region.y / size);
+        int tx1 = Math.min(canvas.getNumTilesX() - 1,
+                (region.x + region.width - 1) / size);
+        int ty1 = Math.min(canvas.getNumTilesY() - 1,
+                (region.y + region.height - 1) / size);
+        writeVarInt(Math.max(0, (tx1 - tx0 + 1) * (ty1 - ty0 + 1)));
+        for (int ty = ty0; ty <= ty1; ty++) {
+            for (int tx = tx0; tx <= tx1; tx++) {
+                writeTile(out, ty * canvas.getNumTilesX() + tx);
+            }
+        }
+        finishCommand();
+    }
+
+    private void finishCommand() throws IOException {
+        out.flush();
+        length = counter.count;
+        commandsSinceCheckpoint++;
+        if (commandsSinceCheckpoint >= CHECKPOINT_INTERVAL) {
+            checkpoint();
+        }
+    }
+
+    /**
+     * Start writing tiles changed since the last checkpoint and the current
+     * length of the journal in background. Nothing is done while the
+     * previous checkpoint is being written; its tiles are written by the
+     * next call.
+     *
+     * @throws IOException if the previous checkpoint has failed
+     */
+    void checkpoint() throws IOException {
+        if (error != null) {
+            throw error;
+        }
+        if (length == checkpointed
+                || (pending != null && !pending.isDone())) {
+            return;
+        }
+        BitSet tiles = (BitSet) dirty.clone();
+        dirty.clear();
+        long position = length;
+        CanvasSnapshot snapshot = canvas.snapshot();
+        pending = writer.submit(() -> write(snapshot, tiles, position));
+        checkpointed = length;
+        commandsSinceCheckpoint = 0;
+    }
+
+    /**
+     * Write a checkpoint of all commands and wait for the end of writing
+     *
+     * @throws IOException
+     */
+    void flush() throws IOException {
+        waitWriter();
+        checkpoint();
+        waitWriter();
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    private void waitWriter() throws IOException {
+        if (pending == null) {
+            return;
+        }
+        try {
+            pending.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Checkpoint interrupted");
+        } catch (ExecutionException ex) {
+            throw new IOException(ex.getCause());
+        }
+    }
+
+    /**
+     * Append a record of tiles from a snapshot to the checkpoint file, or
+     * replace the file with a record of all tiles when it holds many records
+     *
+     * A record is the length of the journal, the number of tiles, the tiles
+     * and the magic number, which marks the record complete.
+     */
+    private void write(CanvasSnapshot snapshot, BitSet tiles, long position) {
+        try {
+            if (records >= COMPACT_RECORDS) {
+                closeCheckpointFile();
+                File tmp = new File(checkpointFile.getPath() + ".tmp");
+                try (DataOutputStream o = new DataOutputStream(
+                        new BufferedOutputStream(new FileOutputStream(tmp)))) {
+                    o.writeInt(CHECKPOINT_MAGIC);
+                    BitSet all = new BitSet();
+                    all.set(0, canvas.getNumTiles());
+                    writeRecord(o, snapshot, all, position);
+                }
+                Files.move(tmp.toPath(), checkpointFile.toPath(),
+                        StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+                records = 1;
+            } else {
+                if (checkpointOut == null) {
+                    checkpointOut = new DataOutputStream(
+                            new BufferedOutputStream(new FileOutputStream(
+                                    checkpointFile, true)));
+                }
+                writeRecord(checkpointOut, snapshot, tiles, position);
+                checkpointOut.flush();
+                records++;
+            }
+        } catch (IOException | RuntimeException ex) {
+            error = (ex instanceof IOException)
+                    ? (IOException) ex : new IOException(ex);
+        } finally {
+            javax.swing.SwingUtilities.invokeLater(snapshot::release);
+        }
+    }
+
+    private void writeRecord(DataOutputStream o, CanvasSnapshot snapshot,
+            BitSet tiles, long position) throws IOException {
+        o.writeLong(position);
+        writeVarInt(o, tiles.cardinality());
+        for (int i = tiles.nextSetBit(0); i >= 0; i = tiles.nextSetBit(i + 1)) {
+            Rectangle bounds = canvas.getTileBounds(i);
+            boolean present = snapshot.copyTile(i, bounds, work.getRaster()
+                    .createWritableTranslatedChild(bounds.x, bounds.y));
+            checkpointEncoder.write(o, i, present ? workPixels : null);
+        }
+        o.writeInt(CHECKPOINT_MAGIC);
+    }
+
+    private void closeCheckpointFile() throws IOException {
+        if (checkpointOut != null) {
+            checkpointOut.close();
+            checkpointOut = null;
+        }
+    }
+
+    /**
+     * Load tiles from the complete records of the checkpoint file, and
+     * discard a record partially written before a crash
+     *
+     * @return length of journal at the latest checkpoint, or -1 if not
+     * available
+     */
+    private long readCheckpoint() {
+        if (!checkpointFile.isFile()) {
+            return -1;
+        }
+        long position = -1;
+        long valid = 0;//end of the last complete record
+        boolean applying = false;
+        try (DataInputStream raw = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(checkpointFile)))) {
+            CountingInput counter = new CountingInput(raw, 0);
+            DataInputStream in = new DataInputStream(counter);
+            if (in.readInt() != CHECKPOINT_MAGIC) {
+                return -1;
+            }
+            valid = counter.count;
+            records = 0;
+            while (true) {
+                long p;
+                try {
+                    p = in.readLong();
+                } catch (EOFException ex) {
+                    break;
+                }
+                int n = readVarInt(in);
+                if (n < 0 || n > canvas.getNumTiles()) {
+                    break;
+                }
+                int[] indices = new int[n];
+                byte[][] data = new byte[n][];
+                for (int i = 0; i < n; i++) {
+                    indices[i] = readVarInt(in);
+                    data[i] = readTileData(in, indices[i]);
+                }
+                if (in.readInt() != CHECKPOINT_MAGIC) {
+                    break;
+                }
+                applying = true;
+                for (int i = 0; i < n; i++) {
+                    writeTile(indices[i], data[i]);
+                }
+                applying = false;
+                position = p;
+                valid = counter.count;
+                records++;
+            }
+        } catch (IOException ex) {
+            if (position < 0 || applying) {//tiles of a broken record
+                canvas.clear();
+                records = COMPACT_RECORDS;
+                return -1;
+            }
+            //an incomplete record at the end
+        }
+        try (RandomAccessFile raf
+                = new RandomAccessFile(checkpointFile, "rw")) {
+            raf.setLength(valid);
+        } catch (IOException ex) {
+            records = COMPACT_RECORDS;//rewritten at the next checkpoint
+        }
+        checkpointed = position;
+        return position;
+    }
+
+    /**
+     * Remove tiles loaded from the checkpoint file and delete it; all tiles
+     * are written at the next checkpoint
+     *
+     * @throws IOException
+     */
+    private void discardCheckpoint() throws IOException {
+        canvas.clear();
+        records = COMPACT_RECORDS;
+        checkpointed = -1;
+        Files.deleteIfExists(checkpointFile.toPath());
+    }
+
+    /**
+     * Apply commands in journal to the canvas
+     *
+     * @param in input positioned at a command
+     * @param position position of input
+     * @return position after the last complete command
+     * @throws IOException
+     */
+    private long replay(DataInputStream in, long position) throws IOException {
+        CountingInput counter = new CountingInput(in, position);
+        DataInputStream data = new DataInputStream(counter);
+        int[] xs = new int[256];
+        int[] ys = new int[256];
+        BasicStroke stroke = new BasicStroke();
+        RasterBrush brush = new RasterBrush();
+        FloodFill floodFill = new FloodFill();
+        while (true) {
+            try {
+                int command = data.read();
+                if (command < 0) {
+                    break;
+                }
+                if (command == STROKE || command == RASTER_STROKE) {
+                    Color color = new Color(data.readInt());
+                    float width = data.readFloat();
+                    boolean eraser = data.readBoolean();
+                    int n = readVarInt(data);
+                    if (xs.length < n) {
+                        xs = new int[n];
+                        ys = new int[n];
+                    }
+                    int x = 0;
+                    int y = 0;
+                    for (int i = 0; i < n; i++) {
+                        x += unzigzag(readVarInt(data));
+                        y += unzigzag(readVarInt(data));
+                        xs[i] = x;
+                        ys[i] = y;
+                    }
+                    if (eraser) {
+                        color = canvas.getBackground();
+                    }
+                    if (command == RASTER_STROKE) {
+                        brush.drawSegments(canvas, xs, ys, 0, n, color, width);
+                    } else {
+                        if (stroke.getLineWidth() != width) {
+                            stroke = new BasicStroke(width);
+                        }
+                        canvas.drawSegments(xs, ys, 0, n, color, stroke);
+                    }
+                } else if (command == FILL) {
+                    int x = readVarInt(data);
+                    int y = readVarInt(data);
+                    Color color = new Color(data.readInt());
+                    floodFill.fill(canvas, x, y, color);
+                } else if (command == CLEAR) {
+                    canvas.clear();
+                } else if (command == TILES) {
+                    int n = readVarInt(data);
+                    for (int i = 0; i < n; i++) {
+                        readTile(data);
+                    }
+                } else {
+                    throw new IOException("Broken journal");
+                }
+                position = counter.count;
+            } catch (EOFException ex) {//incomplete command at the end
+                break;
+            }
+        }
+        return position;
+    }
+
+    /**
+     * Write index and compressed pixels of tile; absent tiles are written
+     * with length 0
+     */
+    private void writeTile(DataOutputStream o, int index) throws IOException {
+        encoder.write(o, index, canvas.readPixels(index, pixels));
+    }
+
+    private void readTile(DataInputStream in) throws IOException {
+        int index = readVarInt(in);
+        writeTile(index, readTileData(in, index));
+    }
+
+    /**
+     * Read compressed pixels of tile
+     *
+     * @return compressed pixels, or null for absent tile
+     */
+    private byte[] readTileData(DataInputStream in, int index)
+            throws IOException {
+        int size = readVarInt(in);
+        if (index < 0 || index >= canvas.getNumTiles()
+                || size < 0 || size > 2 * bytes.length) {
+            throw new IOException("Broken tile");
+        }
+        if (size == 0) {
+            return null;
+        }
+        byte[] data = new byte[size];
+        in.readFully(data);
+        return data;
+    }
+
+    private void writeTile(int index, byte[] data) throws IOException {
+        if (data == null) {
+            canvas.writePixels(index, null);
+            return;
+        }
+        inflater.reset();
+        inflater.setInput(data);
+        try {
+            int n = 0;
+            while (n < bytes.length && !inflater.finished()) {
+                int k = inflater.inflate(bytes, n, bytes.length - n);
+                if (k == 0 && inflater.needsInput()) {
+                    throw new IOException("Broken tile");
+                }
+                n += k;
+            }
+        } catch (DataFormatException ex) {
+            throw new IOException(ex);
+        }
+        ByteBuffer.wrap(bytes).asIntBuffer().get(pixels);
+        canvas.writePixels(index, pixels);
+    }
+
+    private void writeVarInt(int v) throws IOException {
+        writeVarInt(out, v);
+    }
+
+    private static void writeVarInt(DataOutputStream o, int v)
+            throws IOException {
+        while ((v & ~0x7f) != 0) {
+            o.writeByte((v & 0x7f) | 0x80);
+            v >>>= 7;
+        }
+        o.writeByte(v);
+    }
+
+    private static int readVarInt(DataInputStream in) throws IOException {
+        int v = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = in.readUnsignedByte();
+            v |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return v;
+            }
+        }
+        throw new IOException("Broken journal");
+    }
+
+    private static int zigzag(int v) {
+        return (v << 1) ^ (v >> 31);
+    }
+
+    private static int unzigzag(int v) {
+        return (v >>> 1) ^ -(v & 1);
+    }
+
+    /**
+     * Write a checkpoint of all commands and close the files
+     *
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        if (out != null) {
+            try {
+                flush();
+            } finally {
+                stop();
+            }
+        }
+    }
+
+    private void stop() throws IOException {
+        canvas.removeTileListener(this);
+        writer.shutdown();
+        try {
+            waitWriter();
+        } finally {
+            try {
+                closeCheckpointFile();
+            } finally {
+                out.close();
+                out = null;
+            }
+        }
+    }
+
+    /**
+     * Compressor of tiles, one for each thread writing tiles
+     */
+    private static class TileEncoder {
+
+        private final byte[] bytes = new byte[4 * TILE_PIXELS];
+        private final byte[] chunk = new byte[8192];
+        private final ByteArrayOutputStream compressed
+                = new ByteArrayOutputStream();
+        private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+
+        /**
+         * Write index and compressed pixels of tile
+         *
+         * @param o output
+         * @param index index of tile
+         * @param pixels pixels of tile, or null for absent tile
+         * @throws IOException
+         */
+        void write(DataOutputStream o, int index, int[] pixels)
+                throws IOException {
+            writeVarInt(o, index);
+            if (pixels == null) {
+                writeVarInt(o, 0);
+                return;
+            }
+            ByteBuffer.wrap(bytes).asIntBuffer().put(pixels);
+            deflater.reset();
+            deflater.setInput(bytes);
+            deflater.finish();
+            compressed.reset();
+            while (!deflater.finished()) {
+                int k = deflater.deflate(chunk);
+                compressed.write(chunk, 0, k);
+            }
+            writeVarInt(o, compressed.size());
+            compressed.writeTo(o);
+        }
+    }
+
+    /**
+     * Output counting bytes written, as a long
+     */
+    private static class CountingOutput extends java.io.FilterOutputStream {
+
+        long count;
+
+        CountingOutput(java.io.OutputStream out, long count) {
+            super(out);
+            this.count = count;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+
+    /**
+     * Input counting bytes read, for finding the end of the last complete
+     * command
+     */
+    private static class CountingInput extends java.io.FilterInputStream {
+
+        long count;
+
+        CountingInput(DataInputStream in, long count) {
+            super(in);
+            this.count = count;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                count += n;
+            }
+            return n;
+        }
+    }
+}
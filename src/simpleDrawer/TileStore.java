@@ -0,0 +1,69 @@
+package simpleDrawer;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import utils.ImagePool;
+
+/**
+ * Storage of pixels of tiles in TiledCanvas
+ *
+ * @author tadaki
+ */
+interface TileStore {
+
+    /**
+     * Create image for a tile. The content of the image is undefined.
+     *
+     * @param index index of tile in the canvas
+     * @param size width and height of tile
+     * @return image of the tile
+     */
+    BufferedImage createTile(int index, int size);
+
+    /**
+     * Return image of a removed tile, which may be reused by createTile()
+     *
+     * @param index index of tile in the canvas
+     * @param tile image created by this storage, not used any more
+     */
+    void releaseTile(int index, BufferedImage tile);
+
+    /**
+     * Whether images of tiles are independent of indices, so that a removed
+     * tile can be kept while a new tile is created at its index
+     *
+     * @return true if removed tiles can be kept
+     */
+    boolean canMoveTiles();
+
+    /**
+     * Release the storage
+     *
+     * @throws IOException
+     */
+    void close() throws IOException;
+
+    /**
+     * Storage on Java heap, recycling images of removed tiles
+     */
+    TileStore HEAP = new TileStore() {
+        @Override
+        public BufferedImage createTile(int index, int size) {
+            return ImagePool.SHARED.acquire(size, size);
+        }
+
+        @Override
+        public void releaseTile(int index, BufferedImage tile) {
+            ImagePool.SHARED.release(tile);
+        }
+
+        @Override
+        public boolean canMoveTiles() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    };
+}
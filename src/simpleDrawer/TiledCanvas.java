@@ -0,0 +1,540 @@
+package simpleDrawer;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.geom.Line2D;
+import java.awt.image.BufferedImage;
+
+/**
+ * Canvas consisting of square tiles
+ *
+ * A tile is created when it is drawn on for the first time. Tiles not yet
+ * created are regarded as filled with the background color, so that memory
+ * grows with the drawn area, not with the size of the canvas.
+ *
+ * @author tadaki
+ */
+class TiledCanvas {
+
+    static final int TILE_SIZE = 256;
+    static final int MAX_SIZE = 1 << 16;//of width and height read from files
+    private final int width;
+    private final int height;
+    private final int numTilesX;
+    private final int numTilesY;
+    private final BufferedImage[] tiles;
+    private final Graphics2D[] tileGraphics;//long-lived graphics of tiles
+    private final Color background;
+    private final TileStore store;
+    //snapshots are released by other threads while tiles are written
+    private final java.util.List<TileListener> listeners
+            = new java.util.concurrent.CopyOnWriteArrayList<>();
+    //copies in Java heap of tiles of MappedTileStore being drawn on
+    private static final int HEAP_TILES = 8;
+    private final BufferedImage[] heapTiles = new BufferedImage[HEAP_TILES];
+    private final Graphics2D[] heapGraphics = new Graphics2D[HEAP_TILES];
+    private final int[] heapIndices = {-1, -1, -1, -1, -1, -1, -1, -1};
+    private int nextHeapTile = 0;//replaced when all are used
+
+    /**
+     * Listener notified before pixels of a tile are changed
+     */
+    interface TileListener {
+
+        /**
+         * Called before a tile is created, drawn on or removed
+         *
+         * @param index index of the tile
+         */
+        void beforeWrite(int index);
+    }
+
+    /**
+     * Create canvas with tiles on Java heap
+     *
+     * @param width width of canvas
+     * @param height height of canvas
+     * @param background background color
+     */
+    TiledCanvas(int width, int height, Color background) {
+        this(width, height, background, TileStore.HEAP);
+    }
+
+    /**
+     * Create canvas
+     *
+     * @param width width of canvas
+     * @param height height of canvas
+     * @param background background color
+     * @param store storage of tiles
+     */
+    TiledCanvas(int width, int height, Color background, TileStore store) {
+        this.width = width;
+        this.height = height;
+        this.background = background;
+        this.store = store;
+        numTilesX = (width + TILE_SIZE - 1) / TILE_SIZE;
+        numTilesY = (height + TILE_SIZE - 1) / TILE_SIZE;
+        tiles = new BufferedImage[numTilesX * numTilesY];
+        tileGraphics = new Graphics2D[numTilesX * numTilesY];
+    }
+
+    /**
+     * Whether a size read from a file can be allocated as a canvas
+     *
+     * @param width width of canvas
+     * @param height height of canvas
+     * @return true if both are positive and at most MAX_SIZE
+     */
+    static boolean isValidSize(int width, int height) {
+        return width > 0 && height > 0
+                && width <= MAX_SIZE && height <= MAX_SIZE;
+    }
+
+    int getWidth() {
+        return width;
+    }
+
+    int getHeight() {
+        return height;
+    }
+
+    int getNumTilesX() {
+        return numTilesX;
+    }
+
+    int getNumTilesY() {
+        return numTilesY;
+    }
+
+    Color getBackground() {
+        return background;
+    }
+
+    int getNumTiles() {
+        return tiles.length;
+    }
+
+    void addTileListener(TileListener listener) {
+        listeners.add(listener);
+    }
+
+    void removeTileListener(TileListener listener) {
+        listeners.remove(listener);
+    }
+
+    private void fireBeforeWrite(int index) {
+        for (TileListener listener : listeners) {
+            listener.beforeWrite(index);
+        }
+    }
+
+    /**
+     * Get tile
+     *
+     * @param tx horizontal index of tile
+     * @param ty vertical index of tile
+     * @return tile, or null if the tile is not created
+     */
+    BufferedImage getTile(int tx, int ty) {
+        return tiles[ty * numTilesX + tx];
+    }
+
+    /**
+     * Get tile
+     *
+     * @param index index of tile
+     * @return tile, or null if the tile is not created
+     */
+    BufferedImage getTile(int index) {
+        return tiles[index];
+    }
+
+    /**
+     * Bounds of tile in canvas coordinates
+     *
+     * @param index index of tile
+     * @return bounds of tile
+     */
+    java.awt.Rectangle getTileBounds(int index) {
+        return new java.awt.Rectangle((index % numTilesX) * TILE_SIZE,
+                (index / numTilesX) * TILE_SIZE, TILE_SIZE, TILE_SIZE);
+    }
+
+    /**
+     * Copy pixels of tile
+     *
+     * @param index index of tile
+     * @param pixels destination of TILE_SIZE*TILE_SIZE pixels
+     * @return pixels, or null if the tile is not created
+     */
+    int[] readPixels(int index, int[] pixels) {
+        BufferedImage tile = tiles[index];
+        if (tile == null) {
+            return null;
+        }
+        return readTile(tile, pixels);
+    }
+
+    /**
+     * Copy pixels of an image of a tile, in bulk for MappedTileStore
+     *
+     * @param tile image of a tile
+     * @param pixels destination of TILE_SIZE*TILE_SIZE pixels, or null
+     * @return pixels
+     */
+    static int[] readTile(BufferedImage tile, int[] pixels) {
+        java.nio.IntBuffer mapped = MappedTileStore.getPixels(tile);
+        if (mapped == null) {
+            return (int[]) tile.getRaster().getDataElements(
+                    0, 0, TILE_SIZE, TILE_SIZE, pixels);
+        }
+        if (pixels == null) {
+            pixels = new int[TILE_SIZE * TILE_SIZE];
+        }
+        mapped.get(0, pixels, 0, TILE_SIZE * TILE_SIZE);
+        return pixels;
+    }
+
+    /**
+     * Replace pixels of tile
+     *
+     * @param index index of tile
+     * @param pixels TILE_SIZE*TILE_SIZE pixels, or null for removing tile
+     */
+    void writePixels(int index, int[] pixels) {
+        if (pixels == null) {
+            removeTile(index);
+            return;
+        }
+        fireBeforeWrite(index);
+        touchTile(index % numTilesX, index / numTilesX);
+        java.nio.IntBuffer mapped = MappedTileStore.getPixels(tiles[index]);
+        if (mapped == null) {
+            tiles[index].getRaster().setDataElements(
+                    0, 0, TILE_SIZE, TILE_SIZE, pixels);
+        } else {
+            mapped.put(0, pixels, 0, TILE_SIZE * TILE_SIZE);
+        }
+    }
+
+    private void removeTile(int index) {
+        BufferedImage tile = takeTile(index);
+        if (tile != null) {
+            store.releaseTile(index, tile);
+        }
+    }
+
+    /**
+     * Whether removed tiles can be kept by takeTile()
+     *
+     * @return true if the storage allows it
+     */
+    boolean canMoveTiles() {
+        return store.canMoveTiles();
+    }
+
+    /**
+     * Remove tile without releasing it to the storage. The tile is filled
+     * with background on the canvas.
+     *
+     * @param index index of tile
+     * @return tile, or null if the tile is not created
+     */
+    BufferedImage takeTile(int index) {
+        BufferedImage tile = tiles[index];
+        if (tile == null) {
+            return null;
+        }
+        fireBeforeWrite(index);
+        tileGraphics[index].dispose();
+        tiles[index] = null;
+        tileGraphics[index] = null;
+        return tile;
+    }
+
+    /**
+     * Put tile taken by takeTile() back, replacing the current tile
+     *
+     * @param index index of tile
+     * @param tile tile created by the storage of this canvas
+     */
+    void putTile(int index, BufferedImage tile) {
+        removeTile(index);
+        fireBeforeWrite(index);
+        setTile(index, tile);
+    }
+
+    /**
+     * Release tile removed from the canvas to the storage
+     *
+     * @param index index of tile
+     * @param tile tile taken by takeTile()
+     */
+    void releaseTile(int index, BufferedImage tile) {
+        store.releaseTile(index, tile);
+    }
+
+    private void setTile(int index, BufferedImage tile) {
+        Graphics2D g = tile.createGraphics();
+        //tile coordinates are canvas coordinates
+        g.translate(-(index % numTilesX) * TILE_SIZE,
+                -(index / numTilesX) * TILE_SIZE);
+        tiles[index] = tile;
+        tileGraphics[index] = g;
+    }
+
+    /**
+     * Get tile, creating it if necessary
+     *
+     * @param tx horizontal index of tile
+     * @param ty vertical index of tile
+     * @return tile
+     */
+    BufferedImage touchTile(int tx, int ty) {
+        int index = ty * numTilesX + tx;
+        if (tiles[index] == null) {
+            BufferedImage tile = store.createTile(index, TILE_SIZE);
+            Graphics2D g = tile.createGraphics();
+            g.setColor(background);//fill with background color
+            g.fillRect(0, 0, TILE_SIZE, TILE_SIZE);
+            g.dispose();
+            setTile(index, tile);
+        }
+        return tiles[index];
+    }
+
+    /**
+     * Get tile to be written directly, after notifying listeners
+     *
+     * @param tx horizontal index of tile
+     * @param ty vertical index of tile
+     * @param create true for creating the tile if absent
+     * @return tile, or null if absent and not created
+     */
+    BufferedImage beginWrite(int tx, int ty, boolean create) {
+        int index = ty * numTilesX + tx;
+        if (tiles[index] == null && !create) {
+            return null;
+        }
+        fireBeforeWrite(index);
+        return touchTile(tx, ty);
+    }
+
+    /**
+     * Remove all tiles. Images of tiles are released to the storage.
+     */
+    void clear() {
+        for (int i = 0; i < tiles.length; i++) {
+            removeTile(i);
+        }
+    }
+
+    /**
+     * Draw connected segments. Each segment is drawn by drawLine so that the
+     * result is the same as drawing segments one by one.
+     *
+     * @param xs x coordinates of points
+     * @param ys y coordinates of points
+     * @param offset index of the first point
+     * @param n number of points
+     * @param color color of lines
+     * @param stroke stroke of lines
+     */
+    void drawSegments(int[] xs, int[] ys, int offset, int n,
+            Color color, BasicStroke stroke) {
+        try {
+            drawSegmentsOnTiles(xs, ys, offset, n, color, stroke);
+        } finally {
+            storeHeapTiles();
+        }
+    }
+
+    private void drawSegmentsOnTiles(int[] xs, int[] ys, int offset, int n,
+            Color color, BasicStroke stroke) {
+        //tiles do not need to be created for painting background
+        boolean create = color.getRGB() != background.getRGB();
+        int margin = (int) Math.ceil(stroke.getLineWidth()) + 1;
+        //square caps reach width/sqrt(2) from the end points
+        double reach = stroke.getLineWidth() * Math.sqrt(.5) + 1;
+        for (int i = offset + 1; i < offset + n; i++) {
+            int x0 = Math.min(xs[i - 1], xs[i]) - margin;
+            int x1 = Math.max(xs[i - 1], xs[i]) + margin;
+            int y0 = Math.min(ys[i - 1], ys[i]) - margin;
+            int y1 = Math.max(ys[i - 1], ys[i]) + margin;
+            int tx0 = Math.max(0, Math.floorDiv(x0, TILE_SIZE));
+            int tx1 = Math.min(numTilesX - 1, Math.floorDiv(x1, TILE_SIZE));
+            int ty0 = Math.max(0, Math.floorDiv(y0, TILE_SIZE));
+            int ty1 = Math.min(numTilesY - 1, Math.floorDiv(y1, TILE_SIZE));
+            for (int ty = ty0; ty <= ty1; ty++) {
+                for (int tx = tx0; tx <= tx1; tx++) {
+                    int index = ty * numTilesX + tx;
+                    if (tiles[index] == null && !create) {
+                        continue;
+                    }
+                    //only tiles the line covers, not its bounding box
+                    if (!isNear(xs[i - 1], ys[i - 1], xs[i], ys[i], reach,
+                            tx * TILE_SIZE, ty * TILE_SIZE)) {
+                        continue;
+                    }
+                    fireBeforeWrite(index);
+                    touchTile(tx, ty);
+                    Graphics2D g = getGraphicsToDraw(index);
+                    g.setColor(color);
+                    g.setStroke(stroke);
+                    g.drawLine(xs[i - 1], ys[i - 1], xs[i], ys[i]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Graphics drawing on a tile. Tiles of MappedTileStore are drawn on
+     * copies in Java heap, which are stored back by storeHeapTiles(), since
+     * Java2D draws fast only on DataBufferInt.
+     *
+     * @param index index of tile, which is created
+     * @return graphics in canvas coordinates
+     */
+    private Graphics2D getGraphicsToDraw(int index) {
+        java.nio.IntBuffer mapped = MappedTileStore.getPixels(tiles[index]);
+        if (mapped == null) {
+            return tileGraphics[index];
+        }
+        for (int k = 0; k < HEAP_TILES; k++) {
+            if (heapIndices[k] == index) {
+                return heapGraphics[k];
+            }
+        }
+        int k = nextHeapTile;
+        nextHeapTile = (k + 1) % HEAP_TILES;
+        storeHeapTile(k);
+        if (heapTiles[k] == null) {
+            heapTiles[k] = new BufferedImage(TILE_SIZE, TILE_SIZE,
+                    BufferedImage.TYPE_INT_RGB);
+            heapGraphics[k] = heapTiles[k].createGraphics();
+        }
+        mapped.get(0, heapPixels(k), 0, TILE_SIZE * TILE_SIZE);
+        heapGraphics[k].setTransform(tileGraphics[index].getTransform());
+        heapIndices[k] = index;
+        return heapGraphics[k];
+    }
+
+    private int[] heapPixels(int k) {
+        return ((java.awt.image.DataBufferInt) heapTiles[k].getRaster()
+                .getDataBuffer()).getData();
+    }
+
+    /**
+     * Store the copies of tiles drawn on by getGraphicsToDraw()
+     */
+    private void storeHeapTiles() {
+        for (int k = 0; k < HEAP_TILES; k++) {
+            storeHeapTile(k);
+        }
+    }
+
+    private void storeHeapTile(int k) {
+        if (heapIndices[k] < 0) {
+            return;
+        }
+        MappedTileStore.getPixels(tiles[heapIndices[k]])
+                .put(0, heapPixels(k), 0, TILE_SIZE * TILE_SIZE);
+        heapIndices[k] = -1;
+    }
+
+    /**
+     * Whether a segment comes within a distance of a tile
+     *
+     * @param x0 x of start point
+     * @param y0 y of start point
+     * @param x1 x of end point
+     * @param y1 y of end point
+     * @param reach distance
+     * @param left left of tile
+     * @param top top of tile
+     * @return true if any point of the tile is within reach of the segment
+     */
+    static boolean isNear(int x0, int y0, int x1, int y1, double reach,
+            int left, int top) {
+        int right = left + TILE_SIZE;
+        int bottom = top + TILE_SIZE;
+        //end points inside, or the segment crossing a diagonal of the tile
+        if (distanceToTile(x0, y0, left, top) <= reach
+                || distanceToTile(x1, y1, left, top) <= reach
+                || Line2D.linesIntersect(x0, y0, x1, y1,
+                        left, top, right, bottom)
+                || Line2D.linesIntersect(x0, y0, x1, y1,
+                        right, top, left, bottom)) {
+            return true;
+        }
+        //otherwise the nearest point of the tile is a corner
+        double r2 = reach * reach;
+        return Line2D.ptSegDistSq(x0, y0, x1, y1, left, top) <= r2
+                || Line2D.ptSegDistSq(x0, y0, x1, y1, right, top) <= r2
+                || Line2D.ptSegDistSq(x0, y0, x1, y1, left, bottom) <= r2
+                || Line2D.ptSegDistSq(x0, y0, x1, y1, right, bottom) <= r2;
+    }
+
+    /**
+     * Distance from a point to a tile
+     */
+    private static double distanceToTile(int x, int y, int left, int top) {
+        int dx = Math.max(0, Math.max(left - x, x - (left + TILE_SIZE)));
+        int dy = Math.max(0, Math.max(top - y, y - (top + TILE_SIZE)));
+        return Math.sqrt((double) dx * dx + (double) dy * dy);
+    }
+
+    /**
+     * Draw the part of canvas inside the rectangle
+     *
+     * @param g destination
+     * @param x0 left of region
+     * @param y0 top of region
+     * @param x1 right of region (exclusive)
+     * @param y1 bottom of region (exclusive)
+     * @return number of pixels copied from tiles
+     */
+    long paint(Graphics g, int x0, int y0, int x1, int y1) {
+        long pixels = 0;
+        x0 = Math.max(0, x0);
+        y0 = Math.max(0, y0);
+        x1 = Math.min(width, x1);
+        y1 = Math.min(height, y1);
+        if (x1 <= x0 || y1 <= y0) {
+            return pixels;
+        }
+        for (int ty = y0 / TILE_SIZE; ty <= (y1 - 1) / TILE_SIZE; ty++) {
+            for (int tx = x0 / TILE_SIZE; tx <= (x1 - 1) / TILE_SIZE; tx++) {
+                int left = Math.max(x0, tx * TILE_SIZE);
+                int top = Math.max(y0, ty * TILE_SIZE);
+                int right = Math.min(x1, (tx + 1) * TILE_SIZE);
+                int bottom = Math.min(y1, (ty + 1) * TILE_SIZE);
+                BufferedImage tile = getTile(tx, ty);
+                if (tile == null) {
+                    g.setColor(background);
+                    g.fillRect(left, top, right - left, bottom - top);
+                } else {
+                    int sx = left - tx * TILE_SIZE;
+                    int sy = top - ty * TILE_SIZE;
+                    g.drawImage(tile, left, top, right, bottom, sx, sy,
+                            sx + right - left, sy + bottom - top, null);
+                    pixels += (long) (right - left) * (bottom - top);
+                }
+            }
+        }
+        return pixels;
+    }
+
+    /**
+     * Take a snapshot of the canvas, which is copied on write. The snapshot
+     * should be released after use.
+     *
+     * @return snapshot
+     */
+    CanvasSnapshot snapshot() {
+        return new CanvasSnapshot(this);
+    }
+}
@@ -0,0 +1,528 @@
+package simpleDrawer;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Undo and redo history of TiledCanvas
+ *
+ * Only tiles changed by an edit are stored. When a tile is changed for the
+ * first time during an edit, its pixels are copied; beyond RAW_CAPTURES
+ * tiles, such as a fill or a filter over the whole canvas, the copies are
+ * compressed at once, so that an edit holds little more memory than it
+ * finally stores. When the edit is committed, the difference between the copy
+ * and the new pixels is stored as exclusive-or runs, compressed by Deflater.
+ * As the difference is the same in both directions, undo and redo only decode
+ * and apply it to the tiles. Clearing the canvas moves the tiles into history
+ * as they are, so that it costs neither copying nor compression, and undoing
+ * it puts them back. The total size of stored data, including copies of the
+ * current edit, is limited by a budget; the oldest edits are discarded when
+ * it is exceeded. An edit larger than the budget cannot be undone, and
+ * discards all history.
+ *
+ * @author tadaki
+ */
+class UndoHistory implements TiledCanvas.TileListener {
+
+    static final long DEFAULT_BUDGET = 64L * 1024 * 1024;
+    private static final int TILE_PIXELS
+            = TiledCanvas.TILE_SIZE * TiledCanvas.TILE_SIZE;
+    private static final int RECORD_OVERHEAD = 16;//bytes per tile
+    private static final long TILE_BYTES = RECORD_OVERHEAD + 4L * TILE_PIXELS;
+    private static final int RAW_CAPTURES = 16;//tiles copied uncompressed
+    private final TiledCanvas canvas;
+    private final int backgroundPixel;
+    private final Deque<Record> undoStack = new ArrayDeque<>();
+    private final Deque<Record> redoStack = new ArrayDeque<>();
+    private long budget = DEFAULT_BUDGET;
+    private long usedBytes = 0;
+    //state of the current edit
+    private boolean recording = false;
+    private final BitSet captured = new BitSet();
+    private final List<int[]> buffers = new ArrayList<>();//copies of tiles
+    private int[] indices = new int[RAW_CAPTURES];
+    private boolean[] absent = new boolean[RAW_CAPTURES];
+    private byte[][] packed = new byte[RAW_CAPTURES][];//compressed copies
+    private int numCaptured = 0;
+    private long capturedBytes = 0;//memory of copies
+    private boolean overflow = false;//the edit does not fit in the budget
+    //work area for encoding
+    private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    private final Inflater inflater = new Inflater();
+    private int[] runs = new int[1024];
+    private byte[] bytes = new byte[4096];
+    private final byte[] chunk = new byte[8192];
+    private final ByteArrayOutputStream compressed
+            = new ByteArrayOutputStream();
+    private final int[] pixels = new int[TILE_PIXELS];
+    private final int[] before = new int[TILE_PIXELS];
+
+    /**
+     * Edit stored in history
+     */
+    private static class Record {
+
+        final int[] indices;
+        final byte[][] deltas;//compressed differences of tiles
+        final boolean[] absentBefore;//tiles absent before the edit
+        final boolean[] absentAfter;//tiles absent after the edit
+        final BufferedImage[] tiles;//tiles removed by clear, or null
+        boolean held = false;//tiles are in the record, not on the canvas
+        final long size;
+
+        Record(int[] indices, byte[][] deltas,
+                boolean[] absentBefore, boolean[] absentAfter) {
+            this.indices = indices;
+            this.deltas = deltas;
+            this.absentBefore = absentBefore;
+            this.absentAfter = absentAfter;
+            tiles = null;
+            long s = 0;
+            for (byte[] d : deltas) {
+                s += RECORD_OVERHEAD + d.length;
+            }
+            size = s;
+        }
+
+        /**
+         * Record of clear holding the removed tiles
+         */
+        Record(int[] indices, BufferedImage[] tiles) {
+            this.indices = indices;
+            this.tiles = tiles;
+            deltas = null;
+            absentBefore = null;
+            absentAfter = null;
+            held = true;
+            size = tiles.length * TILE_BYTES;
+        }
+    }
+
+    UndoHistory(TiledCanvas canvas) {
+        this.canvas = canvas;
+        //value of background in rasters of tiles
+        backgroundPixel = canvas.getBackground().getRGB() & 0xffffff;
+        canvas.addTileListener(this);
+    }
+
+    /**
+     * Set the limit of bytes used by history
+     *
+     * @param budget limit in bytes
+     */
+    void setBudget(long budget) {
+        this.budget = budget;
+        evict();
+    }
+
+    long getUsedBytes() {
+        return usedBytes;
+    }
+
+    boolean canUndo() {
+        return !undoStack.isEmpty();
+    }
+
+    boolean canRedo() {
+        return !redoStack.isEmpty();
+    }
+
+    /**
+     * Start recording an edit
+     */
+    void begin() {
+        recording = true;
+    }
+
+    @Override
+    public void beforeWrite(int index) {
+        if (!recording || overflow || captured.get(index)) {
+            return;
+        }
+        captured.set(index);
+        int k = numCaptured++;
+        if (k == indices.length) {
+            indices = Arrays.copyOf(indices, 2 * k);
+            absent = Arrays.copyOf(absent, 2 * k);
+            packed = Arrays.copyOf(packed, 2 * k);
+        }
+        indices[k] = index;
+        if (k < RAW_CAPTURES) {
+            if (buffers.size() == k) {
+                buffers.add(new int[TILE_PIXELS]);
+            }
+            absent[k] = readTile(index, buffers.get(k));
+            capturedBytes += TILE_BYTES;
+        } else {
+            absent[k] = readTile(index, pixels);
+            if (!absent[k]) {
+                packed[k] = deflate(pixels, TILE_PIXELS);
+                capturedBytes += packed[k].length;
+            }
+            capturedBytes += RECORD_OVERHEAD;
+        }
+        evict();
+        if (capturedBytes > budget) {
+            abandon();
+        }
+    }
+
+    /**
+     * Stop recording an edit too large for the budget. As differences are
+     * relative to the next edit, no edit before it can be undone either.
+     */
+    private void abandon() {
+        overflow = true;
+        while (!undoStack.isEmpty()) {
+            discard(undoStack.pop());
+        }
+        while (!redoStack.isEmpty()) {
+            discard(redoStack.pop());
+        }
+        endCapture();
+    }
+
+    /**
+     * Drop copies of the current edit
+     */
+    private void endCapture() {
+        captured.clear();
+        Arrays.fill(packed, 0, Math.min(numCaptured, packed.length), null);
+        numCaptured = 0;
+        capturedBytes = 0;
+        if (indices.length > 64 * RAW_CAPTURES) {//after a large edit
+            indices = new int[RAW_CAPTURES];
+            absent = new boolean[RAW_CAPTURES];
+            packed = new byte[RAW_CAPTURES][];
+        }
+    }
+
+    /**
+     * Finish recording an edit and store it in history
+     */
+    void commit() {
+        if (!recording) {
+            return;
+        }
+        recording = false;
+        if (overflow) {
+            overflow = false;
+            return;
+        }
+        if (numCaptured == 0) {
+            return;
+        }
+        byte[][] deltas = new byte[numCaptured][];
+        boolean[] absentAfter = new boolean[numCaptured];
+        for (int i = 0; i < numCaptured; i++) {
+            int[] b;
+            if (i < RAW_CAPTURES) {
+                b = buffers.get(i);
+            } else if (absent[i]) {
+                b = before;
+                Arrays.fill(b, backgroundPixel);
+            } else {
+                b = before;
+                System.arraycopy(runs, 0, b, 0, inflate(packed[i]));
+                packed[i] = null;
+            }
+            absentAfter[i] = readTile(indices[i], pixels);
+            deltas[i] = encode(b, pixels);
+        }
+        Record record = new Record(Arrays.copyOf(indices, numCaptured),
+                deltas, Arrays.copyOf(absent, numCaptured), absentAfter);
+        endCapture();
+        //a new edit invalidates redo
+        while (!redoStack.isEmpty()) {
+            discard(redoStack.pop());
+        }
+        push(undoStack, record);
+    }
+
+    /**
+     * Remove all tiles of the canvas as an edit. The tiles are moved into
+     * history if the storage allows it and they fit in the budget;
+     * otherwise they are recorded as differences.
+     */
+    void clear() {
+        commit();
+        int n = 0;
+        for (int i = 0; i < canvas.getNumTiles(); i++) {
+            if (canvas.getTile(i) != null) {
+                n++;
+            }
+        }
+        if (n == 0) {
+            return;
+        }
+        if (!canvas.canMoveTiles() || n * TILE_BYTES > budget) {
+            begin();
+            canvas.clear();
+            commit();
+            return;
+        }
+        int[] moved = new int[n];
+        BufferedImage[] tiles = new BufferedImage[n];
+        int k = 0;
+        for (int i = 0; i < canvas.getNumTiles() && k < n; i++) {
+            BufferedImage tile = canvas.takeTile(i);
+            if (tile != null) {
+                moved[k] = i;
+                tiles[k++] = tile;
+            }
+        }
+        while (!redoStack.isEmpty()) {
+            discard(redoStack.pop());
+        }
+        push(undoStack, new Record(moved, tiles));
+    }
+
+    /**
+     * Undo the last edit
+     *
+     * @return region changed, or null if nothing is undone
+     */
+    Rectangle undo() {
+        if (recording || undoStack.isEmpty()) {
+            return null;
+        }
+        Record record = undoStack.pop();
+        usedBytes -= record.size;
+        Rectangle region = (record.tiles != null) ? move(record)
+                : apply(record, record.absentBefore);
+        push(redoStack, record);
+        return region;
+    }
+
+    /**
+     * Redo the last undone edit
+     *
+     * @return region changed, or null if nothing is redone
+     */
+    Rectangle redo() {
+        if (recording || redoStack.isEmpty()) {
+            return null;
+        }
+        Record record = redoStack.pop();
+        usedBytes -= record.size;
+        Rectangle region = (record.tiles != null) ? move(record)
+                : apply(record, record.absentAfter);
+        push(undoStack, record);
+        return region;
+    }
+
+    /**
+     * Apply differences of an edit to tiles
+     *
+     * @param record edit
+     * @param absentTiles tiles to be absent after applying
+     * @return region changed
+     */
+    private Rectangle apply(Record record, boolean[] absentTiles) {
+        Rectangle region = null;
+        for (int i = 0; i < record.indices.length; i++) {
+            int index = record.indices[i];
+            if (absentTiles[i]) {
+                canvas.writePixels(index, null);
+            } else {
+                readTile(index, pixels);
+                decode(record.deltas[i], pixels);
+                canvas.writePixels(index, pixels);
+            }
+            Rectangle r = canvas.getTileBounds(index);
+            if (region == null) {
+                region = r;
+            } else {
+                region.add(r);
+            }
+        }
+        return region;
+    }
+
+    /**
+     * Move tiles of a clear between the record and the canvas
+     *
+     * @param record clear
+     * @return region changed
+     */
+    private Rectangle move(Record record) {
+        Rectangle region = null;
+        for (int i = 0; i < record.indices.length; i++) {
+            int index = record.indices[i];
+            if (!record.held) {
+                record.tiles[i] = canvas.takeTile(index);
+            } else if (record.tiles[i] != null) {
+                canvas.putTile(index, record.tiles[i]);
+                record.tiles[i] = null;
+            }
+            Rectangle r = canvas.getTileBounds(index);
+            if (region == null) {
+                region = r;
+            } else {
+                region.add(r);
+            }
+        }
+        record.held = !record.held;
+        return region;
+    }
+
+    /**
+     * Drop record from history, releasing tiles held by it
+     */
+    private void discard(Record record) {
+        usedBytes -= record.size;
+        if (record.held) {
+            for (int i = 0; i < record.indices.length; i++) {
+                if (record.tiles[i] != null) {
+                    canvas.releaseTile(record.indices[i], record.tiles[i]);
+                }
+            }
+            record.held = false;
+        }
+    }
+
+    /**
+     * Read pixels of tile; absent tiles are read as background
+     *
+     * @param index index of tile
+     * @param p destination
+     * @return true if the tile is absent
+     */
+    private boolean readTile(int index, int[] p) {
+        if (canvas.readPixels(index, p) == null) {
+            Arrays.fill(p, backgroundPixel);
+            return true;
+        }
+        return false;
+    }
+
+    private void push(Deque<Record> stack, Record record) {
+        stack.push(record);
+        usedBytes += record.size;
+        evict();
+    }
+
+    /**
+     * Discard oldest edits until the used bytes are within the budget
+     */
+    private void evict() {
+        while (usedBytes + capturedBytes > budget && !undoStack.isEmpty()) {
+            discard(undoStack.removeLast());
+        }
+        while (usedBytes + capturedBytes > budget && !redoStack.isEmpty()) {
+            discard(redoStack.removeLast());
+        }
+    }
+
+    /**
+     * Encode the difference of two tiles as a sequence of
+     * (number of unchanged pixels, number of changed pixels, xor values...)
+     * and compress it
+     */
+    private byte[] encode(int[] before, int[] after) {
+        int n = 0;
+        int i = 0;
+        while (i < TILE_PIXELS) {
+            int start = i;
+            while (i < TILE_PIXELS && before[i] == after[i]) {
+                i++;
+            }
+            int unchanged = i - start;
+            start = i;
+            while (i < TILE_PIXELS && before[i] != after[i]) {
+                i++;
+            }
+            int changed = i - start;
+            if (n + 2 + changed > runs.length) {
+                runs = Arrays.copyOf(runs,
+                        Math.max(2 * runs.length, n + 2 + changed));
+            }
+            runs[n++] = unchanged;
+            runs[n++] = changed;
+            for (int k = start; k < i; k++) {
+                runs[n++] = before[k] ^ after[k];
+            }
+        }
+        return deflate(runs, n);
+    }
+
+    /**
+     * Compress ints
+     *
+     * @param data ints
+     * @param n number of ints
+     * @return compressed bytes
+     */
+    private byte[] deflate(int[] data, int n) {
+        if (bytes.length < 4 * n) {
+            bytes = new byte[4 * n];
+        }
+        ByteBuffer.wrap(bytes).asIntBuffer().put(data, 0, n);
+        deflater.reset();
+        deflater.setInput(bytes, 0, 4 * n);
+        deflater.finish();
+        compressed.reset();
+        while (!deflater.finished()) {
+            int k = deflater.deflate(chunk);
+            compressed.write(chunk, 0, k);
+        }
+        return compressed.toByteArray();
+    }
+
+    /**
+     * Apply encoded difference to pixels
+     */
+    private void decode(byte[] data, int[] p) {
+        int n = inflate(data);
+        int i = 0;
+        int k = 0;
+        while (k < n) {
+            i += runs[k++];
+            int changed = runs[k++];
+            for (int j = 0; j < changed; j++) {
+                p[i++] ^= runs[k++];
+            }
+        }
+    }
+
+    /**
+     * Decompress ints compressed by deflate() into runs
+     *
+     * @param data compressed bytes
+     * @return number of ints
+     */
+    private int inflate(byte[] data) {
+        inflater.reset();
+        inflater.setInput(data);
+        compressed.reset();
+        try {
+            while (!inflater.finished()) {
+                int k = inflater.inflate(chunk);
+                if (k == 0 && inflater.needsInput()) {
+                    break;
+                }
+                compressed.write(chunk, 0, k);
+            }
+        } catch (DataFormatException ex) {
+            throw new IllegalStateException(ex);
+        }
+        int n = compressed.size() / 4;
+        if (runs.length < n) {
+            runs = new int[n];
+        }
+        ByteBuffer.wrap(compressed.toByteArray()).asIntBuffer()
+                .get(runs, 0, n);
+        return n;
+    }
+}
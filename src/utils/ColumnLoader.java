@@ -0,0 +1,347 @@
+package utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Loader of numeric CSV files into columns using multiple cores
+ *
+ * The file is divided into chunks of bytes aligned to line boundaries. Each
+ * chunk is memory-mapped and parsed in parallel into its own columns, and
+ * the columns of chunks are joined in order. Fields are separated by commas
+ * with optional spaces as FileIO.readCSV(), and parsed as
+ * Double.parseDouble(). Empty lines are skipped. The file must be in an
+ * ASCII compatible encoding.
+ *
+ * <pre>
+ * ColumnLoader.Columns data = new ColumnLoader().setSkipLines(1).load(file);
+ * double[] x = data.getColumn(0);
+ * </pre>
+ *
+ * @author tadaki
+ */
+public class ColumnLoader {
+
+    /**
+     * Loaded columns
+     */
+    public static class Columns {
+
+        private final double[][] columns;
+        private final int numRows;
+
+        Columns(double[][] columns, int numRows) {
+            this.columns = columns;
+            this.numRows = numRows;
+        }
+
+        public int getNumColumns() {
+            return columns.length;
+        }
+
+        public int getNumRows() {
+            return numRows;
+        }
+
+        /**
+         * Values of a column
+         *
+         * @param i index of column
+         * @return array of length getNumRows()
+         */
+        public double[] getColumn(int i) {
+            return columns[i];
+        }
+    }
+
+    private static final int MIN_CHUNK = 1 << 20;//bytes
+    private static final int MAX_CHUNK = 1 << 26;
+    private final ForkJoinPool pool;
+    private int skipLines = 0;
+
+    /**
+     * Create loader using the common pool
+     */
+    public ColumnLoader() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Create loader
+     *
+     * @param pool pool of threads for parsing
+     */
+    public ColumnLoader(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Set number of lines skipped at the beginning, such as headers
+     *
+     * @param skipLines number of lines
+     * @return this loader
+     */
+    public ColumnLoader setSkipLines(int skipLines) {
+        this.skipLines = skipLines;
+        return this;
+    }
+
+    /**
+     * Load columns from file
+     *
+     * @param file CSV file
+     * @return columns
+     * @throws IOException including invalid numbers and number of fields
+     */
+    public Columns load(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.READ)) {
+            long size = channel.size();
+            long start = skip(channel, 0, size, skipLines);
+            int numColumns = countFields(channel, start, size);
+            if (numColumns == 0) {
+                return new Columns(new double[0][], 0);
+            }
+            //boundaries of chunks
+            long chunk = Math.max(MIN_CHUNK, Math.min(MAX_CHUNK,
+                    (size - start) / (4 * pool.getParallelism()) + 1));
+            List<Long> bounds = new ArrayList<>();
+            bounds.add(start);
+            long b = start;
+            while (b < size) {
+                b = skip(channel, Math.min(size, b + chunk), size, 1);
+                bounds.add(b);
+            }
+            //parse chunks in parallel
+            List<Future<Chunk>> futures = new ArrayList<>();
+            for (int i = 0; i + 1 < bounds.size(); i++) {
+                long from = bounds.get(i);
+                long to = bounds.get(i + 1);
+                futures.add(pool.submit(() -> new Chunk(channel, from, to,
+                        numColumns).parse()));
+            }
+            List<Chunk> chunks = new ArrayList<>();
+            for (Future<Chunk> f : futures) {
+                chunks.add(get(f));
+            }
+            return join(chunks, numColumns);
+        }
+    }
+
+    /**
+     * Join columns of chunks in order, in parallel for columns
+     */
+    private Columns join(List<Chunk> chunks, int numColumns)
+            throws IOException {
+        long total = 0;
+        for (Chunk c : chunks) {
+            total += c.numRows;
+        }
+        if (total > Integer.MAX_VALUE - 8) {
+            throw new IOException("Too many rows: " + total);
+        }
+        int numRows = (int) total;
+        double[][] columns = new double[numColumns][];
+        List<Future<double[]>> futures = new ArrayList<>();
+        for (int k = 0; k < numColumns; k++) {
+            int column = k;
+            futures.add(pool.submit(() -> {
+                double[] v = new double[numRows];
+                int n = 0;
+                for (Chunk c : chunks) {
+                    System.arraycopy(c.columns[column], 0, v, n, c.numRows);
+                    n += c.numRows;
+                }
+                return v;
+            }));
+        }
+        for (int k = 0; k < numColumns; k++) {
+            columns[k] = get(futures.get(k));
+        }
+        return new Columns(columns, numRows);
+    }
+
+    private static <T> T get(Future<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Loading interrupted");
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            //checked exceptions of tasks are wrapped by ForkJoinTask
+            while (cause instanceof RuntimeException
+                    && cause.getCause() != null) {
+                cause = cause.getCause();
+            }
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * Skip lines
+     *
+     * @param position position in a line
+     * @param n number of lines to skip
+     * @return position after n-th '\n', or size
+     */
+    private static long skip(FileChannel channel, long position, long size,
+            int n) throws IOException {
+        while (n > 0 && position < size) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY,
+                    position, Math.min(MIN_CHUNK, size - position));
+            int limit = buffer.limit();
+            int p = 0;
+            while (n > 0 && p < limit) {
+                if (buffer.get(p++) == '\n') {
+                    n--;
+                }
+            }
+            position += p;
+        }
+        return position;
+    }
+
+    /**
+     * Count fields of the first non-empty line
+     */
+    private static int countFields(FileChannel channel, long start, long size)
+            throws IOException {
+        StringBuilder sb = new StringBuilder();
+        long position = start;
+        while (position < size) {
+            long end = skip(channel, position, size, 1);
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY,
+                    position, end - position);
+            sb.setLength(0);
+            for (int p = 0; p < buffer.limit(); p++) {
+                sb.append((char) (buffer.get(p) & 0xff));
+            }
+            String line = sb.toString().strip();
+            if (!line.isEmpty()) {
+                return RecordReader.split(line, RecordReader.Format.CSV).length;
+            }
+            position = end;
+        }
+        return 0;
+    }
+
+    /**
+     * Lines in a range of bytes parsed into columns
+     */
+    private static class Chunk {
+
+        private final MappedByteBuffer buffer;
+        private final long offset;
+        private final double[][] columns;
+        private int numRows = 0;
+        private char[] field = new char[64];
+
+        Chunk(FileChannel channel, long from, long to, int numColumns)
+                throws IOException {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY,
+                    from, to - from);
+            offset = from;
+            int capacity = (int) Math.max(16, (to - from) / (8 * numColumns));
+            columns = new double[numColumns][capacity];
+        }
+
+        Chunk parse() throws IOException {
+            int limit = buffer.limit();
+            int numColumns = columns.length;
+            int p = 0;
+            while (p < limit) {
+                int lineStart = p;
+                if (numRows == columns[0].length) {
+                    for (int k = 0; k < numColumns; k++) {
+                        columns[k] = Arrays.copyOf(columns[k], 2 * numRows);
+                    }
+                }
+                for (int k = 0; k < numColumns; k++) {
+                    //copy field into chars
+                    int n = 0;
+                    byte c = '\n';
+                    while (p < limit && (c = buffer.get(p)) != ','
+                            && c != '\n') {
+                        if (n == field.length) {
+                            field = Arrays.copyOf(field, 2 * n);
+                        }
+                        field[n++] = (char) (c & 0xff);
+                        p++;
+                    }
+                    if (p == limit) {//last line without '\n'
+                        c = '\n';
+                    }
+                    p++;
+                    int s = 0;
+                    while (s < n && field[s] <= ' ') {
+                        s++;
+                    }
+                    while (n > s && field[n - 1] <= ' ') {
+                        n--;
+                    }
+                    if (k == 0 && c == '\n' && s == n) {//empty line
+                        numRows--;
+                        break;
+                    }
+                    if (k < numColumns - 1 && c == '\n') {
+                        throw error("Too few fields", lineStart);
+                    }
+                    if (k == numColumns - 1 && c == ',') {
+                        p = skipEmptyFields(p, lineStart);
+                    }
+                    try {
+                        columns[k][numRows]
+                                = DoubleParser.parse(field, s, n);
+                    } catch (NumberFormatException ex) {
+                        throw error("Invalid number \""
+                                + new String(field, s, n - s) + "\"",
+                                lineStart);
+                    }
+                }
+                numRows++;
+            }
+            return this;
+        }
+
+        /**
+         * Skip trailing empty fields, which are ignored as readCSV()
+         *
+         * @return position after the line
+         */
+        private int skipEmptyFields(int p, int lineStart) throws IOException {
+            int limit = buffer.limit();
+            for (; p < limit; p++) {
+                byte c = buffer.get(p);
+                if (c == '\n') {
+                    return p + 1;
+                }
+                if (c != ',' && (c & 0xff) > ' ') {
+                    throw error("Too many fields", lineStart);
+                }
+            }
+            return p;
+        }
+
+        private IOException error(String message, int lineStart) {
+            return new IOException(message + " in line at byte "
+                    + (offset + lineStart));
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package utils;
+
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.Transparency;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+
+/**
+ * Images in the format and resolution of a display
+ *
+ * Images created by the GraphicsConfiguration of a display are copied to the
+ * display without conversion of pixel formats, and may be cached in video
+ * memory by Java2D. On a HiDPI display, the default transform of graphics
+ * scales user space to device pixels; an image of the device size drawn at
+ * the user size is copied without scaling.
+ *
+ * @author tadaki
+ */
+public class CompatibleImage {
+
+    /**
+     * Prevent creating instances
+     */
+    private CompatibleImage() {
+    }
+
+    /**
+     * Create opaque image compatible with a destination
+     *
+     * @param gc configuration of the destination, or null
+     * @param width width in device pixels
+     * @param height height in device pixels
+     * @return compatible image, or TYPE_INT_RGB image if gc is null
+     */
+    public static BufferedImage create(GraphicsConfiguration gc,
+            int width, int height) {
+        if (gc == null) {
+            return new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        }
+        return gc.createCompatibleImage(width, height, Transparency.OPAQUE);
+    }
+
+    /**
+     * Test whether an image is still suitable for a destination
+     *
+     * @param image image, may be null
+     * @param gc configuration of the destination
+     * @param width required width in device pixels
+     * @param height required height in device pixels
+     * @return true if the image has the size and the model of gc
+     */
+    public static boolean isCompatible(BufferedImage image,
+            GraphicsConfiguration gc, int width, int height) {
+        return image != null
+                && image.getWidth() == width && image.getHeight() == height
+                && (gc == null || image.getColorModel().equals(
+                        gc.getColorModel(Transparency.OPAQUE)));
+    }
+
+    /**
+     * Horizontal scale from user space to device pixels
+     *
+     * @param g graphics of the destination
+     * @return scale, 1 for displays without HiDPI scaling
+     */
+    public static double getScaleX(Graphics2D g) {
+        AffineTransform t = g.getDeviceConfiguration().getDefaultTransform();
+        return t.getScaleX();
+    }
+
+    /**
+     * Vertical scale from user space to device pixels
+     *
+     * @param g graphics of the destination
+     * @return scale, 1 for displays without HiDPI scaling
+     */
+    public static double getScaleY(Graphics2D g) {
+        AffineTransform t = g.getDeviceConfiguration().getDefaultTransform();
+        return t.getScaleY();
+    }
+}
@@ -0,0 +1,186 @@
+package utils;
+
+import java.math.BigInteger;
+
+/**
+ * Parser of double from chars with the same result as Double.parseDouble()
+ *
+ * Decimals of the form [sign] digits [. digits] [e [sign] digits] are
+ * parsed without creating strings. With at most 15 significant digits and a
+ * small exponent, the value is computed exactly by one multiplication or
+ * division of doubles. With at most 19 significant digits, the algorithm of
+ * Eisel and Lemire computes the correctly rounded value from a 128-bit
+ * approximation of the power of ten. Other inputs, and the rare cases the
+ * approximation can not decide, are parsed by Double.parseDouble().
+ *
+ * @author tadaki
+ */
+class DoubleParser {
+
+    //powers of ten exactly represented by double
+    private static final double[] POW10 = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10,
+        1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20,
+        1e21, 1e22};
+    private static final int MIN_EXP10 = -348;
+    private static final int MAX_EXP10 = 347;
+    //upper and lower 64 bits of 10^e normalized to 128 bits, rounded down
+    private static final long[] POW10_HI = new long[MAX_EXP10 - MIN_EXP10 + 1];
+    private static final long[] POW10_LO = new long[MAX_EXP10 - MIN_EXP10 + 1];
+
+    static {
+        BigInteger mask = BigInteger.ONE.shiftLeft(64).subtract(BigInteger.ONE);
+        for (int e = MIN_EXP10; e <= MAX_EXP10; e++) {
+            BigInteger m;
+            if (e >= 0) {
+                m = BigInteger.TEN.pow(e);
+                int shift = m.bitLength() - 128;
+                m = (shift > 0) ? m.shiftRight(shift) : m.shiftLeft(-shift);
+            } else {
+                BigInteger d = BigInteger.TEN.pow(-e);
+                m = BigInteger.ONE.shiftLeft(127 + d.bitLength()).divide(d);
+            }
+            POW10_HI[e - MIN_EXP10] = m.shiftRight(64).longValue();
+            POW10_LO[e - MIN_EXP10] = m.and(mask).longValue();
+        }
+    }
+
+    private DoubleParser() {
+    }
+
+    /**
+     * Parse double
+     *
+     * @param c chars
+     * @param start start index
+     * @param end end index
+     * @return value
+     * @throws NumberFormatException as Double.parseDouble()
+     */
+    static double parse(char[] c, int start, int end) {
+        int i = start;
+        boolean negative = false;
+        if (i < end && (c[i] == '-' || c[i] == '+')) {
+            negative = (c[i] == '-');
+            i++;
+        }
+        long mantissa = 0;//unsigned when 19 digits
+        int digits = 0;//significant digits
+        int scale = 0;//digits after point
+        int numDigits = 0;
+        for (; i < end && c[i] >= '0' && c[i] <= '9'; i++, numDigits++) {
+            if (mantissa != 0 || c[i] != '0') {
+                digits++;
+            }
+            mantissa = 10 * mantissa + (c[i] - '0');
+        }
+        if (i < end && c[i] == '.') {
+            i++;
+            for (; i < end && c[i] >= '0' && c[i] <= '9'; i++, numDigits++) {
+                if (mantissa != 0 || c[i] != '0') {
+                    digits++;
+                }
+                mantissa = 10 * mantissa + (c[i] - '0');
+                scale++;
+            }
+        }
+        int exponent = 0;
+        if (numDigits > 0 && i < end && (c[i] == 'e' || c[i] == 'E')) {
+            i++;
+            boolean negativeExp = false;
+            if (i < end && (c[i] == '-' || c[i] == '+')) {
+                negativeExp = (c[i] == '-');
+                i++;
+            }
+            int expDigits = 0;
+            for (; i < end && c[i] >= '0' && c[i] <= '9' && expDigits < 4;
+                    i++, expDigits++) {
+                exponent = 10 * exponent + (c[i] - '0');
+            }
+            if (expDigits == 0) {
+                i = -1;//invalid, let Double.parseDouble() report
+            }
+            if (negativeExp) {
+                exponent = -exponent;
+            }
+        }
+        exponent -= scale;
+        if (i == end && numDigits > 0) {
+            if (digits <= 15 && exponent >= -22 && exponent <= 22) {
+                double v = mantissa;
+                v = (exponent < 0) ? v / POW10[-exponent]
+                        : v * POW10[exponent];
+                return negative ? -v : v;
+            }
+            if (digits <= 19) {
+                long bits = eiselLemire(mantissa, exponent);
+                if (bits >= 0) {
+                    double v = Double.longBitsToDouble(bits);
+                    return negative ? -v : v;
+                }
+            }
+        }
+        return Double.parseDouble(new String(c, start, end - start));
+    }
+
+    /**
+     * Bits of correctly rounded double of w * 10^q
+     *
+     * @param w unsigned mantissa
+     * @param q exponent
+     * @return bits of positive double, or -1 if not decided
+     */
+    private static long eiselLemire(long w, int q) {
+        if (w == 0) {
+            return 0;
+        }
+        if (q < MIN_EXP10 || q > MAX_EXP10) {
+            return -1;
+        }
+        int lz = Long.numberOfLeadingZeros(w);
+        w <<= lz;
+        long exp2 = ((217706L * q) >> 16) + 64 + 1023 - lz;
+        int k = q - MIN_EXP10;
+        long hi = multiplyHigh(w, POW10_HI[k]);
+        long lo = w * POW10_HI[k];
+        if ((hi & 0x1FF) == 0x1FF && Long.compareUnsigned(lo + w, w) < 0) {
+            //wider approximation
+            long yHi = multiplyHigh(w, POW10_LO[k]);
+            long yLo = w * POW10_LO[k];
+            long mergedHi = hi;
+            long mergedLo = lo + yHi;
+            if (Long.compareUnsigned(mergedLo, lo) < 0) {
+                mergedHi++;
+            }
+            if ((mergedHi & 0x1FF) == 0x1FF && mergedLo + 1 == 0
+                    && Long.compareUnsigned(yLo + w, w) < 0) {
+                return -1;
+            }
+            hi = mergedHi;
+            lo = mergedLo;
+        }
+        long msb = hi >>> 63;
+        long mantissa = hi >>> (msb + 9);
+        exp2 -= 1 ^ msb;
+        if (lo == 0 && (hi & 0x1FF) == 0 && (mantissa & 3) == 1) {
+            return -1;//half-way
+        }
+        mantissa += mantissa & 1;
+        mantissa >>>= 1;
+        if ((mantissa >>> 53) > 0) {
+            mantissa >>>= 1;
+            exp2++;
+        }
+        if (exp2 <= 0 || exp2 >= 0x7FF) {//subnormal or infinity
+            return -1;
+        }
+        return (exp2 << 52) | (mantissa & 0x000FFFFFFFFFFFFFL);
+    }
+
+    /**
+     * Upper 64 bits of unsigned product
+     */
+    private static long multiplyHigh(long a, long b) {
+        return Math.multiplyHigh(a, b) + ((a >> 63) & b) + ((b >> 63) & a);
+    }
+}
@@ -38,6 +38,8 @@ public class FileIO {
     /**
      * Output objects with commas as delimitter
      *
+     * Use RecordWriter for writing many numeric rows.
+     *
      * @param out destination
      * @param objects list of objects
      * @throws IOException
@@ -50,6 +52,8 @@ public class FileIO {
     /**
      * Output objects with space as delimitter
      *
+     * Use RecordWriter for writing many numeric rows.
+     *
      * @param out destination
      * @param objects list of objects
      * @throws IOException
@@ -97,25 +101,33 @@ public class FileIO {
     /**
      * Read one line with space as delimitter
      *
+     * Use RecordReader for reading many lines.
+     *
      * @param in
      * @return
      * @throws java.io.IOException
      */
     public static String[] readSSV(BufferedReader in)
             throws IOException {
-        return readVars(in, "\\s+");
+        String line = in.readLine();
+        return (line == null) ? null
+                : RecordReader.split(line, RecordReader.Format.SSV);
     }
 
     /**
      * Read one line with comma as delimitter
      *
+     * Use RecordReader for reading many lines.
+     *
      * @param in
      * @return
      * @throws java.io.IOException
      */
     public static String[] readCSV(BufferedReader in)
             throws IOException {
-        return readVars(in, "\\s*,\\s*");
+        String line = in.readLine();
+        return (line == null) ? null
+                : RecordReader.split(line, RecordReader.Format.CSV);
     }
 
     /**
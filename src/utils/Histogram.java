@@ -0,0 +1,186 @@
+package utils;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free histogram of non-negative long values
+ *
+ * Values are counted in buckets whose width grows with the value as in
+ * HdrHistogram: values below 2 * SUB_BUCKETS have their own buckets, and
+ * each larger power of two is divided into SUB_BUCKETS buckets, so that
+ * percentiles have a relative error below 1 / SUB_BUCKETS. Recording
+ * only increments atomic counters and can be called from any thread.
+ *
+ * @author tadaki
+ */
+public class Histogram implements HistogramMXBean {
+
+    private static final int SUB_BITS = 5;
+    static final int SUB_BUCKETS = 1 << SUB_BITS;
+    private static final int NUM_BUCKETS = (64 - SUB_BITS) * SUB_BUCKETS;
+    private final String unit;
+    private final AtomicLongArray counts = new AtomicLongArray(NUM_BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder total = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Counts of buckets copied at a time
+     */
+    public static class Snapshot {
+
+        private final long[] counts;
+        private final long count;
+
+        private Snapshot(long[] counts) {
+            this.counts = counts;
+            long n = 0;
+            for (long c : counts) {
+                n += c;
+            }
+            count = n;
+        }
+
+        /**
+         * Values recorded after an older snapshot
+         *
+         * @param older snapshot taken before this
+         * @return difference
+         */
+        public Snapshot minus(Snapshot older) {
+            long[] c = counts.clone();
+            for (int i = 0; i < c.length; i++) {
+                c[i] -= older.counts[i];
+            }
+            return new Snapshot(c);
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * Value at percentile
+         *
+         * @param percentile 0 to 100
+         * @return highest value of the bucket, or 0 if empty
+         */
+        public long getPercentile(double percentile) {
+            long rank = (long) Math.ceil(percentile / 100 * count);
+            rank = Math.max(1, Math.min(count, rank));
+            long n = 0;
+            for (int i = 0; i < counts.length; i++) {
+                n += counts[i];
+                if (n >= rank) {
+                    return highestValue(i);
+                }
+            }
+            return 0;
+        }
+    }
+
+    /**
+     * @param unit unit of values
+     */
+    public Histogram(String unit) {
+        this.unit = unit;
+    }
+
+    /**
+     * Record a value
+     *
+     * @param value value, negative values are recorded as 0
+     */
+    public void record(long value) {
+        value = Math.max(0, value);
+        counts.incrementAndGet(index(value));
+        count.increment();
+        total.add(value);
+        if (value > max.get()) {
+            max.accumulateAndGet(value, Math::max);
+        }
+    }
+
+    static int index(long value) {
+        if (value < 2 * SUB_BUCKETS) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+        return shift * SUB_BUCKETS + (int) (value >>> shift);
+    }
+
+    static long highestValue(int index) {
+        if (index < 2 * SUB_BUCKETS) {
+            return index;
+        }
+        int shift = index / SUB_BUCKETS - 1;
+        long sub = index % SUB_BUCKETS + SUB_BUCKETS;
+        return ((sub + 1) << shift) - 1;
+    }
+
+    public Snapshot snapshot() {
+        long[] c = new long[NUM_BUCKETS];
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            c[i] = counts.get(i);
+        }
+        return new Snapshot(c);
+    }
+
+    @Override
+    public String getUnit() {
+        return unit;
+    }
+
+    @Override
+    public long getCount() {
+        return count.sum();
+    }
+
+    @Override
+    public long getTotal() {
+        return total.sum();
+    }
+
+    @Override
+    public double getMean() {
+        long n = count.sum();
+        return (n == 0) ? 0 : (double) total.sum() / n;
+    }
+
+    @Override
+    public long getMax() {
+        return max.get();
+    }
+
+    @Override
+    public long getP50() {
+        return snapshot().getPercentile(50);
+    }
+
+    @Override
+    public long getP90() {
+        return snapshot().getPercentile(90);
+    }
+
+    @Override
+    public long getP99() {
+        return snapshot().getPercentile(99);
+    }
+
+    @Override
+    public long getP999() {
+        return snapshot().getPercentile(99.9);
+    }
+
+    @Override
+    public void reset() {
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            counts.set(i, 0);
+        }
+        count.reset();
+        total.reset();
+        max.set(0);
+    }
+}
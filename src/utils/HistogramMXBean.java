@@ -0,0 +1,37 @@
+package utils;
+
+/**
+ * Management interface of Histogram exposed via JMX
+ *
+ * @author tadaki
+ */
+public interface HistogramMXBean {
+
+    /**
+     * Unit of values, such as "ns" or "bytes"
+     *
+     * @return unit
+     */
+    String getUnit();
+
+    long getCount();
+
+    long getTotal();
+
+    double getMean();
+
+    long getMax();
+
+    long getP50();
+
+    long getP90();
+
+    long getP99();
+
+    long getP999();
+
+    /**
+     * Clear recorded values
+     */
+    void reset();
+}
@@ -0,0 +1,111 @@
+package utils;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Pool of TYPE_INT_RGB images recycled by size
+ *
+ * Images released to the pool are kept up to a limit of bytes, and handed
+ * out again for the same width and height instead of allocating new ones.
+ * The content of an acquired image is undefined. Thread safe.
+ *
+ * @author tadaki
+ */
+public class ImagePool {
+
+    /**
+     * Pool shared by the applications
+     */
+    public static final ImagePool SHARED = new ImagePool(64L * 1024 * 1024);
+
+    private final Map<Long, ArrayDeque<BufferedImage>> free = new HashMap<>();
+    private final long maxBytes;
+    private long bytes = 0;//bytes of images in the pool
+    private long hits = 0;
+    private long misses = 0;
+
+    /**
+     * @param maxBytes limit of bytes of images kept in the pool
+     */
+    public ImagePool(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    private static long key(int width, int height) {
+        return ((long) width << 32) | height;
+    }
+
+    private static long bytesOf(int width, int height) {
+        return 4L * width * height;
+    }
+
+    /**
+     * Get image from the pool, or create it
+     *
+     * @param width width
+     * @param height height
+     * @return image of TYPE_INT_RGB with undefined content
+     */
+    public synchronized BufferedImage acquire(int width, int height) {
+        ArrayDeque<BufferedImage> images = free.get(key(width, height));
+        if (images != null && !images.isEmpty()) {
+            hits++;
+            bytes -= bytesOf(width, height);
+            return images.pop();
+        }
+        misses++;
+        return new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+    }
+
+    /**
+     * Return image to the pool. The image must not be used after this.
+     *
+     * @param image image obtained from acquire(), or any TYPE_INT_RGB image
+     */
+    public synchronized void release(BufferedImage image) {
+        if (image.getType() != BufferedImage.TYPE_INT_RGB) {
+            return;
+        }
+        int width = image.getWidth();
+        int height = image.getHeight();
+        if (bytes + bytesOf(width, height) > maxBytes) {
+            return;//left to the garbage collector
+        }
+        free.computeIfAbsent(key(width, height), k -> new ArrayDeque<>())
+                .push(image);
+        bytes += bytesOf(width, height);
+    }
+
+    /**
+     * Drop all images in the pool
+     */
+    public synchronized void clear() {
+        free.clear();
+        bytes = 0;
+    }
+
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * Number of acquisitions served from the pool
+     *
+     * @return number of reused images
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * Number of acquisitions creating new images
+     *
+     * @return number of created images
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+}
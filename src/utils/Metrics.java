@@ -0,0 +1,114 @@
+package utils;
+
+import java.lang.management.ManagementFactory;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Histograms and Flight Recorder events of drawing and file operations
+ *
+ * Durations are recorded in nanoseconds. Histograms are registered to the
+ * platform MBean server as "GUI2:type=Histogram,name=...", and events are
+ * recorded when a JFR recording is running, for example by
+ * -XX:StartFlightRecording.
+ *
+ * @author tadaki
+ */
+public class Metrics {
+
+    public static final Histogram PAINT = register("paint", "ns");
+    public static final Histogram INPUT_LATENCY
+            = register("inputLatency", "ns");//from input to paint
+    public static final Histogram STROKE_FLUSH = register("strokeFlush", "ns");
+    public static final Histogram RENDER = register("render", "ns");
+    public static final Histogram FILL = register("fill", "ns");
+    public static final Histogram AUTOSAVE = register("autosave", "ns");
+    public static final Histogram SAVE_IMAGE = register("saveImage", "ns");
+    public static final Histogram SAVE_IMAGE_BYTES
+            = register("saveImageBytes", "bytes");
+    public static final Histogram OPEN_FILE = register("openFile", "ns");
+    public static final Histogram SAVE_FILE = register("saveFile", "ns");
+
+    /**
+     * Prevent creating instances
+     */
+    private Metrics() {
+    }
+
+    private static Histogram register(String name, String unit) {
+        Histogram h = new Histogram(unit);
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            server.registerMBean(h,
+                    new ObjectName("GUI2:type=Histogram,name=" + name));
+        } catch (JMException | SecurityException ex) {
+            //histogram works without JMX
+        }
+        return h;
+    }
+
+    @Name("gui2.Paint")
+    @Label("Paint")
+    @Category("GUI2")
+    @Description("paintComponent of a drawing panel")
+    public static class PaintEvent extends Event {
+
+        @Label("Component")
+        public String component;
+        @Label("Pixels")
+        @Description("Pixels copied to the screen")
+        public long pixels;
+    }
+
+    @Name("gui2.StrokeFlush")
+    @Label("Stroke Flush")
+    @Category("GUI2")
+    @Description("Buffered points of a stroke drawn on the canvas")
+    public static class StrokeFlushEvent extends Event {
+
+        @Label("Segments")
+        public int segments;
+        @Label("Line Width")
+        public float lineWidth;
+        @Label("Raster Brush")
+        public boolean raster;
+    }
+
+    @Name("gui2.SaveImage")
+    @Label("Save Image")
+    @Category("GUI2")
+    public static class SaveImageEvent extends Event {
+
+        @Label("File")
+        public String file;
+        @Label("Format")
+        public String format;
+        @Label("Size")
+        @DataAmount
+        public long bytes;
+        @Label("Canceled")
+        public boolean canceled;
+    }
+
+    @Name("gui2.FileIO")
+    @Label("Text File")
+    @Category("GUI2")
+    @Description("Opening or saving a text file")
+    public static class FileEvent extends Event {
+
+        @Label("File")
+        public String file;
+        @Label("Operation")
+        public String operation;
+        @Label("Size")
+        @DataAmount
+        public long bytes;
+    }
+}
@@ -0,0 +1,440 @@
+package utils;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * PNG encoder using multiple cores
+ *
+ * Rows of the image are divided into bands. Bands are filtered and
+ * compressed in parallel, each band as a part of one zlib stream: a band is
+ * compressed with the tail of the preceding band as the dictionary and
+ * ends with a sync flush, so that the parts can be joined in order. Only a
+ * limited number of bands are held at once.
+ *
+ * @author tadaki
+ */
+public class PngEncoder {
+
+    /**
+     * Listener of progress of encoding
+     */
+    public interface ProgressListener {
+
+        /**
+         * Called after a band is written
+         *
+         * @param fraction fraction of rows written
+         */
+        void progress(float fraction);
+    }
+
+    private static final byte[] SIGNATURE
+            = {(byte) 137, 80, 78, 71, 13, 10, 26, 10};
+    private static final int DICTIONARY_SIZE = 32 * 1024;
+    private static final int BAND_BYTES = 256 * 1024;//target size of bands
+    private final ForkJoinPool pool;
+    public static final int DEFAULT_LEVEL = 4;//same as ImageIO
+    private int level = DEFAULT_LEVEL;
+    private ProgressListener listener = null;
+    private volatile boolean canceled = false;
+
+    /**
+     * Create encoder using the common pool
+     */
+    public PngEncoder() {
+        this(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Create encoder
+     *
+     * @param pool pool of threads for encoding
+     */
+    public PngEncoder(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Set compression level: 0 (fastest, no compression) to 9 (smallest).
+     * Rows are not filtered at level 0 and 1. The default is DEFAULT_LEVEL.
+     *
+     * @param level compression level
+     */
+    public void setLevel(int level) {
+        if (level < 0 || level > 9) {
+            throw new IllegalArgumentException("level must be 0 to 9");
+        }
+        this.level = level;
+    }
+
+    public void setProgressListener(ProgressListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Stop encoding; encode() throws InterruptedIOException
+     */
+    public void cancel() {
+        canceled = true;
+    }
+
+    /**
+     * Encode image to channel
+     *
+     * @param image image
+     * @param channel destination, for example FileChannel
+     * @throws IOException
+     */
+    public void encode(RenderedImage image, WritableByteChannel channel)
+            throws IOException {
+        OutputStream out = Channels.newOutputStream(channel);
+        encode(image, out);
+    }
+
+    /**
+     * Encode image to stream. The stream is not closed.
+     *
+     * @param image image
+     * @param stream destination
+     * @throws IOException
+     */
+    public void encode(RenderedImage image, OutputStream stream)
+            throws IOException {
+        canceled = false;
+        int width = image.getWidth();
+        int height = image.getHeight();
+        boolean alpha = image.getColorModel().hasAlpha();
+        int bpp = alpha ? 4 : 3;//bytes per pixel
+        int rowBytes = width * bpp + 1;//with filter type
+        int bandRows = Math.max(1, BAND_BYTES / rowBytes);
+        int numBands = (height + bandRows - 1) / bandRows;
+        int window = 2 * pool.getParallelism();//bands processed at once
+
+        DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(stream, 64 * 1024));
+        out.write(SIGNATURE);
+        byte[] header = new byte[13];
+        putInt(header, 0, width);
+        putInt(header, 4, height);
+        header[8] = 8;//bit depth
+        header[9] = (byte) (alpha ? 6 : 2);//RGBA or RGB
+        writeChunk(out, "IHDR", header, 0, header.length);
+
+        Adler32 adler = new Adler32();
+        byte[] dictionary = null;//tail of the preceding band
+        boolean first = true;
+        for (int b0 = 0; b0 < numBands; b0 += window) {
+            int b1 = Math.min(numBands, b0 + window);
+            //filter bands in parallel
+            List<Future<byte[]>> filtered = new ArrayList<>();
+            for (int b = b0; b < b1; b++) {
+                int y0 = b * bandRows;
+                int y1 = Math.min(height, y0 + bandRows);
+                filtered.add(pool.submit(
+                        (Callable<byte[]>) () -> filter(image, y0, y1, bpp)));
+            }
+            byte[][] data = new byte[b1 - b0][];
+            for (int i = 0; i < data.length; i++) {
+                data[i] = get(filtered.get(i));
+            }
+            //compress bands in parallel
+            List<Future<byte[]>> compressed = new ArrayList<>();
+            for (int i = 0; i < data.length; i++) {
+                byte[] dict = (i == 0) ? dictionary : tail(data[i - 1]);
+                byte[] input = data[i];
+                boolean last = (b0 + i == numBands - 1);
+                compressed.add(pool.submit(
+                        (Callable<byte[]>) () -> deflate(input, dict, last)));
+            }
+            for (int i = 0; i < data.length; i++) {
+                byte[] c = get(compressed.get(i));
+                adler.update(data[i]);
+                if (first) {//zlib header
+                    byte[] zlib = zlibHeader();
+                    writeChunk(out, "IDAT", concat(zlib, c), 0,
+                            zlib.length + c.length);
+                    first = false;
+                } else {
+                    writeChunk(out, "IDAT", c, 0, c.length);
+                }
+                if (listener != null) {
+                    int rows = Math.min(height, (b0 + i + 1) * bandRows);
+                    listener.progress((float) rows / height);
+                }
+            }
+            dictionary = tail(data[data.length - 1]);
+        }
+        byte[] trailer = new byte[4];
+        putInt(trailer, 0, (int) adler.getValue());
+        writeChunk(out, "IDAT", trailer, 0, trailer.length);
+        writeChunk(out, "IEND", new byte[0], 0, 0);
+        out.flush();
+    }
+
+    private byte[] get(Future<byte[]> future) throws IOException {
+        if (canceled) {
+            future.cancel(false);
+            throw new InterruptedIOException("Encoding canceled");
+        }
+        try {
+            return future.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Encoding interrupted");
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * Read rows and apply PNG filters
+     *
+     * @return filtered rows, each starting with filter type
+     */
+    private byte[] filter(RenderedImage image, int y0, int y1, int bpp) {
+        int width = image.getWidth();
+        int rowBytes = width * bpp;
+        //the row above y0 is needed for filters
+        int top = Math.max(0, y0 - 1);
+        int[] argb = readRows(image, top, y1);
+        byte[] prev = new byte[rowBytes];
+        byte[] cur = new byte[rowBytes];
+        if (top < y0) {
+            toBytes(argb, 0, width, bpp, prev);
+        }
+        byte[] out = new byte[(y1 - y0) * (rowBytes + 1)];
+        byte[] work = new byte[rowBytes];
+        int pos = 0;
+        for (int y = y0; y < y1; y++) {
+            toBytes(argb, (y - top) * width, width, bpp, cur);
+            pos = filterRow(cur, prev, bpp, out, pos, work);
+            byte[] t = prev;
+            prev = cur;
+            cur = t;
+        }
+        return out;
+    }
+
+    /**
+     * Pixels of rows as non-premultiplied ARGB
+     */
+    private static int[] readRows(RenderedImage image, int y0, int y1) {
+        int width = image.getWidth();
+        int minX = image.getMinX();
+        int minY = image.getMinY();
+        if (image instanceof BufferedImage) {
+            return ((BufferedImage) image).getRGB(
+                    0, y0, width, y1 - y0, null, 0, width);
+        }
+        Raster raster = image.getData(
+                new Rectangle(minX, minY + y0, width, y1 - y0));
+        ColorModel cm = image.getColorModel();
+        BufferedImage band = new BufferedImage(cm,
+                raster.createCompatibleWritableRaster(width, y1 - y0),
+                cm.isAlphaPremultiplied(), null);
+        band.getRaster().setRect(-raster.getMinX(), -raster.getMinY(),
+                raster);
+        return band.getRGB(0, 0, width, y1 - y0, null, 0, width);
+    }
+
+    private static void toBytes(int[] argb, int offset, int width, int bpp,
+            byte[] row) {
+        int k = 0;
+        for (int i = 0; i < width; i++) {
+            int p = argb[offset + i];
+            row[k++] = (byte) (p >> 16);
+            row[k++] = (byte) (p >> 8);
+            row[k++] = (byte) p;
+            if (bpp == 4) {
+                row[k++] = (byte) (p >>> 24);
+            }
+        }
+    }
+
+    /**
+     * Filter one row. The filter minimizing the sum of absolute values of the
+     * output is chosen.
+     *
+     * @return position after the row in out
+     */
+    private int filterRow(byte[] cur, byte[] prev, int bpp,
+            byte[] out, int pos, byte[] work) {
+        int n = cur.length;
+        out[pos] = 0;
+        System.arraycopy(cur, 0, out, pos + 1, n);
+        if (level == 0 || level == 1) {//no filter for speed
+            return pos + 1 + n;
+        }
+        long bestSum = 0;
+        for (int i = 0; i < n; i++) {
+            bestSum += Math.abs(cur[i]);
+        }
+        for (int type = 1; type < 5; type++) {
+            long sum = 0;
+            switch (type) {
+                case 1://sub
+                    for (int i = 0; i < bpp; i++) {
+                        work[i] = cur[i];
+                    }
+                    for (int i = bpp; i < n; i++) {
+                        work[i] = (byte) (cur[i] - cur[i - bpp]);
+                    }
+                    break;
+                case 2://up
+                    for (int i = 0; i < n; i++) {
+                        work[i] = (byte) (cur[i] - prev[i]);
+                    }
+                    break;
+                case 3://average
+                    for (int i = 0; i < bpp; i++) {
+                        work[i] = (byte) (cur[i] - ((prev[i] & 0xff) >> 1));
+                    }
+                    for (int i = bpp; i < n; i++) {
+                        work[i] = (byte) (cur[i]
+                                - (((cur[i - bpp] & 0xff)
+                                + (prev[i] & 0xff)) >> 1));
+                    }
+                    break;
+                default://paeth
+                    for (int i = 0; i < bpp; i++) {
+                        work[i] = (byte) (cur[i] - prev[i]);
+                    }
+                    for (int i = bpp; i < n; i++) {
+                        work[i] = (byte) (cur[i] - paeth(cur[i - bpp] & 0xff,
+                                prev[i] & 0xff, prev[i - bpp] & 0xff));
+                    }
+            }
+            for (int i = 0; i < n && sum < bestSum; i++) {
+                sum += Math.abs(work[i]);
+            }
+            if (sum < bestSum) {
+                bestSum = sum;
+                out[pos] = (byte) type;
+                System.arraycopy(work, 0, out, pos + 1, n);
+            }
+        }
+        return pos + 1 + n;
+    }
+
+    private static int paeth(int a, int b, int c) {
+        int p = a + b - c;
+        int pa = Math.abs(p - a);
+        int pb = Math.abs(p - b);
+        int pc = Math.abs(p - c);
+        if (pa <= pb && pa <= pc) {
+            return a;
+        }
+        return (pb <= pc) ? b : c;
+    }
+
+    /**
+     * Compress a band as raw deflate data
+     *
+     * @param input filtered rows
+     * @param dictionary data preceding the band, or null
+     * @param last true for the last band
+     * @return compressed data
+     */
+    private byte[] deflate(byte[] input, byte[] dictionary, boolean last) {
+        Deflater deflater = new Deflater(level, true);
+        try {
+            if (dictionary != null) {
+                deflater.setDictionary(dictionary);
+            }
+            deflater.setInput(input);
+            if (last) {
+                deflater.finish();
+            }
+            byte[] out = new byte[input.length / 2 + 1024];
+            int n = 0;
+            while (true) {
+                if (n == out.length) {
+                    out = Arrays.copyOf(out, 2 * out.length);
+                }
+                int available = out.length - n;
+                int k = deflater.deflate(out, n, available,
+                        last ? Deflater.NO_FLUSH : Deflater.SYNC_FLUSH);
+                n += k;
+                //flush is complete when the output space is left
+                if (last ? deflater.finished() : k < available) {
+                    break;
+                }
+            }
+            return Arrays.copyOf(out, n);
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static byte[] tail(byte[] data) {
+        int n = Math.min(DICTIONARY_SIZE, data.length);
+        return Arrays.copyOfRange(data, data.length - n, data.length);
+    }
+
+    private byte[] zlibHeader() {
+        int flevel;
+        if (level == 6) {
+            flevel = 2;
+        } else if (level < 2) {
+            flevel = 0;
+        } else if (level < 6) {
+            flevel = 1;
+        } else {
+            flevel = 3;
+        }
+        int cmf = 0x78;//deflate, 32K window
+        int flg = flevel << 6;
+        flg += 31 - ((cmf << 8) + flg) % 31;
+        return new byte[]{(byte) cmf, (byte) flg};
+    }
+
+    private static byte[] concat(byte[] a, byte[] b) {
+        byte[] c = Arrays.copyOf(a, a.length + b.length);
+        System.arraycopy(b, 0, c, a.length, b.length);
+        return c;
+    }
+
+    private static void putInt(byte[] b, int pos, int v) {
+        b[pos] = (byte) (v >>> 24);
+        b[pos + 1] = (byte) (v >>> 16);
+        b[pos + 2] = (byte) (v >>> 8);
+        b[pos + 3] = (byte) v;
+    }
+
+    private static void writeChunk(DataOutputStream out, String type,
+            byte[] data, int offset, int length) throws IOException {
+        byte[] t = type.getBytes(java.nio.charset.StandardCharsets.US_ASCII);
+        CRC32 crc = new CRC32();
+        crc.update(t);
+        crc.update(data, offset, length);
+        out.writeInt(length);
+        out.write(t);
+        out.write(data, offset, length);
+        out.writeInt((int) crc.getValue());
+    }
+}
@@ -0,0 +1,436 @@
+package utils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Streaming reader of records separated by commas or spaces
+ *
+ * Lines are read into a reusable buffer and split by a hand-written
+ * tokenizer. Fields are CharSequence views of the buffer, and numbers are
+ * parsed from the buffer directly, so that no object is allocated per record.
+ * Fields are valid until the next record is read.
+ *
+ * Fields are the same as String.split() with "\\s*,\\s*" for CSV and "\\s+"
+ * for SSV: trailing empty fields are removed, and a line without delimiters
+ * is one field.
+ *
+ * <pre>
+ * try (RecordReader r = RecordReader.csv(FileIO.openReader(file))) {
+ *     while (r.next()) {
+ *         double x = r.parseDouble(0);
+ *     }
+ * }
+ * </pre>
+ *
+ * @author tadaki
+ */
+public class RecordReader implements Closeable, Iterable<RecordReader> {
+
+    /**
+     * Format of records
+     */
+    public enum Format {
+        CSV, //separated by comma with spaces around
+        SSV //separated by spaces
+    }
+
+    private static final int BUFFER_SIZE = 8192;
+    private final Reader in;
+    private final Format format;
+    //input buffer
+    private final char[] buffer;
+    private int position = 0;
+    private int limit = 0;
+    private boolean skipLF = false;//'\r' ended the last line
+    private boolean eof = false;
+    //current line
+    private char[] line = new char[256];
+    private int length = 0;
+    private Field[] fields = new Field[0];
+    private int numFields = 0;
+    private long lineNumber = 0;
+
+    /**
+     * View of a field in the current line
+     */
+    private class Field implements CharSequence {
+
+        int start;
+        int end;
+
+        @Override
+        public int length() {
+            return end - start;
+        }
+
+        @Override
+        public char charAt(int index) {
+            if (index < 0 || index >= end - start) {
+                throw new IndexOutOfBoundsException(index);
+            }
+            return line[start + index];
+        }
+
+        @Override
+        public CharSequence subSequence(int s, int e) {
+            return toString().subSequence(s, e);
+        }
+
+        @Override
+        public String toString() {
+            return new String(line, start, end - start);
+        }
+    }
+
+    /**
+     * @param in input, may be null when lines are given by setLine()
+     * @param format format of records
+     */
+    public RecordReader(Reader in, Format format) {
+        this.in = in;
+        this.format = format;
+        buffer = (in == null) ? null : new char[BUFFER_SIZE];
+    }
+
+    /**
+     * Reader of comma separated values
+     *
+     * @param in input
+     * @return reader
+     */
+    public static RecordReader csv(Reader in) {
+        return new RecordReader(in, Format.CSV);
+    }
+
+    /**
+     * Reader of space separated values
+     *
+     * @param in input
+     * @return reader
+     */
+    public static RecordReader ssv(Reader in) {
+        return new RecordReader(in, Format.SSV);
+    }
+
+    /**
+     * Split one line into fields
+     *
+     * @param str line
+     * @param format format of records
+     * @return fields
+     */
+    public static String[] split(String str, Format format) {
+        RecordReader r = new RecordReader(null, format);
+        r.setLine(str);
+        return r.toArray();
+    }
+
+    /**
+     * Read the next record
+     *
+     * @return false if no more records
+     * @throws IOException
+     */
+    public boolean next() throws IOException {
+        if (!readLine()) {
+            numFields = 0;
+            return false;
+        }
+        lineNumber++;
+        tokenize();
+        return true;
+    }
+
+    /**
+     * Use a line as the current record
+     *
+     * @param str line without line separator
+     */
+    public void setLine(CharSequence str) {
+        length = 0;
+        ensureLine(str.length());
+        for (int i = 0; i < str.length(); i++) {
+            line[i] = str.charAt(i);
+        }
+        length = str.length();
+        tokenize();
+    }
+
+    /**
+     * Number of records read
+     *
+     * @return line number of the current record from 1
+     */
+    public long getLineNumber() {
+        return lineNumber;
+    }
+
+    /**
+     * Number of fields of the current record
+     *
+     * @return number of fields
+     */
+    public int size() {
+        return numFields;
+    }
+
+    /**
+     * Field of the current record, valid until the next record is read
+     *
+     * @param i index of field
+     * @return view of field
+     */
+    public CharSequence get(int i) {
+        return field(i);
+    }
+
+    /**
+     * Field of the current record as String
+     *
+     * @param i index of field
+     * @return field
+     */
+    public String getString(int i) {
+        return field(i).toString();
+    }
+
+    /**
+     * Parse field as int in the same way as Integer.parseInt()
+     *
+     * @param i index of field
+     * @return value
+     */
+    public int parseInt(int i) {
+        Field f = field(i);
+        return Integer.parseInt(f, 0, f.length(), 10);
+    }
+
+    /**
+     * Parse field as long in the same way as Long.parseLong()
+     *
+     * @param i index of field
+     * @return value
+     */
+    public long parseLong(int i) {
+        Field f = field(i);
+        return Long.parseLong(f, 0, f.length(), 10);
+    }
+
+    /**
+     * Parse field as double in the same way as Double.parseDouble()
+     *
+     * @param i index of field
+     * @return value
+     */
+    public double parseDouble(int i) {
+        Field f = field(i);
+        return DoubleParser.parse(line, f.start, f.end);
+    }
+
+    /**
+     * Fields of the current record
+     *
+     * @return new array of fields
+     */
+    public String[] toArray() {
+        String[] s = new String[numFields];
+        for (int i = 0; i < numFields; i++) {
+            s[i] = fields[i].toString();
+        }
+        return s;
+    }
+
+    /**
+     * Records as iterator. This reader itself is returned for each record.
+     *
+     * @return iterator
+     * @throws UncheckedIOException when reading fails
+     */
+    @Override
+    public Iterator<RecordReader> iterator() {
+        return new Iterator<>() {
+            private boolean ready = false;
+            private boolean hasNext = false;
+
+            @Override
+            public boolean hasNext() {
+                if (!ready) {
+                    try {
+                        hasNext = RecordReader.this.next();
+                    } catch (IOException ex) {
+                        throw new UncheckedIOException(ex);
+                    }
+                    ready = true;
+                }
+                return hasNext;
+            }
+
+            @Override
+            public RecordReader next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                ready = false;
+                return RecordReader.this;
+            }
+        };
+    }
+
+    /**
+     * Records as sequential stream. This reader itself is passed for each
+     * record; copy fields needed later.
+     *
+     * @return stream
+     */
+    public Stream<RecordReader> stream() {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(
+                iterator(), Spliterator.ORDERED | Spliterator.NONNULL), false);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (in != null) {
+            in.close();
+        }
+    }
+
+    private Field field(int i) {
+        if (i < 0 || i >= numFields) {
+            throw new IndexOutOfBoundsException(i);
+        }
+        return fields[i];
+    }
+
+    private void ensureLine(int n) {
+        if (n > line.length) {
+            line = Arrays.copyOf(line, Math.max(n, 2 * line.length));
+        }
+    }
+
+    /**
+     * Read one line into line[] in the same way as BufferedReader.readLine()
+     *
+     * @return false at end of input
+     */
+    private boolean readLine() throws IOException {
+        length = 0;
+        boolean read = false;
+        while (true) {
+            if (position == limit) {
+                if (eof || !fill()) {
+                    return read;
+                }
+            }
+            if (skipLF) {
+                skipLF = false;
+                if (buffer[position] == '\n') {
+                    position++;
+                    continue;
+                }
+            }
+            read = true;
+            int start = position;
+            while (position < limit) {
+                char c = buffer[position];
+                if (c == '\n' || c == '\r') {
+                    append(start, position);
+                    position++;
+                    skipLF = (c == '\r');
+                    return true;
+                }
+                position++;
+            }
+            append(start, position);
+        }
+    }
+
+    private boolean fill() throws IOException {
+        int n;
+        do {
+            n = in.read(buffer, 0, buffer.length);
+        } while (n == 0);
+        if (n < 0) {
+            eof = true;
+            return false;
+        }
+        position = 0;
+        limit = n;
+        return true;
+    }
+
+    private void append(int start, int end) {
+        int n = end - start;
+        ensureLine(length + n);
+        System.arraycopy(buffer, start, line, length, n);
+        length += n;
+    }
+
+    private static boolean isSpace(char c) {//same as \s of regex
+        return c == ' ' || c == '\t' || c == '\n'
+                || c == '\u000B' || c == '\f' || c == '\r';
+    }
+
+    /**
+     * Split the current line into fields
+     */
+    private void tokenize() {
+        numFields = 0;
+        boolean matched = false;//delimiter found
+        int start = 0;
+        int i = 0;
+        while (i < length) {
+            char c = line[i];
+            if (format == Format.CSV) {
+                if (c != ',') {
+                    i++;
+                    continue;
+                }
+                int end = i;
+                while (end > start && isSpace(line[end - 1])) {
+                    end--;
+                }
+                addField(start, end);
+                i++;
+            } else {
+                if (!isSpace(c)) {
+                    i++;
+                    continue;
+                }
+                addField(start, i);
+            }
+            matched = true;
+            while (i < length && isSpace(line[i])) {
+                i++;
+            }
+            start = i;
+        }
+        addField(start, length);
+        if (matched) {//remove trailing empty fields
+            while (numFields > 0 && fields[numFields - 1].length() == 0) {
+                numFields--;
+            }
+        }
+    }
+
+    private void addField(int start, int end) {
+        if (numFields == fields.length) {
+            fields = Arrays.copyOf(fields, Math.max(8, 2 * numFields));
+            for (int k = numFields; k < fields.length; k++) {
+                fields[k] = new Field();
+            }
+        }
+        Field f = fields[numFields++];
+        f.start = start;
+        f.end = end;
+    }
+}
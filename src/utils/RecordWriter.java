@@ -0,0 +1,220 @@
+package utils;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Writer of records separated by commas or spaces
+ *
+ * Values are formatted into a reusable buffer without boxing, and the buffer
+ * is passed to the Writer when it becomes large. The output is the same as
+ * FileIO.writeCSV() and FileIO.writeSSV(): values are formatted as
+ * String.valueOf() and each record ends with FileIO.NL.
+ *
+ * <pre>
+ * try (RecordWriter w = RecordWriter.csv(FileIO.openWriter(file))) {
+ *     w.append(t).append(x).endRecord();
+ * }
+ * </pre>
+ *
+ * @author tadaki
+ */
+public class RecordWriter implements Closeable, Flushable {
+
+    private static final int BUFFER_SIZE = 8192;
+    private static final int MAX_SCALE = 8;//digits after point in fast path
+    private static final double[] POW10 = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8};
+    private final Writer out;
+    private final char separator;
+    private final StringBuilder sb = new StringBuilder(2 * BUFFER_SIZE);
+    private char[] chars = new char[2 * BUFFER_SIZE];
+    private boolean first = true;//no field in the current record
+
+    /**
+     * @param out destination
+     * @param separator delimitter
+     */
+    public RecordWriter(Writer out, char separator) {
+        this.out = out;
+        this.separator = separator;
+    }
+
+    /**
+     * Writer of comma separated values
+     *
+     * @param out destination
+     * @return writer
+     */
+    public static RecordWriter csv(Writer out) {
+        return new RecordWriter(out, ',');
+    }
+
+    /**
+     * Writer of space separated values
+     *
+     * @param out destination
+     * @return writer
+     */
+    public static RecordWriter ssv(Writer out) {
+        return new RecordWriter(out, ' ');
+    }
+
+    private StringBuilder field() {
+        if (!first) {
+            sb.append(separator);
+        }
+        first = false;
+        return sb;
+    }
+
+    public RecordWriter append(int v) {
+        field().append(v);
+        return this;
+    }
+
+    public RecordWriter append(long v) {
+        field().append(v);
+        return this;
+    }
+
+    public RecordWriter append(double v) {
+        appendDouble(field(), v);
+        return this;
+    }
+
+    public RecordWriter append(CharSequence v) {
+        field().append(v);
+        return this;
+    }
+
+    /**
+     * Append double in the same format as String.valueOf()
+     *
+     * A value between 1e-3 and 1e7 which is the nearest double of a decimal
+     * with at most MAX_SCALE digits after the point is formatted from the
+     * digits of the decimal. As decimals of at most 15 significant digits
+     * are distinguished by double, the decimal is the shortest one as
+     * Double.toString() gives. Other values are appended by StringBuilder.
+     */
+    static void appendDouble(StringBuilder sb, double v) {
+        double a = Math.abs(v);
+        if (a >= 1e-3 && a < 1e7) {
+            for (int d = 0; d <= MAX_SCALE; d++) {
+                double t = a * POW10[d];
+                long n = (long) t;
+                if (n == t && n / POW10[d] == a) {
+                    if (v < 0) {
+                        sb.append('-');
+                    }
+                    appendDecimal(sb, n, d);
+                    return;
+                }
+            }
+        }
+        sb.append(v);
+    }
+
+    /**
+     * Append n / 10^d with at least one digit after the point
+     */
+    private static void appendDecimal(StringBuilder sb, long n, int d) {
+        while (d > 1 && n % 10 == 0) {//remove trailing zeros
+            n /= 10;
+            d--;
+        }
+        long p = 1;
+        for (int k = 0; k < d; k++) {
+            p *= 10;
+        }
+        sb.append(n / p).append('.');
+        if (d == 0) {
+            sb.append('0');
+            return;
+        }
+        long f = n % p;
+        for (long q = p / 10; q > f && q > 1; q /= 10) {//leading zeros
+            sb.append('0');
+        }
+        sb.append(f);
+    }
+
+    /**
+     * End the current record
+     *
+     * @throws IOException
+     */
+    public void endRecord() throws IOException {
+        sb.append(FileIO.NL);
+        first = true;
+        if (sb.length() >= BUFFER_SIZE) {
+            writeBuffer();
+        }
+    }
+
+    /**
+     * Write values as one record
+     *
+     * @param values values
+     * @throws IOException
+     */
+    public void writeRecord(double[] values) throws IOException {
+        for (double v : values) {
+            append(v);
+        }
+        endRecord();
+    }
+
+    /**
+     * Write values as one record
+     *
+     * @param values values
+     * @throws IOException
+     */
+    public void writeRecord(int[] values) throws IOException {
+        for (int v : values) {
+            append(v);
+        }
+        endRecord();
+    }
+
+    /**
+     * Pass formatted records to the Writer
+     */
+    private void writeBuffer() throws IOException {
+        int n = sb.length();
+        if (n > chars.length) {
+            chars = new char[n];
+        }
+        sb.getChars(0, n, chars, 0);
+        out.write(chars, 0, n);
+        sb.setLength(0);
+    }
+
+    /**
+     * Pass buffered output to the Writer and flush it
+     *
+     * @throws IOException
+     */
+    @Override
+    public void flush() throws IOException {
+        writeBuffer();
+        out.flush();
+    }
+
+    /**
+     * Write the rest including an unfinished record and close the Writer
+     *
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            writeBuffer();
+        } finally {
+            out.close();
+        }
+    }
+}